@@ -0,0 +1,127 @@
+package com.ejin.sample.scanview;
+
+import android.Manifest;
+import android.app.Instrumentation;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Debug;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.ejin.sample.QrcodeActivity;
+import com.ejin.sample.R;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the time the UI thread spends per second while the scan line runs, with the overlay
+ * drawn in {@link BarcodeScannerView.MaskView#onDraw} and with {@link HardwareScannerOverlay}.
+ * Needs a device or emulator with a camera, as the framing rect comes from the camera
+ * configuration. It has not been run yet, so until it passes on a device the savings of
+ * {@link HardwareScannerOverlay} are an expectation rather than a measurement.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScannerOverlayFrameTimingTest {
+
+	private static final String TAG = "OverlayFrameTiming";
+	private static final long CAMERA_READY_TIMEOUT_MS = 10000;
+	private static final long SETTLE_MS = 1000;
+	private static final long MEASURE_MS = 3000;
+
+	@Rule
+	public final ActivityTestRule<QrcodeActivity> activityRule = new ActivityTestRule<>(
+			QrcodeActivity.class, false, false);
+
+	private Instrumentation instrumentation;
+	private BarcodeScannerView scannerView;
+
+	@Before
+	public void setUp() throws IOException {
+		// The view property animations can only move to the render thread from Lollipop
+		Assume.assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP);
+		instrumentation = InstrumentationRegistry.getInstrumentation();
+		String packageName = instrumentation.getTargetContext().getPackageName();
+		Assume.assumeTrue(instrumentation.getTargetContext().getPackageManager()
+				.hasSystemFeature(PackageManager.FEATURE_CAMERA_ANY));
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+			runShellCommand("pm grant " + packageName + " " + Manifest.permission.CAMERA);
+		}
+		QrcodeActivity activity = activityRule.launchActivity(null);
+		scannerView = (BarcodeScannerView) activity.findViewById(R.id.qrcoderiew);
+		long deadline = SystemClock.uptimeMillis() + CAMERA_READY_TIMEOUT_MS;
+		while (scannerView.getQrCodeReaderView().mCameraManager.getFramingRect() == null) {
+			Assume.assumeTrue("Camera not ready", SystemClock.uptimeMillis() < deadline);
+			SystemClock.sleep(50);
+		}
+	}
+
+	@Test
+	public void hardwareOverlayTakesLessUiThreadTime() {
+		long software = measureUiThreadTime(false);
+		long hardware = measureUiThreadTime(true);
+
+		Log.i(TAG, "UI thread time per second with the scan line running: drawn "
+				+ software / 1000 + " us, hardware overlay " + hardware / 1000 + " us");
+		assertTrue("Drawn " + software + " ns/s, hardware overlay " + hardware + " ns/s",
+				hardware < software);
+	}
+
+	/**
+	 * @return CPU time of the UI thread per second, in nanoseconds, while the scan line of the
+	 * overlay chosen runs.
+	 */
+	private long measureUiThreadTime(final boolean hardwareOverlay) {
+		instrumentation.runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				scannerView.setHardwareOverlayEnabled(hardwareOverlay);
+				scannerView.showScannerLine(true);
+			}
+		});
+		SystemClock.sleep(SETTLE_MS);
+		final long[] cpuTime = new long[1];
+		instrumentation.runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				cpuTime[0] = Debug.threadCpuTimeNanos();
+			}
+		});
+		SystemClock.sleep(MEASURE_MS);
+		instrumentation.runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				cpuTime[0] = Debug.threadCpuTimeNanos() - cpuTime[0];
+			}
+		});
+		return cpuTime[0] * 1000 / MEASURE_MS;
+	}
+
+	/**
+	 * Runs {@code command} as the shell user and waits for it to finish.
+	 */
+	private void runShellCommand(String command) throws IOException {
+		ParcelFileDescriptor output = instrumentation.getUiAutomation().executeShellCommand(command);
+		FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(output);
+		try {
+			byte[] buffer = new byte[1024];
+			while (in.read(buffer) != -1) {
+				// Drained, the command has finished once its output ends
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
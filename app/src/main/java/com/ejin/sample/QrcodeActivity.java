@@ -49,6 +49,12 @@ public class QrcodeActivity extends AppCompatActivity implements DecodeListener
 		scannerView.stopCamera();
 	}
 
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		scannerView.close();
+	}
+
 	@Override
 	public void onRead(final String s) {
 		scannerView.post(new Runnable() {
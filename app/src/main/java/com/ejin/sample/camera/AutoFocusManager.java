@@ -33,45 +33,112 @@
 package com.ejin.sample.camera;
 
 import android.hardware.Camera;
-import android.os.AsyncTask;
+import android.os.Handler;
 import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.RejectedExecutionException;
 
+/**
+ * Keeps the preview in focus, scheduling on a {@link Handler} so no thread is held while waiting.
+ * <ul>
+ * <li>In auto and macro focus mode, focuses every {@link #setAutofocusInterval(long) interval}
+ * after the last focus ended.</li>
+ * <li>In the continuous modes the camera focuses by itself; this only steps in when asked to.</li>
+ * </ul>
+ * In either mode, {@link #onFrameSharpness(int)} focuses again at once when the framing rect
+ * turns blurry, such as when a code is brought closer, rather than waiting for the next cycle.
+ */
 final class AutoFocusManager implements Camera.AutoFocusCallback {
 
 	private static final String TAG = AutoFocusManager.class.getSimpleName();
 
 	protected static final long DEFAULT_AUTO_FOCUS_INTERVAL_MS = 500L;
+	/**
+	 * Frames in a row at under half the sharpness seen since the last focus which call for
+	 * focusing again
+	 */
+	static final int BLURRY_FRAMES = 3;
+	/**
+	 * Least time between the end of one focus and a focus called for by blurry frames
+	 */
+	static final long MIN_REFOCUS_GAP_MS = 300L;
 	private static final Collection<String> FOCUS_MODES_CALLING_AF;
+	private static final Collection<String> FOCUS_MODES_CONTINUOUS;
 	private long autofocusIntervalMs = DEFAULT_AUTO_FOCUS_INTERVAL_MS;
 
 	static {
 		FOCUS_MODES_CALLING_AF = new ArrayList<>(2);
 		FOCUS_MODES_CALLING_AF.add(Camera.Parameters.FOCUS_MODE_AUTO);
 		FOCUS_MODES_CALLING_AF.add(Camera.Parameters.FOCUS_MODE_MACRO);
+		FOCUS_MODES_CONTINUOUS = new ArrayList<>(2);
+		FOCUS_MODES_CONTINUOUS.add(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
+		FOCUS_MODES_CONTINUOUS.add(Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO);
 	}
 
 	private boolean stopped;
+	private boolean suspended;
 	private boolean focusing;
 	private final boolean useAutoFocus;
+	private final boolean continuous;
 	private final Camera camera;
-	private AsyncTask<?, ?, ?> outstandingTask;
+	private final Handler handler;
+	private final ScanMetrics metrics;
+	// Best sharpness since the last focus ended, and the blurry frames in a row below it
+	private int bestSharpness;
+	private int blurryFrames;
+	// Cleared when a focus ends, set again MIN_REFOCUS_GAP_MS later
+	private boolean refocusAllowed = true;
+
+	private final Runnable focusRunnable = new Runnable() {
+		@Override
+		public void run() {
+			start();
+		}
+	};
 
-	AutoFocusManager(Camera camera) {
+	private final Runnable allowRefocusRunnable = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (AutoFocusManager.this) {
+				refocusAllowed = true;
+			}
+		}
+	};
+
+	/**
+	 * @param handler runs the focus cycle, on the thread the camera delivers its callbacks on.
+	 */
+	AutoFocusManager(Camera camera, Handler handler, ScanMetrics metrics, long autofocusIntervalMs) {
 		this.camera = camera;
+		this.handler = handler;
+		this.metrics = metrics;
+		setAutofocusInterval(autofocusIntervalMs);
 		String currentFocusMode = camera.getParameters().getFocusMode();
 		useAutoFocus = FOCUS_MODES_CALLING_AF.contains(currentFocusMode);
-		Log.i(TAG, "Current focus mode '" + currentFocusMode + "'; use auto focus? " + useAutoFocus);
+		continuous = FOCUS_MODES_CONTINUOUS.contains(currentFocusMode);
+		Log.i(TAG, "Current focus mode '" + currentFocusMode + "'; use auto focus? " + useAutoFocus
+				+ "; continuous? " + continuous);
 		start();
 	}
 
 	@Override
 	public synchronized void onAutoFocus(boolean success, Camera theCamera) {
 		focusing = false;
-		autoFocusAgainLater();
+		bestSharpness = 0;
+		blurryFrames = 0;
+		if (!stopped) {
+			refocusAllowed = false;
+			handler.removeCallbacks(allowRefocusRunnable);
+			handler.postDelayed(allowRefocusRunnable, MIN_REFOCUS_GAP_MS);
+		}
+		metrics.onAutoFocusCycle();
+		if (continuous) {
+			// The focus stays locked until cancelled, cancelling hands it back to the camera
+			cancelAutoFocus();
+		} else {
+			autoFocusAgainLater();
+		}
 	}
 
 	public void setAutofocusInterval(long autofocusIntervalMs) {
@@ -82,21 +149,20 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
 	}
 
 	private synchronized void autoFocusAgainLater() {
-		if (!stopped && outstandingTask == null) {
-			AutoFocusTask newTask = new AutoFocusTask();
-			try {
-				newTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-				outstandingTask = newTask;
-			} catch (RejectedExecutionException ree) {
-				Log.w(TAG, "Could not request auto focus", ree);
-			}
+		if (!stopped && !suspended && useAutoFocus) {
+			handler.removeCallbacks(focusRunnable);
+			handler.postDelayed(focusRunnable, autofocusIntervalMs);
 		}
 	}
 
+	/**
+	 * Focuses now, unless already focusing. In a continuous mode the focus is then handed back to
+	 * the camera; otherwise the cycle goes on from there.
+	 */
 	synchronized void start() {
-		if (useAutoFocus) {
-			outstandingTask = null;
-			if (!stopped && !focusing) {
+		if (useAutoFocus || continuous) {
+			handler.removeCallbacks(focusRunnable);
+			if (!stopped && !suspended && !focusing) {
 				try {
 					camera.autoFocus(this);
 					focusing = true;
@@ -104,45 +170,73 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
 					// Have heard RuntimeException reported in Android 4.0.x+; continue?
 					Log.w(TAG, "Unexpected exception while focusing", re);
 					// Try again later to keep cycle going
-          			autoFocusAgainLater();
+					autoFocusAgainLater();
 				}
 			}
 		}
 	}
 
-	private synchronized void cancelOutstandingTask() {
-		if (outstandingTask != null) {
-			if (outstandingTask.getStatus() != AsyncTask.Status.FINISHED) {
-				outstandingTask.cancel(true);
+	/**
+	 * Called with the sharpness of the framing rect of each frame taken, as measured by
+	 * {@link FrameQualityGate#measureSharpness(byte[], FrameGeometry)}. Focuses again once
+	 * {@value #BLURRY_FRAMES} frames in a row are less than half as sharp as the sharpest since the
+	 * last focus.
+	 *
+	 * @param sharpness mean gradient, -1 if it could not be measured.
+	 */
+	synchronized void onFrameSharpness(int sharpness) {
+		if (sharpness < 0 || focusing || stopped || suspended || !(useAutoFocus || continuous)) {
+			return;
+		}
+		if (sharpness >= bestSharpness) {
+			bestSharpness = sharpness;
+			blurryFrames = 0;
+		} else if (sharpness * 2 < bestSharpness) {
+			blurryFrames++;
+			if (blurryFrames >= BLURRY_FRAMES && refocusAllowed) {
+				Log.d(TAG, "Sharpness dropped from " + bestSharpness + " to " + sharpness + ", focusing");
+				start();
 			}
-			outstandingTask = null;
+		} else {
+			blurryFrames = 0;
+		}
+	}
+
+	/**
+	 * Stops focusing while the camera parameters are changed, such as the torch, since some
+	 * drivers reject parameters while focusing. {@link #resume()} goes on from there.
+	 */
+	synchronized void suspend() {
+		suspended = true;
+		handler.removeCallbacks(focusRunnable);
+		if (focusing) {
+			focusing = false;
+			cancelAutoFocus();
 		}
 	}
 
+	synchronized void resume() {
+		suspended = false;
+		start();
+	}
+
 	synchronized void stop() {
 		stopped = true;
-		if (useAutoFocus) {
-			cancelOutstandingTask();
+		handler.removeCallbacks(focusRunnable);
+		handler.removeCallbacks(allowRefocusRunnable);
+		if (useAutoFocus || continuous) {
+			focusing = false;
 			// Doesn't hurt to call this even if not focusing
-			try {
-				camera.cancelAutoFocus();
-			} catch (RuntimeException re) {
-				// Have heard RuntimeException reported in Android 4.0.x+; continue?
-				Log.w(TAG, "Unexpected exception while cancelling focusing", re);
-			}
+			cancelAutoFocus();
 		}
 	}
 
-	private final class AutoFocusTask extends AsyncTask<Object, Object, Object> {
-		@Override
-		protected Object doInBackground(Object... voids) {
-			try {
-				Thread.sleep(autofocusIntervalMs);
-			} catch (InterruptedException e) {
-				// continue
-			}
-			start();
-			return null;
+	private void cancelAutoFocus() {
+		try {
+			camera.cancelAutoFocus();
+		} catch (RuntimeException re) {
+			// Have heard RuntimeException reported in Android 4.0.x+; continue?
+			Log.w(TAG, "Unexpected exception while cancelling focusing", re);
 		}
 	}
 }
@@ -0,0 +1,235 @@
+package com.ejin.sample.camera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Point;
+import android.hardware.Camera;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the camera configuration found for a device, camera and view size, so a later open
+ * can set it straight away instead of sorting the preview sizes and reading the parameters back.
+ * <p>
+ * Entries are kept in {@link SharedPreferences}. An entry is only used if it was written by the
+ * same build of the system and the camera still offers its preview size and focus mode, see
+ * {@link #get(String, List, List)}; one the camera rejects is removed by
+ * {@link CameraConfigurationManager}. At most {@link #MAX_ENTRIES} are kept: writing one drops
+ * those no longer usable and then the least recently written, see
+ * {@link #selectEvicted(Map, String, String, int)}.
+ */
+final class CameraConfigCache {
+
+	private static final String PREFERENCES_NAME = "camera_config_cache";
+	/**
+	 * Bumped whenever the format or the way a configuration is chosen changes
+	 */
+	private static final int VERSION = 3;
+	/**
+	 * One per view size and orientation of a couple of cameras and policies is plenty
+	 */
+	static final int MAX_ENTRIES = 8;
+
+	/**
+	 * A configuration known to work.
+	 */
+	static final class Entry {
+
+		final Point previewSize;
+		// null if the camera had no settable focus mode
+		final String focusMode;
+		final int displayRotation;
+
+		Entry(Point previewSize, String focusMode, int displayRotation) {
+			this.previewSize = previewSize;
+			this.focusMode = focusMode;
+			this.displayRotation = displayRotation;
+		}
+	}
+
+	private final SharedPreferences preferences;
+	// Of the system build the entries are written by and valid for
+	private final String fingerprint;
+
+	CameraConfigCache(Context context) {
+		this(context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE), Build.FINGERPRINT);
+	}
+
+	CameraConfigCache(SharedPreferences preferences, String fingerprint) {
+		this.preferences = preferences;
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * @param displayRotation rotation of the display, as the view size depends on it.
+	 */
+	static String key(int cameraId, int width, int height, int displayRotation) {
+		return Build.MANUFACTURER + '/' + Build.MODEL + '/' + cameraId + '/' + width + 'x' + height
+				+ '/' + displayRotation;
+	}
+
+	/**
+	 * @param supportedPreviewSizes what the camera offers now, {@code null} if it does not tell.
+	 * @param supportedFocusModes   likewise.
+	 * @return the entry for {@code key}, or {@code null} if there is none or it no longer fits the
+	 * camera, in which case it is removed.
+	 */
+	Entry get(String key, List<Camera.Size> supportedPreviewSizes,
+			  List<String> supportedFocusModes) {
+		String value = preferences.getString(key, null);
+		if (value == null) {
+			return null;
+		}
+		Entry entry = parse(value, fingerprint);
+		if (entry == null || !isValid(entry, supportedPreviewSizes, supportedFocusModes)) {
+			remove(key);
+			return null;
+		}
+		return entry;
+	}
+
+	void put(String key, Entry entry) {
+		SharedPreferences.Editor editor = preferences.edit();
+		for (String evicted : selectEvicted(preferences.getAll(), key, fingerprint, MAX_ENTRIES)) {
+			editor.remove(evicted);
+		}
+		editor.putString(key, format(entry, fingerprint, System.currentTimeMillis()));
+		editor.apply();
+	}
+
+	void remove(String key) {
+		preferences.edit().remove(key).apply();
+	}
+
+	void clear() {
+		preferences.edit().clear().apply();
+	}
+
+	static boolean isValid(Entry entry, List<Camera.Size> supportedPreviewSizes,
+						   List<String> supportedFocusModes) {
+		if (supportedPreviewSizes != null) {
+			boolean supported = false;
+			for (Camera.Size size : supportedPreviewSizes) {
+				if (size.width == entry.previewSize.x && size.height == entry.previewSize.y) {
+					supported = true;
+					break;
+				}
+			}
+			if (!supported) {
+				return false;
+			}
+		}
+		return entry.focusMode == null || supportedFocusModes == null
+				|| supportedFocusModes.contains(entry.focusMode);
+	}
+
+	/**
+	 * @param stored the cached values by key, as read from the preferences.
+	 * @param keep   key about to be written, never selected.
+	 * @return the keys to remove so that, once {@code keep} is written, at most
+	 * {@code maxEntries} are left: every value {@link #parse(String, String)} rejects, then the
+	 * least recently written.
+	 */
+	static List<String> selectEvicted(Map<String, ?> stored, String keep, String fingerprint,
+									  int maxEntries) {
+		List<String> evicted = new ArrayList<>();
+		final Map<String, Long> savedAt = new HashMap<>();
+		for (Map.Entry<String, ?> entry : stored.entrySet()) {
+			String key = entry.getKey();
+			if (key.equals(keep)) {
+				continue;
+			}
+			Object value = entry.getValue();
+			long time = value instanceof String ? parseSavedAt((String) value, fingerprint) : -1;
+			if (time < 0) {
+				evicted.add(key);
+			} else {
+				savedAt.put(key, time);
+			}
+		}
+		int excess = savedAt.size() - (maxEntries - 1);
+		if (excess > 0) {
+			List<String> live = new ArrayList<>(savedAt.keySet());
+			Collections.sort(live, new Comparator<String>() {
+				@Override
+				public int compare(String lhs, String rhs) {
+					long difference = savedAt.get(lhs) - savedAt.get(rhs);
+					return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+				}
+			});
+			evicted.addAll(live.subList(0, excess));
+		}
+		return evicted;
+	}
+
+	/**
+	 * {@code version;width;height;focus mode;display rotation;time written;fingerprint}, the
+	 * fingerprint last as it is the only field which may hold a ';'.
+	 *
+	 * @param savedAt when the entry is written, in milliseconds since the epoch.
+	 */
+	static String format(Entry entry, String fingerprint, long savedAt) {
+		return VERSION + ";" + entry.previewSize.x + ';' + entry.previewSize.y + ';'
+				+ (entry.focusMode == null ? "" : entry.focusMode) + ';' + entry.displayRotation + ';'
+				+ savedAt + ';' + fingerprint;
+	}
+
+	/**
+	 * @return the entry, or {@code null} if it is malformed, of another version or written by
+	 * another build of the system.
+	 */
+	static Entry parse(String value, String fingerprint) {
+		String[] fields = split(value, fingerprint);
+		if (fields == null) {
+			return null;
+		}
+		try {
+			int width = Integer.parseInt(fields[1]);
+			int height = Integer.parseInt(fields[2]);
+			int displayRotation = Integer.parseInt(fields[4]);
+			if (width <= 0 || height <= 0 || displayRotation % 90 != 0
+					|| parseSavedAt(fields[5]) < 0) {
+				return null;
+			}
+			return new Entry(new Point(width, height), fields[3].isEmpty() ? null : fields[3],
+					displayRotation);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return when the entry was written, or -1 if {@link #parse(String, String)} rejects it.
+	 */
+	static long parseSavedAt(String value, String fingerprint) {
+		return parse(value, fingerprint) == null ? -1 : parseSavedAt(split(value, fingerprint)[5]);
+	}
+
+	private static long parseSavedAt(String field) {
+		try {
+			long savedAt = Long.parseLong(field);
+			return savedAt < 0 ? -1 : savedAt;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the fields of {@code value}, or {@code null} if there are too few, or it is of
+	 * another version or build of the system.
+	 */
+	private static String[] split(String value, String fingerprint) {
+		String[] fields = value.split(";", 7);
+		if (fields.length != 7 || !String.valueOf(VERSION).equals(fields[0])
+				|| !fields[6].equals(fingerprint)) {
+			return null;
+		}
+		return fields;
+	}
+}
@@ -48,10 +48,15 @@ final class CameraConfigurationManager {
 	// accidental selection of very low resolution on some devices.
 	private static final int MIN_PREVIEW_PIXELS = 470 * 320; // normal screen
 	private static final int MAX_PREVIEW_PIXELS = 1280 * 720;
-	private static final float MAX_ASPECT_DISTORTION = 0.15f;
+	static final float MAX_ASPECT_DISTORTION = 0.15f;
 	private static final float MAX_EXPOSURE_COMPENSATION = 1.5f;
 	private static final float MIN_EXPOSURE_COMPENSATION = 0.0f;
 	private final Context context;
+	private final CameraConfigCache cache;
+	private String cacheKey;
+	// What the last open found in the cache, null if it had to work the configuration out
+	private CameraConfigCache.Entry cachedConfig;
+	private PreviewSizePolicy previewSizePolicy;
 
 	private Point resolution;
 	private Point cameraResolution;
@@ -59,9 +64,15 @@ final class CameraConfigurationManager {
 	private Point previewSizeOnScreen;
 	private int cwRotationFromDisplayToCamera;
 	private int cwNeededRotation;
+	private boolean frontCamera;
 
 	CameraConfigurationManager(Context context) {
+		this(context, new CameraConfigCache(context));
+	}
+
+	CameraConfigurationManager(Context context, CameraConfigCache cache) {
 		this.context = context;
+		this.cache = cache;
 	}
 
 	void initFromCameraParameters(OpenCamera camera, int width, int height) {
@@ -94,6 +105,7 @@ final class CameraConfigurationManager {
 		}
 		Log.i(TAG, "Display at: " + cwRotationFromNaturalToDisplay);
 
+		frontCamera = camera.getFacing() == CameraFacing.FRONT;
 		int cwRotationFromNaturalToCamera = camera.getOrientation();
 		Log.i(TAG, "Camera at: " + cwRotationFromNaturalToCamera);
 
@@ -116,10 +128,23 @@ final class CameraConfigurationManager {
 
 		resolution = new Point(width, height);
 		Log.i(TAG, "Screen resolution in current orientation: " + resolution);
-		cameraResolution = findBestPreviewSizeValue2(parameters, resolution);
-		Log.i(TAG, "Camera resolution: " + cameraResolution);
-		bestPreviewSize = findBestPreviewSizeValue2(parameters, resolution);
-		Log.i(TAG, "Best available preview size: " + bestPreviewSize);
+		cacheKey = buildCacheKey(camera.getIndex(), width, height, cwRotationFromNaturalToDisplay);
+		cachedConfig = cacheKey == null ? null : cache.get(cacheKey,
+				parameters.getSupportedPreviewSizes(), parameters.getSupportedFocusModes());
+		if (cachedConfig != null && cachedConfig.displayRotation != cwRotationFromDisplayToCamera) {
+			cache.remove(cacheKey);
+			cachedConfig = null;
+		}
+		if (cachedConfig != null) {
+			bestPreviewSize = new Point(cachedConfig.previewSize);
+			Log.i(TAG, "Cached preview size: " + bestPreviewSize);
+		} else {
+			bestPreviewSize = selectPreviewSize(parameters, resolution);
+			Log.i(TAG, "Best available preview size: " + bestPreviewSize);
+		}
+		// Same search, same result, no need to run it twice. A copy, as the preview size is
+		// corrected to what the driver reports once set
+		cameraResolution = new Point(bestPreviewSize);
 
 		boolean isScreenPortrait = resolution.x < resolution.y;
 		boolean isPreviewSizePortrait = bestPreviewSize.x < bestPreviewSize.y;
@@ -143,7 +168,10 @@ final class CameraConfigurationManager {
 			return;
 		}
 
-		Log.i(TAG, "Initial camera parameters: " + parameters.flatten());
+		CameraConfigCache.Entry cached = safeMode ? null : cachedConfig;
+		if (cached == null) {
+			Log.i(TAG, "Initial camera parameters: " + parameters.flatten());
+		}
 
 		if (safeMode) {
 			Log.w(TAG, "In camera config safe mode -- most settings will not be honored");
@@ -151,10 +179,12 @@ final class CameraConfigurationManager {
 
 		// Maybe selected auto-focus but not available, so fall through here:
 		String focusMode = null;
-		if (!safeMode) {
+		if (cached != null) {
+			focusMode = cached.focusMode;
+		} else if (!safeMode) {
 			List<String> supportedFocusModes = parameters.getSupportedFocusModes();
-			focusMode =
-					findSettableValue("focus mode", supportedFocusModes, Camera.Parameters.FOCUS_MODE_AUTO);
+			focusMode = findSettableValue("focus mode", supportedFocusModes,
+					Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE, Camera.Parameters.FOCUS_MODE_AUTO);
 		}
 		if (focusMode != null) {
 			parameters.setFocusMode(focusMode);
@@ -163,10 +193,25 @@ final class CameraConfigurationManager {
 		parameters.setPreviewSize(bestPreviewSize.x, bestPreviewSize.y);
 //		parameters.setPreviewSize(previewSizeOnScreen.x, previewSizeOnScreen.y);
 
-		theCamera.setParameters(parameters);
+		try {
+			theCamera.setParameters(parameters);
+		} catch (RuntimeException re) {
+			if (cached != null) {
+				// Whatever changed since, it is not worth trying again next time
+				Log.w(TAG, "Camera rejected the cached configuration, forgetting it");
+				cache.remove(cacheKey);
+				cachedConfig = null;
+			}
+			throw re;
+		}
 
 		theCamera.setDisplayOrientation(cwRotationFromDisplayToCamera);
 
+		if (cached != null) {
+			// Read back and checked when it was cached
+			return;
+		}
+
 		Camera.Parameters afterParameters = theCamera.getParameters();
 		Camera.Size afterSize = afterParameters.getPreviewSize();
 		if (afterSize != null && (bestPreviewSize.x != afterSize.width
@@ -183,12 +228,76 @@ final class CameraConfigurationManager {
 			bestPreviewSize.x = afterSize.width;
 			bestPreviewSize.y = afterSize.height;
 		}
+		if (!safeMode && cacheKey != null) {
+			cachedConfig = new CameraConfigCache.Entry(new Point(bestPreviewSize), focusMode,
+					cwRotationFromDisplayToCamera);
+			cache.put(cacheKey, cachedConfig);
+		}
+	}
+
+	/**
+	 * @return the cache key of this device, camera, view size and preview size policy, or
+	 * {@code null} if the policy has no stable {@link PreviewSizePolicy#cacheKey()}, in which case
+	 * the configuration is not cached.
+	 */
+	String buildCacheKey(int cameraId, int width, int height, int displayRotation) {
+		String key = CameraConfigCache.key(cameraId, width, height, displayRotation);
+		if (previewSizePolicy == null) {
+			return key;
+		}
+		String policyKey = previewSizePolicy.cacheKey();
+		return policyKey == null ? null : key + '/' + policyKey;
+	}
+
+	/**
+	 * Forgets every configuration cached so far, for this and other cameras and view sizes.
+	 */
+	void clearCache() {
+		cache.clear();
+		cachedConfig = null;
+	}
+
+	/**
+	 * @return whether the last {@link #initFromCameraParameters} found a configuration in the
+	 * cache, which the camera accepted and reported back unchanged when it was cached.
+	 */
+	boolean isConfigCached() {
+		return cachedConfig != null;
+	}
+
+	/**
+	 * @param policy chooses the preview size from the next time the camera is configured,
+	 *               {@code null} for {@link #findBestPreviewSizeValue2}.
+	 */
+	void setPreviewSizePolicy(PreviewSizePolicy policy) {
+		previewSizePolicy = policy;
+	}
+
+	private Point selectPreviewSize(Camera.Parameters parameters, Point screenResolution) {
+		PreviewSizePolicy policy = previewSizePolicy;
+		List<Camera.Size> supportedSizes = parameters.getSupportedPreviewSizes();
+		if (policy != null && supportedSizes != null) {
+			List<Point> sizes = new ArrayList<>(supportedSizes.size());
+			for (Camera.Size size : supportedSizes) {
+				sizes.add(new Point(size.width, size.height));
+			}
+			Point selected = policy.select(sizes, screenResolution);
+			if (selected != null) {
+				Log.i(TAG, policy + " selected preview size: " + selected);
+				return new Point(selected);
+			}
+		}
+		return findBestPreviewSizeValue2(parameters, screenResolution);
 	}
 
 	Point getCameraResolution() {
 		return cameraResolution;
 	}
 
+	Point getBestPreviewSize() {
+		return bestPreviewSize;
+	}
+
 	Point getPreviewSizeOnScreen() {
 		return previewSizeOnScreen;
 	}
@@ -197,6 +306,14 @@ final class CameraConfigurationManager {
 		return resolution;
 	}
 
+	int getCwNeededRotation() {
+		return cwNeededRotation;
+	}
+
+	boolean isFrontCamera() {
+		return frontCamera;
+	}
+
 	// All references to Torch are removed from here, methods, variables...
 
 	public Point findBestPreviewSizeValue2(Camera.Parameters parameters, Point screenResolution) {
@@ -17,17 +17,24 @@
 package com.ejin.sample.camera;
 
 import android.content.Context;
+import android.graphics.ImageFormat;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.hardware.Camera;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.util.Log;
 import android.view.SurfaceHolder;
 
 import com.ejin.sample.camera.open.OpenCamera;
 import com.ejin.sample.camera.open.OpenCameraInterface;
-import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.ResultPoint;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This object wraps the Camera service object and expects to be the only one talking to it. The
@@ -41,37 +48,62 @@ public final class CameraManager {
 	private static final String TAG = CameraManager.class.getSimpleName();
 
 	private final CameraConfigurationManager configManager;
-	private OpenCamera openCamera;
-	private AutoFocusManager autoFocusManager;
-	private boolean initialized;
-	private boolean previewing;
-	private int displayOrientation = 0;
-	private Rect framingRect, framingRectInPreview;
+	// Written under the lock, volatile for the lock-free readers
+	private volatile OpenCamera openCamera;
+	private volatile AutoFocusManager autoFocusManager;
+	// Read by the open on the camera thread before it takes the lock
+	private volatile boolean initialized;
+	private volatile boolean previewing;
+	// Set without the lock, applied to the camera on the camera thread
+	private volatile int displayOrientation = 0;
+	// Rebuilt whenever the camera is configured or the scanner type switched, see publishSession()
+	private final AtomicReference<CameraSession> session = new AtomicReference<>();
 
 	// PreviewCallback references are also removed from original ZXING authors work,
 	// since we're using our own interface.
 	// FramingRects references are also removed from original ZXING authors work,
 	// since We're using all view size while detecting QR-Codes.
-	private int requestedCameraId = OpenCameraInterface.NO_REQUESTED_CAMERA;
-	private long autofocusIntervalInMs = AutoFocusManager.DEFAULT_AUTO_FOCUS_INTERVAL_MS;
+	private volatile int requestedCameraId = OpenCameraInterface.NO_REQUESTED_CAMERA;
+	private volatile long autofocusIntervalInMs = AutoFocusManager.DEFAULT_AUTO_FOCUS_INTERVAL_MS;
+	private Camera.PreviewCallback bufferedPreviewCallback;
+	private FrameBufferPool frameBufferPool;
+	private final ScanMetrics metrics = new ScanMetrics();
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	// Guards the camera thread, apart from the lock the camera thread itself takes
+	private final Object cameraThreadLock = new Object();
+	private HandlerThread cameraThread;
+	private Handler cameraHandler;
+	// Bumped by every open and close, so an open still queued knows it was cancelled
+	private final AtomicInteger openGeneration = new AtomicInteger();
 
 	/**
 	 * 扫描的类型
 	 * bar code:长方形
 	 * qr code:正方形
 	 */
-	public static final int SCANNER_BAR_CODE = 1;
-	public static final int SCANNER_QR_CODE = 2;
-	private int scannerType = SCANNER_QR_CODE;
+	public static final int SCANNER_BAR_CODE = DecodeMode.BAR_CODE;
+	public static final int SCANNER_QR_CODE = DecodeMode.QR_CODE;
+	private volatile int scannerType = SCANNER_QR_CODE;
 
 
 	public CameraManager(Context context) {
 		this.configManager = new CameraConfigurationManager(context);
 	}
 
-	public synchronized void requestOneShotFrame(Camera.PreviewCallback callback) {
-		if (isOpen()) {
-			openCamera.getCamera().setOneShotPreviewCallback(callback);
+	/**
+	 * Called for every frame, so it does not take the lock: at worst the camera is released
+	 * meanwhile and the request is dropped.
+	 */
+	public void requestOneShotFrame(Camera.PreviewCallback callback) {
+		OpenCamera theCamera = openCamera;
+		if (theCamera == null || theCamera.getCamera() == null) {
+			return;
+		}
+		try {
+			theCamera.getCamera().setOneShotPreviewCallback(callback);
+		} catch (RuntimeException e) {
+			// Released by closeDriver() since read
+			Log.w(TAG, "Camera released, frame not requested: " + e.getMessage());
 		}
 	}
 
@@ -81,29 +113,127 @@ public final class CameraManager {
 		}
 	}
 
+	/**
+	 * Delivers preview frames into the buffers of {@code pool} instead of letting the camera
+	 * allocate a new array per frame. The callback survives preview restarts; pass {@code null}
+	 * to remove it.
+	 */
+	synchronized void setPreviewCallbackWithBuffer(Camera.PreviewCallback callback,
+												   FrameBufferPool pool) {
+		if (frameBufferPool != null) {
+			frameBufferPool.detach();
+		}
+		bufferedPreviewCallback = callback;
+		frameBufferPool = callback == null ? null : pool;
+		if (isOpen()) {
+			Camera camera = openCamera.getCamera();
+			// Clear whatever buffers are still queued before handing out the new ones
+			camera.setPreviewCallbackWithBuffer(null);
+			if (callback != null) {
+				camera.setPreviewCallbackWithBuffer(callback);
+				if (previewing) {
+					attachFrameBufferPool(camera);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the callback set by {@link #setPreviewCallbackWithBuffer}, or {@code null}.
+	 */
+	synchronized Camera.PreviewCallback getPreviewCallbackWithBuffer() {
+		return bufferedPreviewCallback;
+	}
+
+	/**
+	 * @return the pool set by {@link #setPreviewCallbackWithBuffer}, or {@code null}.
+	 */
+	synchronized FrameBufferPool getFrameBufferPool() {
+		return frameBufferPool;
+	}
+
+	private void attachFrameBufferPool(Camera camera) {
+		if (frameBufferPool != null) {
+			frameBufferPool.attach(camera, getPreviewBufferSize());
+		}
+	}
+
+	/**
+	 * @return size in bytes of one preview frame. Preview format is left at the NV21 default.
+	 */
+	int getPreviewBufferSize() {
+		Point size = configManager.getBestPreviewSize();
+		return size.x * size.y * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+	}
+
+	/**
+	 * @return counters and latencies of the scan loop, reported into by this camera manager, its
+	 * auto focus and the decoder.
+	 */
+	public ScanMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Turns the preview to {@code degrees}. Does not wait for the camera: an open camera is turned
+	 * on the camera thread, one still opening is turned once it is open.
+	 */
 	public void setDisplayOrientation(int degrees) {
-		this.displayOrientation = degrees;
+		displayOrientation = degrees;
+		if (isOpen()) {
+			getCameraHandler().post(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (CameraManager.this) {
+						applyDisplayOrientation();
+					}
+				}
+			});
+		}
+	}
 
+	/**
+	 * Called with the lock held.
+	 */
+	private void applyDisplayOrientation() {
 		if (isOpen()) {
-			openCamera.getCamera().setDisplayOrientation(degrees);
+			openCamera.getCamera().setDisplayOrientation(displayOrientation);
 		}
 	}
 
 	public void setAutofocusInterval(long autofocusIntervalInMs) {
 		this.autofocusIntervalInMs = autofocusIntervalInMs;
-		if (autoFocusManager != null) {
-			autoFocusManager.setAutofocusInterval(autofocusIntervalInMs);
+		AutoFocusManager manager = autoFocusManager;
+		if (manager != null) {
+			manager.setAutofocusInterval(autofocusIntervalInMs);
 		}
 	}
 
 	public void forceAutoFocus() {
-		if (autoFocusManager != null) {
-			autoFocusManager.start();
+		AutoFocusManager manager = autoFocusManager;
+		if (manager != null) {
+			manager.start();
+		}
+	}
+
+	/**
+	 * Tells the auto focus how sharp the framing rect of the latest frame is, so it focuses again
+	 * once it turns blurry.
+	 */
+	void onFrameSharpness(int sharpness) {
+		AutoFocusManager manager = autoFocusManager;
+		if (manager != null) {
+			manager.onFrameSharpness(sharpness);
 		}
 	}
 
+	/**
+	 * @return a copy of the preview size as shown on screen, or {@code null} before the camera
+	 * has been configured.
+	 */
 	public Point getPreviewSize() {
-		return configManager.getPreviewSizeOnScreen();
+		CameraSession current = session.get();
+		return current == null ? null : new Point(current.previewSizeOnScreen);
 	}
 
 	/**
@@ -122,30 +252,49 @@ public final class CameraManager {
 			}
 			openCamera = theCamera;
 		}
+		configure(theCamera, holder, width, height, displayOrientation);
+		onConfigured();
+	}
+
+	/**
+	 * Points {@code theCamera} at {@code holder} and sets its parameters. Apart from the
+	 * configuration manager it touches no state of this object, so the open on the camera thread
+	 * runs it without the lock, on a camera not published yet.
+	 */
+	private void configure(OpenCamera theCamera, SurfaceHolder holder, int width, int height,
+						   int displayOrientation) throws IOException {
 		theCamera.getCamera().setPreviewDisplay(holder);
 		theCamera.getCamera().setDisplayOrientation(displayOrientation);
 
 		if (!initialized) {
-			initialized = true;
 			configManager.initFromCameraParameters(theCamera, width, height);
 		}
 
 		Camera cameraObject = theCamera.getCamera();
-		Camera.Parameters parameters = cameraObject.getParameters();
-		String parametersFlattened =
-				parameters == null ? null : parameters.flatten(); // Save these, temporarily
+		// A cached configuration was accepted by this camera before, so it is set without the
+		// round trip of saving the parameters first. Should it be rejected all the same, the
+		// driver kept its own and safe mode starts from those.
+		boolean cached = configManager.isConfigCached();
+		String parametersFlattened = null;
+		if (!cached) {
+			Camera.Parameters parameters = cameraObject.getParameters();
+			parametersFlattened =
+					parameters == null ? null : parameters.flatten(); // Save these, temporarily
+		}
 		try {
 			configManager.setDesiredCameraParameters(theCamera, false);
 		} catch (RuntimeException re) {
 			// Driver failed
 			Log.w(TAG, "Camera rejected parameters. Setting only minimal safe-mode parameters");
-			Log.i(TAG, "Resetting to saved camera params: " + parametersFlattened);
 			// Reset:
-			if (parametersFlattened != null) {
-				parameters = cameraObject.getParameters();
-				parameters.unflatten(parametersFlattened);
+			if (parametersFlattened != null || cached) {
 				try {
-					cameraObject.setParameters(parameters);
+					if (parametersFlattened != null) {
+						Log.i(TAG, "Resetting to saved camera params: " + parametersFlattened);
+						Camera.Parameters parameters = cameraObject.getParameters();
+						parameters.unflatten(parametersFlattened);
+						cameraObject.setParameters(parameters);
+					}
 					configManager.setDesiredCameraParameters(theCamera, true);
 				} catch (RuntimeException re2) {
 					// Well, darn. Give up
@@ -156,6 +305,203 @@ public final class CameraManager {
 		cameraObject.setPreviewDisplay(holder);
 	}
 
+	/**
+	 * Publishes the session once the first camera is configured. Called with the lock held.
+	 */
+	private void onConfigured() {
+		if (!initialized) {
+			initialized = true;
+			publishSession();
+		}
+	}
+
+	/**
+	 * Like {@link #openDriver(SurfaceHolder, int, int)} followed by {@link #startPreview()}, but
+	 * on the camera thread, so opening and configuring the camera does not hold up the UI. The
+	 * camera is opened, configured and started without the lock, which the UI thread needs for
+	 * most calls, and only published under it once the preview runs. Calls made meanwhile see a
+	 * closed camera. The camera delivers its preview frames on that thread as well.
+	 *
+	 * @param displayOrientation see {@link #setDisplayOrientation(int)}.
+	 * @param listener           told on the main thread once the preview runs, or why it does not;
+	 *                           not told if {@link #closeDriver()} is called first. May be
+	 *                           {@code null}.
+	 */
+	public void openDriverAsync(final SurfaceHolder holder, final int width, final int height,
+								final int displayOrientation, final CameraReadyListener listener) {
+		final int generation = openGeneration.incrementAndGet();
+		getCameraHandler().post(new Runnable() {
+			@Override
+			public void run() {
+				if (generation != openGeneration.get()) {
+					return;
+				}
+				if (isOpen()) {
+					notifyOpened(listener, reopen(holder, width, height, displayOrientation));
+				} else {
+					open(generation, holder, width, height, displayOrientation, listener);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Opens, configures and starts a new camera without the lock, then publishes it unless
+	 * {@link #closeDriver()} was called meanwhile, in which case {@code listener} is not told.
+	 * Runs on the camera thread.
+	 */
+	private void open(int generation, SurfaceHolder holder, int width, int height,
+					  int orientation, CameraReadyListener listener) {
+		synchronized (this) {
+			displayOrientation = orientation;
+		}
+		OpenCamera theCamera = null;
+		try {
+			theCamera = OpenCameraInterface.open(requestedCameraId);
+			if (theCamera == null || theCamera.getCamera() == null) {
+				throw new IOException("Camera.open() failed to return object from driver");
+			}
+			configure(theCamera, holder, width, height, orientation);
+			theCamera.getCamera().startPreview();
+		} catch (IOException | RuntimeException e) {
+			if (theCamera != null && theCamera.getCamera() != null) {
+				theCamera.getCamera().release();
+			}
+			if (generation == openGeneration.get()) {
+				notifyOpened(listener, e);
+			}
+			return;
+		}
+		Exception error = null;
+		synchronized (this) {
+			// Checked under the lock, as closeDriver() bumps the generation while holding it
+			if (generation != openGeneration.get() || isOpen()) {
+				theCamera.getCamera().release();
+				return;
+			}
+			try {
+				if (displayOrientation != orientation) {
+					// Changed while the camera was opening
+					theCamera.getCamera().setDisplayOrientation(displayOrientation);
+				}
+				openCamera = theCamera;
+				onConfigured();
+				onPreviewStarted(theCamera.getCamera());
+			} catch (RuntimeException e) {
+				closeDriver();
+				error = e;
+			}
+		}
+		notifyOpened(listener, error);
+	}
+
+	/**
+	 * Configures the camera opened already again and starts its preview, under the lock.
+	 *
+	 * @return why it failed, or {@code null}.
+	 */
+	private synchronized Exception reopen(SurfaceHolder holder, int width, int height,
+										  int orientation) {
+		try {
+			displayOrientation = orientation;
+			openDriver(holder, width, height);
+			startPreview();
+			return null;
+		} catch (IOException | RuntimeException e) {
+			closeDriver();
+			return e;
+		}
+	}
+
+	/**
+	 * Tells {@code listener}, if any, on the main thread how an open ended.
+	 *
+	 * @param error why the camera could not be opened, or {@code null} if the preview runs.
+	 */
+	private void notifyOpened(final CameraReadyListener listener, final Exception error) {
+		if (error != null) {
+			Log.w(TAG, "Can not openDriver: " + error.getMessage());
+		}
+		if (listener != null) {
+			mainHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (error == null) {
+						listener.onCameraReady();
+					} else {
+						listener.onCameraError(error);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Turns the preview to {@code degrees} on the camera thread, after any open still running
+	 * there. A preview already at that orientation is left alone; otherwise it is stopped and
+	 * started again, as some drivers do not turn a running preview.
+	 */
+	public void setDisplayOrientationAsync(final int degrees) {
+		getCameraHandler().post(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (CameraManager.this) {
+					if (!isOpen() || (degrees == displayOrientation && previewing)) {
+						return;
+					}
+					stopPreview();
+					displayOrientation = degrees;
+					applyDisplayOrientation();
+					startPreview();
+				}
+			}
+		});
+	}
+
+	private Handler getCameraHandler() {
+		synchronized (cameraThreadLock) {
+			if (cameraHandler == null) {
+				cameraThread = new HandlerThread("CameraManager");
+				cameraThread.start();
+				cameraHandler = new Handler(cameraThread.getLooper());
+			}
+			return cameraHandler;
+		}
+	}
+
+	/**
+	 * Closes the camera and ends the camera thread of {@link #openDriverAsync} and the metrics
+	 * reporting thread. Both are started again if needed.
+	 */
+	public synchronized void release() {
+		closeDriver();
+		metrics.close();
+		synchronized (cameraThreadLock) {
+			if (cameraThread != null) {
+				cameraThread.quit();
+				cameraThread = null;
+				cameraHandler = null;
+			}
+		}
+	}
+
+	/**
+	 * @param policy chooses the preview size, such as {@link DecodePreviewSizePolicy}; {@code null}
+	 *               for the largest size matching the view. Takes effect when the camera is
+	 *               first opened, so set it before.
+	 */
+	public void setPreviewSizePolicy(PreviewSizePolicy policy) {
+		configManager.setPreviewSizePolicy(policy);
+	}
+
+	/**
+	 * Forgets the camera configurations remembered from earlier opens, so the next open works
+	 * the preview size and focus mode out again, such as after the camera misbehaved.
+	 */
+	public void clearConfigurationCache() {
+		configManager.clearCache();
+	}
+
 	/**
 	 * Allows third party apps to specify the camera ID, rather than determine
 	 * it automatically based on available cameras and their orientation.
@@ -176,30 +522,43 @@ public final class CameraManager {
 	public synchronized void setTorchEnabled(boolean enabled) {
 		OpenCamera theCamera = openCamera;
 		if (theCamera != null && enabled != configManager.getTorchState(theCamera.getCamera())) {
-			boolean wasAutoFocusManager = autoFocusManager != null;
-			if (wasAutoFocusManager) {
-				autoFocusManager.stop();
-				autoFocusManager = null;
+			AutoFocusManager manager = autoFocusManager;
+			if (manager != null) {
+				manager.suspend();
 			}
-			configManager.setTorchEnabled(theCamera.getCamera(), enabled);
-			if (wasAutoFocusManager) {
-				autoFocusManager = new AutoFocusManager(theCamera.getCamera());
-				autoFocusManager.start();
+			try {
+				configManager.setTorchEnabled(theCamera.getCamera(), enabled);
+			} finally {
+				if (manager != null) {
+					manager.resume();
+				}
 			}
 		}
 	}
 
-	public synchronized boolean isOpen() {
-		return openCamera != null && openCamera.getCamera() != null;
+	public boolean isOpen() {
+		OpenCamera theCamera = openCamera;
+		return theCamera != null && theCamera.getCamera() != null;
 	}
 
 	/**
 	 * Closes the camera driver if still in use.
 	 */
 	public synchronized void closeDriver() {
+		openGeneration.incrementAndGet();
+		if (autoFocusManager != null) {
+			// Before the release, its focus cycle would keep calling the released camera
+			autoFocusManager.stop();
+			autoFocusManager = null;
+		}
 		if (isOpen()) {
+			if (frameBufferPool != null) {
+				frameBufferPool.detach();
+			}
 			openCamera.getCamera().release();
 			openCamera = null;
+			// Or the next camera's preview would never be started
+			previewing = false;
 			// Make sure to clear these each time we close the camera, so that any scanning rect
 			// requested by intent is forgotten.
 			// framingRect = null;
@@ -214,10 +573,23 @@ public final class CameraManager {
 		OpenCamera theCamera = openCamera;
 		if (theCamera != null && !previewing) {
 			theCamera.getCamera().startPreview();
-			previewing = true;
-			autoFocusManager = new AutoFocusManager(theCamera.getCamera());
-			autoFocusManager.setAutofocusInterval(200);
+			onPreviewStarted(theCamera.getCamera());
+		}
+	}
+
+	/**
+	 * Hands the preview callback its buffers and starts the auto focus once the preview runs.
+	 * Called with the lock held.
+	 */
+	private void onPreviewStarted(Camera camera) {
+		if (bufferedPreviewCallback != null) {
+			camera.setPreviewCallbackWithBuffer(bufferedPreviewCallback);
+			attachFrameBufferPool(camera);
 		}
+		previewing = true;
+		metrics.onPreviewStarted();
+		autoFocusManager = new AutoFocusManager(camera, getCameraHandler(), metrics,
+				autofocusIntervalInMs);
 	}
 
 	/**
@@ -229,6 +601,11 @@ public final class CameraManager {
 			autoFocusManager = null;
 		}
 		if (openCamera != null && previewing) {
+			if (frameBufferPool != null) {
+				frameBufferPool.detach();
+				// Also clears the buffers queued in the camera
+				openCamera.getCamera().setPreviewCallbackWithBuffer(null);
+			}
 			openCamera.getCamera().stopPreview();
 			previewing = false;
 		}
@@ -238,17 +615,13 @@ public final class CameraManager {
 	 * A factory method to build the appropriate LuminanceSource object based on the format
 	 * of the preview buffers, as described by Camera.Parameters.
 	 *
-	 * @param data   A preview frame.
-	 * @param width  The width of the image.
-	 * @param height The height of the image.
-	 * @return A PlanarYUVLuminanceSource instance.
+	 * @param data A raw preview frame, as delivered by the camera.
+	 * @return A LuminanceSource over the framing rect, or {@code null} before the camera has
+	 * been configured.
 	 */
-	public PlanarYUVLuminanceSource buildLuminanceSource(byte[] data, int width, int height) {
-		Rect rect = getFramingRectInPreview();
-		return new PlanarYUVLuminanceSource(data, width, height, rect.left, rect.top,
-				rect.width(), rect.height(), false);
-//		return new PlanarYUVLuminanceSource(data, width, height, 0, 0,
-//				width, height, false);
+	public LuminanceSource buildLuminanceSource(byte[] data) {
+		FrameGeometry geometry = getFrameGeometry();
+		return geometry == null ? null : DecodeWorker.buildLuminanceSource(data, geometry, null);
 	}
 
 	/**
@@ -256,69 +629,139 @@ public final class CameraManager {
 	 * barcode. This target helps with alignment as well as forces the user to hold the device
 	 * far enough away to ensure the image will be in focus.
 	 *
-	 * @return The rectangle to draw on screen in window coordinates.
+	 * @return A new rectangle to draw on screen in window coordinates, or {@code null} before the
+	 * camera has been configured.
 	 */
 	public Rect getFramingRect() {
+		CameraSession current = session.get();
+		return current == null ? null : new Rect(current.framingRect);
+	}
+
+	/**
+	 * Like {@link #getFramingRect} but coordinates are in terms of the preview frame,
+	 * not UI / screen.
+	 *
+	 * @return a new {@link Rect} expressing barcode scan area in terms of the preview size
+	 */
+	public Rect getFramingRectInPreview() {
+		CameraSession current = session.get();
+		return current == null ? null : new Rect(current.framingRectInPreview);
+	}
+
+	/**
+	 * @return the current configuration, or {@code null} before the camera has been configured.
+	 * Read without locking.
+	 */
+	CameraSession getSession() {
+		return session.get();
+	}
+
+	/**
+	 * @return how raw preview frames map onto the framing rect, or {@code null} before the camera
+	 * has been configured.
+	 */
+	FrameGeometry getFrameGeometry() {
+		CameraSession current = session.get();
+		return current == null ? null : current.frameGeometry;
+	}
+
+	/**
+	 * Publishes a session built without configuring a camera, such as by tests, then switches
+	 * it to the current scanner type.
+	 */
+	void setSession(CameraSession configured) {
+		session.set(configured);
+		publishScannerType();
+	}
+
+	/**
+	 * Builds the session of the current configuration and publishes it. Called with the lock
+	 * held, so configurations are published in the order they were made.
+	 */
+	private void publishSession() {
 		Point screenResolution = configManager.getScreenResolution();
-		if (framingRect == null) {
-			if (openCamera == null) {
-				return null;
+		Point previewSizeOnScreen = configManager.getPreviewSizeOnScreen();
+		Point previewSize = configManager.getBestPreviewSize();
+		if (screenResolution == null || previewSizeOnScreen == null || previewSize == null) {
+			// Still being configured
+			session.set(null);
+			return;
+		}
+		session.set(CameraSession.create(scannerType, screenResolution, previewSizeOnScreen,
+				previewSize, getFrameRotation(previewSize, previewSizeOnScreen),
+				configManager.isFrontCamera()));
+		// The scanner type may have been switched since it was read
+		publishScannerType();
+	}
+
+	/**
+	 * Publishes the session of the configuration in use for the latest scanner type, without
+	 * the lock. Whoever publishes a session checks the scanner type again afterwards, so the
+	 * last one published is of the type set last, whichever thread loses a race.
+	 */
+	private void publishScannerType() {
+		while (true) {
+			CameraSession current = session.get();
+			int type = scannerType;
+			if (current == null || current.scannerType == type) {
+				// Nothing to switch, or published with the type by whoever configures it
+				return;
 			}
-			//正方形
-			int width = Math.min(screenResolution.x, screenResolution.y) / 2;
-			int height = width;
-			//长方形，为条形码定制
-			if (scannerType == SCANNER_BAR_CODE) {
-				width = screenResolution.x * 2 / 3;
-				height = width / 4;
+			if (session.compareAndSet(current, current.withScannerType(type))
+					&& type == scannerType) {
+				return;
 			}
-			int leftOffset = (screenResolution.x - width) / 2;
-			int topOffset = (screenResolution.y - height) / 2;
-			framingRect = new Rect(leftOffset, topOffset, leftOffset + width, topOffset + height);
-			Log.d(TAG, "framingRect: " + framingRect);
 		}
-		return framingRect;
 	}
 
-
 	/**
-	 * Like {@link #getFramingRect} but coordinates are in terms of the preview frame,
-	 * not UI / screen.
+	 * Maps result points found by decoding with {@code geometry} onto the view showing the
+	 * preview, undoing the crop, the mirroring of a front camera and the scaling of
+	 * {@link #getFramingRectInPreview()}. The points are replaced in place.
 	 *
-	 * @return {@link Rect} expressing barcode scan area in terms of the preview size
+	 * @param points result points, relative to the crop of {@code geometry}.
 	 */
-	public synchronized Rect getFramingRectInPreview() {
-		if (framingRectInPreview == null) {
-			Rect framingRect = getFramingRect();
-			if (framingRect == null) {
-				return null;
+	void mapToView(ResultPoint[] points, FrameGeometry geometry) {
+		CameraSession current = session.get();
+		if (points == null || current == null) {
+			return;
+		}
+		Point previewSizeOnScreen = current.previewSizeOnScreen;
+		Point screenResolution = current.screenResolution;
+		float scaleX = (float) screenResolution.x / previewSizeOnScreen.x;
+		float scaleY = (float) screenResolution.y / previewSizeOnScreen.y;
+		for (int i = 0; i < points.length; i++) {
+			if (points[i] == null) {
+				continue;
 			}
-			Rect rect = new Rect(framingRect);
-			Point previewSizeOnScreen = configManager.getPreviewSizeOnScreen();
-			Point screenResolution = configManager.getScreenResolution();
-			if (previewSizeOnScreen == null || screenResolution == null) {
-				// Called early, before init even finished
-				return null;
+			float x = geometry.cropLeft + points[i].getX();
+			float y = geometry.cropTop + points[i].getY();
+			if (geometry.mirror) {
+				x = geometry.getFrameWidth() - 1 - x;
 			}
-			Log.d(TAG, "previewSizeOnScreen: " + previewSizeOnScreen);
-			Log.d(TAG, "screenResolution: " + screenResolution);
-
-
-			rect.left = rect.left * previewSizeOnScreen.x / screenResolution.x;
-			rect.right = rect.right * previewSizeOnScreen.x / screenResolution.x;
-			rect.top = rect.top * previewSizeOnScreen.y / screenResolution.y;
-			rect.bottom = rect.bottom * previewSizeOnScreen.y / screenResolution.y;
-
-			framingRectInPreview = rect;
-			Log.d(TAG, "getFramingRectInPreview: " + framingRectInPreview);
+			points[i] = new ResultPoint(x * scaleX, y * scaleY);
 		}
+	}
 
-		return framingRectInPreview;
+	/**
+	 * The framing rect is computed against the preview size as shown on screen, so the rotation
+	 * must swap the frame's sides exactly when the on-screen size does.
+	 */
+	private int getFrameRotation(Point previewSize, Point previewSizeOnScreen) {
+		int rotation = configManager.getCwNeededRotation();
+		boolean swapped = previewSize.x != previewSizeOnScreen.x;
+		if (swapped) {
+			return rotation == 90 || rotation == 270 ? rotation : 90;
+		}
+		return rotation == 0 || rotation == 180 ? rotation : 0;
 	}
 
+	/**
+	 * Switches the framing rect between {@link #SCANNER_QR_CODE} and {@link #SCANNER_BAR_CODE}.
+	 * Publishes the new session straight away, without waiting for the camera.
+	 */
 	public void switchScannerType(int scannerType) {
 		this.scannerType = scannerType;
-		framingRectInPreview = null;
-		framingRect = null;
+		publishScannerType();
 	}
 }
@@ -0,0 +1,14 @@
+package com.ejin.sample.camera;
+
+/**
+ * Learns when the camera opened by
+ * {@link CameraManager#openDriverAsync(android.view.SurfaceHolder, int, int, int, CameraReadyListener)}
+ * is previewing, or why it could not be opened. Called on the main thread.
+ */
+public interface CameraReadyListener {
+
+	void onCameraReady();
+
+	void onCameraError(Exception e);
+
+}
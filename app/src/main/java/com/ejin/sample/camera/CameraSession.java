@@ -0,0 +1,132 @@
+package com.ejin.sample.camera;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+
+/**
+ * Immutable snapshot of how the configured camera maps onto the view, for one scanner type: the
+ * view and preview sizes, the framing rect on screen and in the preview, and the
+ * {@link FrameGeometry} of both scanner types.
+ * <p>
+ * {@link CameraManager} builds a new one whenever the configuration or the scanner type changes
+ * and publishes it through an atomic reference. The UI thread and the decode workers read
+ * everything they need for a frame from the one snapshot, without taking the camera manager's
+ * lock, so a scanner switch in between cannot hand them a framing rect of one type and a
+ * geometry of the other. The points and rects must not be modified; the camera manager hands
+ * out copies.
+ */
+final class CameraSession {
+
+	final int scannerType;
+	final Point screenResolution;
+	final Point previewSizeOnScreen;
+	// In sensor orientation, as the frames are delivered
+	final Point previewSize;
+	final Rect framingRect;
+	final Rect framingRectInPreview;
+	final FrameGeometry frameGeometry;
+	// Of the scanner type not in use, for dual-mode decoding
+	final FrameGeometry otherFrameGeometry;
+
+	CameraSession(int scannerType, Point screenResolution, Point previewSizeOnScreen,
+				  Point previewSize, Rect framingRect, Rect framingRectInPreview,
+				  FrameGeometry frameGeometry, FrameGeometry otherFrameGeometry) {
+		this.scannerType = scannerType;
+		this.screenResolution = screenResolution;
+		this.previewSizeOnScreen = previewSizeOnScreen;
+		this.previewSize = previewSize;
+		this.framingRect = framingRect;
+		this.framingRectInPreview = framingRectInPreview;
+		this.frameGeometry = frameGeometry;
+		this.otherFrameGeometry = otherFrameGeometry;
+	}
+
+	/**
+	 * @param scannerType {@link CameraManager#SCANNER_QR_CODE} or
+	 *                    {@link CameraManager#SCANNER_BAR_CODE}.
+	 * @param rotation    clockwise rotation of the frames to the view, a multiple of 90.
+	 * @param mirror      whether the frames are mirrored, as those of a front camera.
+	 */
+	static CameraSession create(int scannerType, Point screenResolution, Point previewSizeOnScreen,
+								Point previewSize, int rotation, boolean mirror) {
+		// Copied, as the configuration may change them once the camera is configured again
+		screenResolution = new Point(screenResolution);
+		previewSizeOnScreen = new Point(previewSizeOnScreen);
+		previewSize = new Point(previewSize);
+		int otherType = scannerType == CameraManager.SCANNER_QR_CODE
+				? CameraManager.SCANNER_BAR_CODE : CameraManager.SCANNER_QR_CODE;
+		Rect framingRect = computeFramingRect(scannerType, screenResolution);
+		Rect framingRectInPreview = toPreview(framingRect, screenResolution, previewSizeOnScreen);
+		Rect otherInPreview = toPreview(computeFramingRect(otherType, screenResolution),
+				screenResolution, previewSizeOnScreen);
+		return new CameraSession(scannerType, screenResolution, previewSizeOnScreen, previewSize,
+				framingRect, framingRectInPreview,
+				buildFrameGeometry(framingRectInPreview, previewSize, rotation, mirror),
+				buildFrameGeometry(otherInPreview, previewSize, rotation, mirror));
+	}
+
+	/**
+	 * @return the snapshot of the same configuration for {@code scannerType}.
+	 */
+	CameraSession withScannerType(int scannerType) {
+		if (scannerType == this.scannerType) {
+			return this;
+		}
+		// The geometry of the other type is already at hand
+		Rect rect = computeFramingRect(scannerType, screenResolution);
+		return new CameraSession(scannerType, screenResolution, previewSizeOnScreen, previewSize,
+				rect, toPreview(rect, screenResolution, previewSizeOnScreen), otherFrameGeometry,
+				frameGeometry);
+	}
+
+	/**
+	 * @param scannerType {@link CameraManager#SCANNER_QR_CODE} or
+	 *                    {@link CameraManager#SCANNER_BAR_CODE}.
+	 */
+	FrameGeometry getFrameGeometry(int scannerType) {
+		return scannerType == this.scannerType ? frameGeometry : otherFrameGeometry;
+	}
+
+	/**
+	 * @return the framing rect of {@code scannerType} in window coordinates.
+	 */
+	private static Rect computeFramingRect(int scannerType, Point screenResolution) {
+		//正方形
+		int width = Math.min(screenResolution.x, screenResolution.y) / 2;
+		int height = width;
+		//长方形，为条形码定制
+		if (scannerType == CameraManager.SCANNER_BAR_CODE) {
+			width = screenResolution.x * 2 / 3;
+			height = width / 4;
+		}
+		int leftOffset = (screenResolution.x - width) / 2;
+		int topOffset = (screenResolution.y - height) / 2;
+		return new Rect(leftOffset, topOffset, leftOffset + width, topOffset + height);
+	}
+
+	/**
+	 * Scales a rect in window coordinates to the preview size as shown on screen.
+	 */
+	private static Rect toPreview(Rect framingRect, Point screenResolution,
+								  Point previewSizeOnScreen) {
+		Rect rect = new Rect(framingRect);
+		rect.left = rect.left * previewSizeOnScreen.x / screenResolution.x;
+		rect.right = rect.right * previewSizeOnScreen.x / screenResolution.x;
+		rect.top = rect.top * previewSizeOnScreen.y / screenResolution.y;
+		rect.bottom = rect.bottom * previewSizeOnScreen.y / screenResolution.y;
+		return rect;
+	}
+
+	private static FrameGeometry buildFrameGeometry(Rect rect, Point previewSize, int rotation,
+													boolean mirror) {
+		return new FrameGeometry(previewSize.x, previewSize.y, rotation, mirror, rect.left, rect.top,
+				rect.right - rect.left, rect.bottom - rect.top);
+	}
+
+	@Override
+	public String toString() {
+		return "CameraSession{scannerType=" + scannerType + ", framingRect=" + framingRect
+				+ ", framingRectInPreview=" + framingRectInPreview + ", frameGeometry=" + frameGeometry
+				+ '}';
+	}
+}
@@ -0,0 +1,14 @@
+package com.ejin.sample.camera;
+
+import com.google.zxing.BarcodeFormat;
+
+/**
+ * Receives every distinct code read in continuous mode, see
+ * {@link DecodeHelper#setContinuousReadListener(ContinuousDecodeListener)}. Called on a decode
+ * thread.
+ */
+public interface ContinuousDecodeListener {
+
+	void onRead(String s, BarcodeFormat format);
+
+}
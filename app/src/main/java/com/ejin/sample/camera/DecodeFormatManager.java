@@ -38,6 +38,16 @@ final class DecodeFormatManager {
     static final Set<BarcodeFormat> DATA_MATRIX_FORMATS = EnumSet.of(BarcodeFormat.DATA_MATRIX);
     static final Set<BarcodeFormat> AZTEC_FORMATS = EnumSet.of(BarcodeFormat.AZTEC);
     static final Set<BarcodeFormat> PDF417_FORMATS = EnumSet.of(BarcodeFormat.PDF_417);
+    /**
+     * What the scanner looks for unless told otherwise
+     */
+    static final Set<BarcodeFormat> DEFAULT_FORMATS = EnumSet.noneOf(BarcodeFormat.class);
+
+    static {
+        DEFAULT_FORMATS.addAll(QR_CODE_FORMATS);
+        DEFAULT_FORMATS.addAll(PRODUCT_FORMATS);
+        DEFAULT_FORMATS.addAll(INDUSTRIAL_FORMATS);
+    }
 
     private DecodeFormatManager() {
     }
@@ -2,23 +2,23 @@ package com.ejin.sample.camera;
 
 import android.hardware.Camera;
 import android.text.TextUtils;
+import android.util.Log;
 
 import com.google.zxing.BarcodeFormat;
-import com.google.zxing.BinaryBitmap;
 import com.google.zxing.DecodeHintType;
-import com.google.zxing.MultiFormatReader;
-import com.google.zxing.PlanarYUVLuminanceSource;
-import com.google.zxing.ReaderException;
 import com.google.zxing.Result;
-import com.google.zxing.common.HybridBinarizer;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by j17420 on 2017/8/25.
@@ -28,129 +28,659 @@ public class DecodeHelper {
 
 	private static final String TAG = "DecodeHelper";
 
-	private static final int MAX_THREAD_COUNT = 15;
+	/**
+	 * 解码模式
+	 * all: every enabled format, the default
+	 * qr code: only QR codes, over the whole framing rect
+	 * bar code: only 1D codes, over the central rows of the framing rect
+	 * dual: 1D codes over the bar code framing rect and QR codes over the square one, on every
+	 * frame whichever of the two is shown, see {@link DualModeDecoder}
+	 */
+	public static final int DECODE_MODE_ALL = DecodeMode.ALL;
+	public static final int DECODE_MODE_BAR_CODE = DecodeMode.BAR_CODE;
+	public static final int DECODE_MODE_QR_CODE = DecodeMode.QR_CODE;
+	public static final int DECODE_MODE_DUAL = DecodeMode.DUAL;
+
+	/**
+	 * Decoding is CPU bound, so more workers than cores only adds contention
+	 */
+	private static final int WORKER_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+	private static final int DEFAULT_MAX_FRAMES_IN_FLIGHT = 2;
 	private CameraManager mCameraManager;
-	private MultiFormatReader reader;
-	private Map<DecodeHintType, Object> map;
-	private DecodeListener onCodeReadListener;
-	private ExecutorService threadPool;
-	private boolean isDecodeSuccess;
-	private boolean isStopped;
-	private AtomicInteger currentThreadCount;
+	private final Map<DecodeHintType, Object> map;
+	// Weak, so the worker of a thread the pool let go of can be collected
+	private final Set<DecodeWorker> allWorkers = Collections.newSetFromMap(
+			new WeakHashMap<DecodeWorker, Boolean>());
+	private final ThreadLocal<DecodeWorker> workers = new ThreadLocal<DecodeWorker>() {
+		@Override
+		protected DecodeWorker initialValue() {
+			DecodeWorker worker = new DecodeWorker(map);
+			synchronized (allWorkers) {
+				allWorkers.add(worker);
+			}
+			return worker;
+		}
+	};
+	private volatile DecodeResultListener onDecodeResultListener;
+	private volatile ContinuousDecodeListener continuousReadListener;
+	private volatile MultiDecodeListener multiReadListener;
+	private volatile ResultDeduplicator deduplicator = new ResultDeduplicator(
+			ResultDeduplicator.DEFAULT_WINDOW_MS, ResultDeduplicator.DEFAULT_MAX_ENTRIES);
+	private final ThreadPoolExecutor threadPool;
+	private final ThreadPoolExecutor tilePool;
+	private final MultiCodeDecoder multiCodeDecoder;
+	// Set by the one worker which gets to report a code, cleared by start()
+	private final AtomicBoolean decodeSuccess = new AtomicBoolean();
+	private volatile boolean isStopped = true;
+	private volatile boolean isClosed;
+	private volatile int decodeMode = DECODE_MODE_ALL;
+	private volatile RoiPyramid roiPyramid;
+	private volatile boolean roiPyramidAllowed = true;
+	private volatile long memoryBudget;
+	private FrameGeometry budgetGeometry;
+	private int budgetFrameBytes;
+	private int framePoolSize = FrameBufferPool.DEFAULT_POOL_SIZE;
+	// The fixed count, or every core while adapting
+	private int maxFramesInFlight = WORKER_COUNT;
+	private final DecodeRateController rateController = new DecodeRateController(WORKER_COUNT,
+			DEFAULT_MAX_FRAMES_IN_FLIGHT);
+	// Only touched on the preview callback thread
+	private long lastFrameTaken;
+	private final FrameScheduler frameScheduler;
+	private final FrameBufferPool bufferPool = new FrameBufferPool();
+	private final FrameQualityGate qualityGate = new FrameQualityGate();
+	private final ScanMetrics metrics;
+
+	private final Camera.PreviewCallback previewCallback = new Camera.PreviewCallback() {
+		@Override
+		public void onPreviewFrame(byte[] data, Camera camera) {
+			if (data == null) {
+				return;
+			}
+			bufferPool.acquire(data);
+			metrics.onFrameReceived();
+			decode(data);
+		}
+	};
+
+	private final FrameScheduler.FrameConsumer frameConsumer = new FrameScheduler.FrameConsumer() {
+		@Override
+		public void decodeFrame(byte[] frame) {
+			long pickedUp = System.nanoTime();
+			if (decodeSuccess.get() || isStopped) {
+				return;
+			}
+			FrameGeometry geometry = mCameraManager.getFrameGeometry();
+			if (geometry == null) {
+				return;
+			}
+			MultiDecodeListener multiListener = multiReadListener;
+			if (multiListener != null) {
+				Result[] results = null;
+				metrics.onDecodeStarted();
+				try {
+					// Both kinds over the framing rect shown, rather than each over its own
+					int mode = decodeMode == DECODE_MODE_DUAL ? DECODE_MODE_ALL : decodeMode;
+					results = multiCodeDecoder.decode(frame, geometry, mode);
+				} catch (RuntimeException e) {
+					// Such as a tile failing, counts as a miss
+					Log.w(TAG, "Multi-code decode failed", e);
+				} finally {
+					onDecodeFinished(System.nanoTime() - pickedUp, results != null && results.length > 0);
+				}
+				if (results != null && results.length > 0) {
+					multiCallback(multiListener, results, frame, geometry, pickedUp);
+				}
+				return;
+			}
+			DecodeWorker worker = workers.get();
+			worker.resetTimings();
+			Result result = null;
+			metrics.onDecodeStarted();
+			try {
+				result = decodeData(worker, frame, geometry, pickedUp);
+			} finally {
+				onDecodeFinished(System.nanoTime() - pickedUp,
+						result != null && !TextUtils.isEmpty(result.getText()));
+			}
+			if (result == null || TextUtils.isEmpty(result.getText())) {
+				return;
+			}
+			ContinuousDecodeListener listener = continuousReadListener;
+			if (listener != null) {
+				continuousCallback(listener, result, frame, pickedUp);
+			} else {
+				callback(result, frame, geometry, worker, pickedUp);
+			}
+		}
+
+		@Override
+		public void releaseFrame(byte[] frame) {
+			// The camera may only write into the buffer again once we are done reading it
+			bufferPool.recycle(frame);
+		}
+
+		@Override
+		public void dropFrame(byte[] frame) {
+			metrics.onFrameDropped();
+			bufferPool.recycle(frame);
+		}
+	};
 
 	public DecodeHelper(CameraManager manager) {
 		mCameraManager = manager;
-		currentThreadCount = new AtomicInteger();
-		threadPool = Executors.newFixedThreadPool(MAX_THREAD_COUNT);
+		metrics = manager.getMetrics();
+		threadPool = newFixedThreadPool(WORKER_COUNT);
+		// Tiles are waited for on the decode threads, so they need threads of their own
+		tilePool = newFixedThreadPool(Math.max(1, WORKER_COUNT - 1));
+		multiCodeDecoder = new MultiCodeDecoder(workers, tilePool);
+		frameScheduler = new FrameScheduler(threadPool, frameConsumer, rateController.getConcurrency());
 
-		reader = new MultiFormatReader();
 		map = new HashMap<>();
 		setDefaultHints();
-		reader.setHints(map);
 	}
 
+	/**
+	 * Only passes on the text of the first code read, see
+	 * {@link #setDecodeResultListener(DecodeResultListener)} for the rest.
+	 */
 	public void setCodeReadListener(DecodeListener listener) {
-		onCodeReadListener = listener;
+		onDecodeResultListener = listener == null ? null : new DecodeListenerAdapter(listener);
 	}
 
-	public void startShotFrame() {
-		threadPool.submit(new Runnable() {
-			@Override
-			public void run() {
-				while (!(isDecodeSuccess || isStopped)) {
-					if (currentThreadCount.get() < MAX_THREAD_COUNT + 5) {
-						requestOneShotFrame();
-					}
-					try {
-						Thread.sleep(300);
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-				}
-			}
-		});
+	/**
+	 * Passes the first code read on with its format, raw bytes, points in view coordinates,
+	 * metadata and the time each decoding stage took. Replaces the
+	 * {@link #setCodeReadListener(DecodeListener) read listener}; {@code null} removes it.
+	 */
+	public void setDecodeResultListener(DecodeResultListener listener) {
+		onDecodeResultListener = listener;
 	}
 
-	private void requestOneShotFrame() {
-		mCameraManager.requestOneShotFrame(new Camera.PreviewCallback() {
-			@Override
-			public void onPreviewFrame(byte[] data, Camera camera) {
-				decode(data);
-			}
-		});
+	/**
+	 * Switches to continuous mode: instead of stopping at the first code, decoding goes on and
+	 * every distinct code is passed to {@code listener}. A code seen again within the
+	 * deduplication window is not reported again. {@code null} goes back to stopping at the first
+	 * code, which is reported to the {@link #setCodeReadListener(DecodeListener) read listener}.
+	 */
+	public void setContinuousReadListener(ContinuousDecodeListener listener) {
+		continuousReadListener = listener;
 	}
 
-	private void decode(final byte[] frameData) {
-		if (isDecodeSuccess || isStopped || onCodeReadListener == null) {
-			return;
+	/**
+	 * Switches to multi-code mode: every code in the framing rect is decoded in one pass and the
+	 * codes of a frame are passed to {@code listener} together, with their points in view
+	 * coordinates. Decoding stops after the first frame with codes, unless in
+	 * {@link #setContinuousReadListener(ContinuousDecodeListener) continuous mode}, where it goes
+	 * on and only codes not read within the deduplication window are passed on. {@code null}
+	 * goes back to decoding a single code.
+	 */
+	public void setMultiReadListener(MultiDecodeListener listener) {
+		multiReadListener = listener;
+	}
+
+	/**
+	 * @param windowMillis a code read again less than this after its last sighting is a repeat,
+	 *                     3000 ms by default.
+	 * @param maxEntries   how many recent codes are remembered, 256 by default.
+	 */
+	public void setDeduplicationWindow(long windowMillis, int maxEntries) {
+		deduplicator = new ResultDeduplicator(windowMillis, maxEntries);
+	}
+
+	/**
+	 * Forgets the codes read so far in continuous mode, so they are reported again.
+	 */
+	public void clearReadCodes() {
+		deduplicator.clear();
+	}
+
+	/**
+	 * @param mode {@link #DECODE_MODE_ALL}, {@link #DECODE_MODE_QR_CODE},
+	 *             {@link #DECODE_MODE_BAR_CODE} or {@link #DECODE_MODE_DUAL}.
+	 */
+	public synchronized void setDecodeMode(int mode) {
+		decodeMode = mode;
+		// The dual mode may copy another framing rect
+		budgetGeometry = null;
+	}
+
+	public int getDecodeMode() {
+		return decodeMode;
+	}
+
+	/**
+	 * When enabled, a frame whose framing rect holds no code is searched further: downsampled as a
+	 * whole, then tile by tile, within a time budget per frame. This finds small and off-centre
+	 * codes at the cost of more CPU on frames without any code. Disabled by default.
+	 */
+	public void setRoiPyramidEnabled(boolean enabled) {
+		if (enabled) {
+			setRoiPyramidBudget(RoiPyramid.DEFAULT_FRAMING_RECT_BUDGET_MS,
+					RoiPyramid.DEFAULT_DOWNSAMPLED_BUDGET_MS, RoiPyramid.DEFAULT_TILES_BUDGET_MS);
+		} else {
+			roiPyramid = null;
 		}
-		currentThreadCount.incrementAndGet();
-		threadPool.submit(new Runnable() {
-			@Override
-			public void run() {
-				String result = decodeData(frameData);
-				if (!TextUtils.isEmpty(result)) {
-					callback(result);
-				}
-				currentThreadCount.decrementAndGet();
+	}
+
+	/**
+	 * Enables the multi-scale search of {@link #setRoiPyramidEnabled(boolean)} with custom time
+	 * budgets, 30, 30 and 60 ms by default.
+	 *
+	 * @param framingRectMillis budget of the framing rect.
+	 * @param downsampledMillis budget of the downsampled frame, 0 skips that step.
+	 * @param tilesMillis       budget of the tiles, 0 skips that step.
+	 */
+	public void setRoiPyramidBudget(long framingRectMillis, long downsampledMillis, long tilesMillis) {
+		roiPyramid = new RoiPyramid(framingRectMillis, downsampledMillis, tilesMillis);
+	}
+
+	/**
+	 * @param size number of preview buffers cycled between the camera and the decode workers.
+	 */
+	public synchronized void setFramePoolSize(int size) {
+		bufferPool.setPoolSize(size);
+		framePoolSize = size;
+		budgetGeometry = null;
+	}
+
+	/**
+	 * Fixes how many frames may be decoded at once, instead of adapting it to the
+	 * {@link #setTargetDecodeLatency(long) target latency}. While all of them are busy, only the
+	 * newest preview frame is kept and older ones are dropped. The frame pool should hold at least
+	 * {@code count + 2} buffers so the camera is never starved.
+	 *
+	 * @param count at most the number of cores.
+	 */
+	public synchronized void setMaxFramesInFlight(int count) {
+		rateController.setFixedConcurrency(count);
+		maxFramesInFlight = Math.min(count, WORKER_COUNT);
+		budgetGeometry = null;
+		frameScheduler.setMaxInFlight(rateController.getConcurrency());
+	}
+
+	/**
+	 * @return how many frames may be decoded at once, as fixed or as adapted so far.
+	 */
+	public int getMaxFramesInFlight() {
+		return rateController.getConcurrency();
+	}
+
+	/**
+	 * Fixes the least time between two preview frames taken for decoding, instead of adapting it
+	 * to the {@link #setTargetDecodeLatency(long) target latency}. Frames in between are returned
+	 * to the camera untouched.
+	 *
+	 * @param millis 0 takes every frame.
+	 */
+	public void setFrameInterval(long millis) {
+		rateController.setFixedFrameInterval(millis);
+	}
+
+	/**
+	 * @return the least time between two frames taken, as fixed or as adapted so far.
+	 */
+	public long getFrameIntervalMillis() {
+		return rateController.getFrameIntervalNanos() / 1000000L;
+	}
+
+	/**
+	 * Adapts {@link #getMaxFramesInFlight() frames decoded at once} and the
+	 * {@link #getFrameIntervalMillis() frame interval} to the decode latency measured on this
+	 * device: fewer parallel decodes and fewer frames when decoding takes longer than
+	 * {@code millis} or slows down as the device heats up, more while it stays well below.
+	 * This is the default, with a target of 100 ms; calling it drops the fixed settings.
+	 */
+	public synchronized void setTargetDecodeLatency(long millis) {
+		rateController.setTargetLatency(millis);
+		maxFramesInFlight = WORKER_COUNT;
+		budgetGeometry = null;
+	}
+
+	/**
+	 * @return mean decode latency over the last {@value DecodeRateController#WINDOW} decodes, 0
+	 * before that many.
+	 */
+	public long getDecodeLatencyMillis() {
+		return rateController.getLatencyNanos() / 1000000L;
+	}
+
+	/**
+	 * @return share of the last {@value DecodeRateController#WINDOW} decodes which found a code.
+	 */
+	public double getDecodeSuccessRate() {
+		return rateController.getSuccessRate();
+	}
+
+	/**
+	 * Caps what the decoder holds to about {@code bytes}: frame buffers, decode threads and the
+	 * crops and bit matrices each thread keeps for the next frame. Once the preview size is known,
+	 * the {@link #setRoiPyramidEnabled(boolean) ROI pyramid} is turned off first, then frames in
+	 * flight are cut, then frame buffers, down to the two the camera needs to run at all. While
+	 * capped, {@link #pause()} also lets go of the pending frame, then the decode buffers, then the
+	 * frame buffers, in that order, and {@link #start()} allocates them again.
+	 *
+	 * @param bytes the budget, 0 for none, the default.
+	 */
+	public synchronized void setMemoryBudget(long bytes) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException("Memory budget must not be negative.");
+		}
+		memoryBudget = bytes;
+		budgetGeometry = null;
+		if (bytes == 0) {
+			bufferPool.setPoolSize(framePoolSize);
+			rateController.setLimit(WORKER_COUNT);
+			frameScheduler.setMaxInFlight(rateController.getConcurrency());
+			roiPyramidAllowed = true;
+			resize(threadPool, WORKER_COUNT);
+			resize(tilePool, Math.max(1, WORKER_COUNT - 1));
+		}
+	}
+
+	/**
+	 * @return frames currently being decoded plus the one waiting for a free worker.
+	 */
+	public int getQueueDepth() {
+		return frameScheduler.getQueueDepth();
+	}
+
+	/**
+	 * @return bytes held by the frame buffers and the buffers every worker keeps for the next
+	 * decode, what {@link #setMemoryBudget(long)} caps. Taken while decoding goes on, the worker
+	 * buffers are a snapshot.
+	 */
+	long getBufferBytes() {
+		long bytes = bufferPool.getHeldBytes();
+		synchronized (allWorkers) {
+			for (DecodeWorker worker : allWorkers) {
+				bytes += worker.getBufferBytes();
 			}
-		});
+		}
+		return bytes;
 	}
 
-	private void callback(String s) {
-		if (isDecodeSuccess || isStopped) {
-			return;
+	/**
+	 * @return how many preview frames were dropped because a newer one replaced them.
+	 */
+	public long getDroppedFrameCount() {
+		return frameScheduler.getDroppedCount();
+	}
+
+	/**
+	 * @return how many preview frames were handed to the decoder.
+	 */
+	public long getReceivedFrameCount() {
+		return frameScheduler.getReceivedCount();
+	}
+
+	/**
+	 * @return the pre-decode check skipping blurry and moving frames, disabled by default.
+	 */
+	public FrameQualityGate getFrameQualityGate() {
+		return qualityGate;
+	}
+
+	/**
+	 * Same as {@link #start()}.
+	 */
+	public void startShotFrame() {
+		start();
+	}
+
+	/**
+	 * Starts decoding preview frames, or starts again after {@link #pause()} or after a code was
+	 * read. The decode threads, readers and frame buffers of an earlier start are reused.
+	 *
+	 * @throws IllegalStateException after {@link #close()}.
+	 */
+	public synchronized void start() {
+		if (isClosed) {
+			throw new IllegalStateException("DecodeHelper is closed.");
 		}
-		isDecodeSuccess = true;
-		onCodeReadListener.onRead(s);
-		stop();
+		decodeSuccess.set(false);
+		isStopped = false;
+		mCameraManager.setPreviewCallbackWithBuffer(previewCallback, bufferPool);
 	}
 
-	public void stop() {
+	/**
+	 * Same as {@link #start()}.
+	 */
+	public void resume() {
+		start();
+	}
+
+	/**
+	 * Stops taking preview frames. Frames already being decoded finish, but their codes are no
+	 * longer reported. Everything needed to {@link #start()} again is kept.
+	 */
+	public synchronized void pause() {
 		if (isStopped) {
 			return;
 		}
 		isStopped = true;
+		mCameraManager.setPreviewCallbackWithBuffer(null, null);
+		frameScheduler.clear();
+		if (memoryBudget > 0) {
+			trimWorkers();
+			bufferPool.release();
+		}
+	}
+
+	/**
+	 * Same as {@link #pause()}. Before pause and resume existed this shut the decoder down for
+	 * good; {@link #close()} does that now.
+	 */
+	public void stop() {
+		pause();
+	}
+
+	/**
+	 * Pauses, then shuts down the decode threads and lets go of the frame buffers. The helper
+	 * cannot be started again. What the decoder held is collected whenever the garbage collector
+	 * next runs; forcing a collection here would only stall the thread closing the scanner.
+	 */
+	public synchronized void close() {
+		if (isClosed) {
+			return;
+		}
+		pause();
+		isClosed = true;
 		threadPool.shutdownNow();
-		System.gc();
+		// Not shutdownNow(): a decode thread may still be waiting for its queued tiles
+		tilePool.shutdown();
+		bufferPool.release();
 	}
 
-	private void setDefaultHints() {
-		List<BarcodeFormat> formatList = new ArrayList<>();
-		formatList.addAll(DecodeFormatManager.QR_CODE_FORMATS);
-		formatList.addAll(DecodeFormatManager.PRODUCT_FORMATS);
-		formatList.addAll(DecodeFormatManager.INDUSTRIAL_FORMATS);
-		map.put(DecodeHintType.POSSIBLE_FORMATS, formatList);
+	public boolean isClosed() {
+		return isClosed;
+	}
+
+	private void decode(final byte[] frameData) {
+		if (decodeSuccess.get() || isStopped || (onDecodeResultListener == null
+				&& continuousReadListener == null && multiReadListener == null)) {
+			bufferPool.recycle(frameData);
+			return;
+		}
+		FrameGeometry geometry = mCameraManager.getFrameGeometry();
+		if (geometry != null && memoryBudget > 0
+				&& (geometry != budgetGeometry || frameData.length != budgetFrameBytes)) {
+			applyMemoryBudget(geometry, frameData.length);
+		}
+		int sharpness = -1;
+		if (geometry != null) {
+			// Before the frame interval, so a blurry framing rect is noticed without delay
+			sharpness = FrameQualityGate.measureSharpness(frameData, geometry);
+			mCameraManager.onFrameSharpness(sharpness);
+		}
+		long interval = rateController.getFrameIntervalNanos();
+		if (interval > 0) {
+			long now = System.nanoTime();
+			if (now - lastFrameTaken < interval) {
+				metrics.onFrameSkipped();
+				bufferPool.recycle(frameData);
+				return;
+			}
+			lastFrameTaken = now;
+		}
+		if (geometry != null && !qualityGate.accept(frameData, geometry, sharpness)) {
+			// Blurry or still moving, not worth a worker
+			metrics.onFrameSkipped();
+			bufferPool.recycle(frameData);
+			return;
+		}
+		frameScheduler.submit(frameData);
+	}
+
+	/**
+	 * Fits the decoder into the memory budget for the frame size and framing rect now in use.
+	 */
+	private synchronized void applyMemoryBudget(FrameGeometry geometry, int frameBytes) {
+		long budget = memoryBudget;
+		if (budget == 0) {
+			return;
+		}
+		FrameGeometry crop = geometry;
+		if (decodeMode == DECODE_MODE_DUAL) {
+			// Whichever scanner type is shown, the square framing rect is the one copied
+			CameraSession session = mCameraManager.getSession();
+			if (session != null) {
+				crop = session.getFrameGeometry(CameraManager.SCANNER_QR_CODE);
+			}
+		}
+		MemoryBudget plan = MemoryBudget.fit(budget, frameBytes, crop, framePoolSize,
+				maxFramesInFlight, roiPyramid != null, multiReadListener != null);
+		bufferPool.setPoolSize(plan.frameBuffers);
+		rateController.setLimit(plan.workers);
+		frameScheduler.setMaxInFlight(rateController.getConcurrency());
+		roiPyramidAllowed = plan.roiPyramid;
+		// Idle threads beyond the new size end, taking their decode buffers with them
+		resize(threadPool, plan.workers);
+		resize(tilePool, Math.max(1, plan.workers - 1));
+		budgetGeometry = geometry;
+		budgetFrameBytes = frameBytes;
+		Log.i(TAG, "Memory budget " + budget / 1024 + " KiB: " + plan);
+	}
+
+	private void onDecodeFinished(long decodeNanos, boolean success) {
+		metrics.onDecodeFinished(decodeNanos, success);
+		if (rateController.onDecodeFinished(decodeNanos, success, frameScheduler.getDroppedCount())) {
+			frameScheduler.setMaxInFlight(rateController.getConcurrency());
+		}
+	}
+
+	private void trimWorkers() {
+		synchronized (allWorkers) {
+			for (DecodeWorker worker : allWorkers) {
+				worker.trim();
+			}
+		}
+	}
+
+	private static ThreadPoolExecutor newFixedThreadPool(int threads) {
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>());
+	}
+
+	private static void resize(ThreadPoolExecutor pool, int threads) {
+		// The core size may never exceed the maximum, not even in between
+		if (threads < pool.getCorePoolSize()) {
+			pool.setCorePoolSize(threads);
+			pool.setMaximumPoolSize(threads);
+		} else {
+			pool.setMaximumPoolSize(threads);
+			pool.setCorePoolSize(threads);
+		}
+	}
+
+	private void callback(Result result, byte[] frame, FrameGeometry geometry, DecodeWorker worker,
+						  long pickedUp) {
+		long decoded = System.nanoTime();
+		// Removed while the frame was decoding
+		DecodeResultListener listener = onDecodeResultListener;
+		// Several workers may find the code at once, only the first reports it
+		if (isStopped || listener == null || !decodeSuccess.compareAndSet(false, true)) {
+			return;
+		}
+		mCameraManager.mapToView(result.getResultPoints(), geometry);
+		long delivered = getDeliveryTime(frame, pickedUp);
+		long dispatched = System.nanoTime();
+		metrics.onResult(dispatched - delivered);
+		listener.onResult(new DecodeResult(result, dispatched - delivered,
+				pickedUp - delivered, worker.getCropNanos(), worker.getBinarizeNanos(),
+				worker.getDecodeNanos(), dispatched - decoded));
+		pause();
 	}
 
-	private String decodeData(final byte[] frameData) {
-//		Log.i(TAG, "decode begin");
-		int width = mCameraManager.getPreviewSize().x;
-		int height = mCameraManager.getPreviewSize().y;
-		byte[] data = frameData;
+	private void continuousCallback(ContinuousDecodeListener listener, Result result, byte[] frame,
+									long pickedUp) {
+		String key = result.getBarcodeFormat() + ":" + result.getText();
+		long now = System.nanoTime();
+		if (!isStopped && deduplicator.offer(key, now)) {
+			metrics.onResult(now - getDeliveryTime(frame, pickedUp));
+			listener.onRead(result.getText(), result.getBarcodeFormat());
+		}
+	}
 
-		//portrait
-		if (width < height) {
-			byte[] rotatedData = new byte[data.length];
-			for (int x = 0; x < width; x++) {
-				for (int y = 0; y < height; y++)
-					rotatedData[y * width + width - x - 1] = data[y + x * height];
+	private void multiCallback(MultiDecodeListener listener, Result[] results, byte[] frame,
+							   FrameGeometry geometry, long pickedUp) {
+		boolean continuous = continuousReadListener != null;
+		if (continuous) {
+			long now = System.nanoTime();
+			List<Result> distinct = new ArrayList<>(results.length);
+			for (Result result : results) {
+				if (deduplicator.offer(result.getBarcodeFormat() + ":" + result.getText(), now)) {
+					distinct.add(result);
+				}
+			}
+			if (distinct.isEmpty()) {
+				return;
 			}
-			data = rotatedData;
+			results = distinct.toArray(new Result[distinct.size()]);
+		}
+		for (Result result : results) {
+			mCameraManager.mapToView(result.getResultPoints(), geometry);
+		}
+		if (isStopped || (continuous ? decodeSuccess.get() : !decodeSuccess.compareAndSet(false, true))) {
+			return;
+		}
+		metrics.onResult(System.nanoTime() - getDeliveryTime(frame, pickedUp));
+		listener.onRead(results);
+		if (!continuous) {
+			pause();
 		}
+	}
+
+	/**
+	 * @return when the camera delivered the frame, or {@code fallback} if that is not known.
+	 */
+	private long getDeliveryTime(byte[] frame, long fallback) {
+		long delivered = bufferPool.getDeliveryTime(frame);
+		return delivered == 0 ? fallback : delivered;
+	}
+
+	private void setDefaultHints() {
+		List<BarcodeFormat> formatList = new ArrayList<>(DecodeFormatManager.DEFAULT_FORMATS);
+		map.put(DecodeHintType.POSSIBLE_FORMATS, formatList);
+	}
 
-		PlanarYUVLuminanceSource source = mCameraManager.buildLuminanceSource(data, width, height);
-		BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
-		try {
-			Result result = reader.decodeWithState(bitmap);
-			return result.getText();
-		} catch (ReaderException re) {
-//			Log.i(TAG, "decode exception");
-		} finally {
-			reader.reset();
-//			Log.i(TAG, "decode end");
+	private Result decodeData(DecodeWorker worker, byte[] frameData, FrameGeometry geometry,
+							  long start) {
+		RoiPyramid pyramid = roiPyramidAllowed ? roiPyramid : null;
+		int mode = decodeMode;
+		if (mode == DECODE_MODE_DUAL) {
+			// Both from one snapshot, however the scanner type is switched meanwhile
+			CameraSession session = mCameraManager.getSession();
+			if (session == null) {
+				return null;
+			}
+			return DualModeDecoder.decode(worker, frameData,
+					session.getFrameGeometry(CameraManager.SCANNER_QR_CODE),
+					session.getFrameGeometry(CameraManager.SCANNER_BAR_CODE), geometry, pyramid, start);
 		}
-		return null;
+		return pyramid == null
+				? worker.decodeFrame(frameData, geometry, mode)
+				: pyramid.decode(worker, frameData, geometry, mode, start);
 	}
 
 }
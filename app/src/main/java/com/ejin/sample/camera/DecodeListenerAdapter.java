@@ -0,0 +1,19 @@
+package com.ejin.sample.camera;
+
+/**
+ * Passes only the text of a {@link DecodeResult} on to a {@link DecodeListener}, which is how
+ * {@link DecodeHelper#setCodeReadListener(DecodeListener)} keeps working.
+ */
+final class DecodeListenerAdapter implements DecodeResultListener {
+
+	private final DecodeListener listener;
+
+	DecodeListenerAdapter(DecodeListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public void onResult(DecodeResult result) {
+		listener.onRead(result.getText());
+	}
+}
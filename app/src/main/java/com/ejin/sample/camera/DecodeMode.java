@@ -0,0 +1,33 @@
+package com.ejin.sample.camera;
+
+/**
+ * The decode modes, apart from {@link DecodeHelper} so the decode path from
+ * {@link DecodeWorker} down only depends on ZXing and compiles and runs on a plain JVM. The
+ * public names are {@link DecodeHelper#DECODE_MODE_ALL} and its siblings.
+ * <p>
+ * The QR and bar code modes have the values of the matching {@link CameraManager} scanner types,
+ * so a scanner type is also the mode which decodes it.
+ */
+final class DecodeMode {
+
+	/**
+	 * Every enabled format
+	 */
+	static final int ALL = 0;
+	/**
+	 * Only 1D codes, over the central rows of the framing rect
+	 */
+	static final int BAR_CODE = 1;
+	/**
+	 * Only QR codes, over the whole framing rect
+	 */
+	static final int QR_CODE = 2;
+	/**
+	 * 1D codes over the bar code framing rect and QR codes over the square one, see
+	 * {@link DualModeDecoder}
+	 */
+	static final int DUAL = 3;
+
+	private DecodeMode() {
+	}
+}
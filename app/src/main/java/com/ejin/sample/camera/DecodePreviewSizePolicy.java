@@ -0,0 +1,97 @@
+package com.ejin.sample.camera;
+
+import android.graphics.Point;
+
+import java.util.List;
+
+/**
+ * Picks the smallest preview size which still resolves the densest code to be scanned: the
+ * framing rect must span at least {@code modules x pixelsPerModule} preview pixels across its
+ * shorter side. A smaller frame is cheaper at every step, from the camera's bandwidth to rotating,
+ * binarizing and decoding the crop, so there is no gain in going larger than that.
+ * <p>
+ * As with the default choice, only sizes whose aspect ratio matches the view's are considered, so
+ * the preview is not distorted. If none of them is large enough, the largest one is used.
+ */
+public final class DecodePreviewSizePolicy implements PreviewSizePolicy {
+
+	/**
+	 * A version 10 QR code, about 170 characters, or a dense EAN-13 or Code 128 label
+	 */
+	public static final int DEFAULT_MODULES = 57;
+	/**
+	 * Below about 2.5 pixels per module, binarization starts merging modules
+	 */
+	public static final float DEFAULT_PIXELS_PER_MODULE = 3f;
+	/**
+	 * The square framing rect of {@link CameraManager#getFramingRect()} spans half the shorter side
+	 */
+	public static final float DEFAULT_FRAMING_RECT_FRACTION = 0.5f;
+
+	private final int modules;
+	private final float pixelsPerModule;
+	private final float framingRectFraction;
+
+	public DecodePreviewSizePolicy() {
+		this(DEFAULT_MODULES, DEFAULT_PIXELS_PER_MODULE, DEFAULT_FRAMING_RECT_FRACTION);
+	}
+
+	/**
+	 * @param modules             modules across the densest code, including its quiet zone if it
+	 *                            must fit in the framing rect as well.
+	 * @param pixelsPerModule     preview pixels each module needs.
+	 * @param framingRectFraction how much of the shorter side of the view the framing rect spans.
+	 */
+	public DecodePreviewSizePolicy(int modules, float pixelsPerModule, float framingRectFraction) {
+		if (modules <= 0 || pixelsPerModule <= 0 || framingRectFraction <= 0 || framingRectFraction > 1) {
+			throw new IllegalArgumentException("Modules and pixels per module must be greater than 0, "
+					+ "the framing rect fraction between 0 and 1.");
+		}
+		this.modules = modules;
+		this.pixelsPerModule = pixelsPerModule;
+		this.framingRectFraction = framingRectFraction;
+	}
+
+	/**
+	 * @return the shorter side a preview size needs.
+	 */
+	int getMinShortSide() {
+		return (int) Math.ceil(modules * pixelsPerModule / framingRectFraction);
+	}
+
+	@Override
+	public Point select(List<Point> supportedSizes, Point screenResolution) {
+		int minShortSide = getMinShortSide();
+		boolean isScreenPortrait = screenResolution.x < screenResolution.y;
+		double screenAspectRatio = screenResolution.x / (double) screenResolution.y;
+		Point smallestLargeEnough = null;
+		Point largest = null;
+		for (Point size : supportedSizes) {
+			int maybeFlippedWidth = isScreenPortrait ? size.y : size.x;
+			int maybeFlippedHeight = isScreenPortrait ? size.x : size.y;
+			double aspectRatio = maybeFlippedWidth / (double) maybeFlippedHeight;
+			if (Math.abs(aspectRatio - screenAspectRatio) > CameraConfigurationManager.MAX_ASPECT_DISTORTION) {
+				continue;
+			}
+			int pixels = size.x * size.y;
+			if (Math.min(size.x, size.y) >= minShortSide
+					&& (smallestLargeEnough == null || pixels < smallestLargeEnough.x * smallestLargeEnough.y)) {
+				smallestLargeEnough = size;
+			}
+			if (largest == null || pixels > largest.x * largest.y) {
+				largest = size;
+			}
+		}
+		return smallestLargeEnough != null ? smallestLargeEnough : largest;
+	}
+
+	@Override
+	public String cacheKey() {
+		return "DecodePreviewSizePolicy(" + modules + ',' + pixelsPerModule + ',' + framingRectFraction + ')';
+	}
+
+	@Override
+	public String toString() {
+		return cacheKey();
+	}
+}
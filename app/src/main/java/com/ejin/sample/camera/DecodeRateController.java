@@ -0,0 +1,170 @@
+package com.ejin.sample.camera;
+
+/**
+ * Picks how many frames are decoded at once and how often a preview frame is taken, from the
+ * decode latency measured on the device, so slow phones are not flooded and fast ones are not
+ * held back by settings tuned for another device.
+ * <p>
+ * Every {@value #WINDOW} decodes the mean latency of the window is compared with the target:
+ * <ul>
+ * <li>above it, one decode fewer runs at once, since on a busy device parallel decodes slow each
+ * other down; at a single decode, or with the concurrency fixed, frames are taken half as often
+ * instead;</li>
+ * <li>well below it, frames are taken more often again, and once every frame is taken, one
+ * decode more runs at once, but only while frames are dropped for want of a free worker and
+ * codes are being found.</li>
+ * </ul>
+ * A device which gets hot is throttled and decodes slower than it did before at the same
+ * concurrency. A window more than {@value #THROTTLED_FACTOR} times slower than the fastest seen
+ * at that concurrency counts as throttled and is backed off from like a slow one, even if it is
+ * still within the target, so the device can cool down. The fastest window is aged by 1% every
+ * window, so it follows a lasting change of what is in view.
+ * <p>
+ * Either setting can be fixed, in which case only the other one adapts.
+ */
+final class DecodeRateController {
+
+	static final long DEFAULT_TARGET_LATENCY_MS = 100;
+	static final int WINDOW = 16;
+	static final double THROTTLED_FACTOR = 1.5;
+	/**
+	 * Frame interval steps, in between every frame is taken and about 2 frames a second
+	 */
+	static final long MIN_FRAME_INTERVAL_MS = 16;
+	static final long MAX_FRAME_INTERVAL_MS = 500;
+
+	private final int maxConcurrency;
+	private int limit;
+	private int concurrency;
+	// 0 while adapting
+	private int fixedConcurrency;
+	private long frameIntervalNanos;
+	private long targetNanos = DEFAULT_TARGET_LATENCY_MS * 1000000L;
+	private boolean fixedFrameInterval;
+	// Fastest window mean per concurrency, 0 until one was seen
+	private final long[] fastestNanos;
+	private int windowDecodes;
+	private int windowSuccesses;
+	private long windowNanos;
+	private long windowStartDropped;
+	private long lastMeanNanos;
+	private double successRate;
+
+	/**
+	 * @param maxConcurrency     decodes that may ever run at once, the number of cores.
+	 * @param initialConcurrency decodes at once until the first window is measured.
+	 */
+	DecodeRateController(int maxConcurrency, int initialConcurrency) {
+		this.maxConcurrency = maxConcurrency;
+		limit = maxConcurrency;
+		concurrency = Math.max(1, Math.min(initialConcurrency, maxConcurrency));
+		fastestNanos = new long[maxConcurrency + 1];
+	}
+
+	/**
+	 * Adapts both settings towards {@code millis}, dropping any fixed setting.
+	 */
+	synchronized void setTargetLatency(long millis) {
+		if (millis <= 0) {
+			throw new IllegalArgumentException("Target latency must be greater than 0.");
+		}
+		targetNanos = millis * 1000000L;
+		fixedConcurrency = 0;
+		fixedFrameInterval = false;
+	}
+
+	synchronized void setFixedConcurrency(int concurrency) {
+		if (concurrency <= 0) {
+			throw new IllegalArgumentException("Concurrency must be greater than 0.");
+		}
+		fixedConcurrency = Math.min(concurrency, maxConcurrency);
+		this.concurrency = Math.min(fixedConcurrency, limit);
+	}
+
+	synchronized void setFixedFrameInterval(long millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("Frame interval must not be negative.");
+		}
+		fixedFrameInterval = true;
+		frameIntervalNanos = millis * 1000000L;
+	}
+
+	/**
+	 * Caps the concurrency further, such as to what a memory budget allows.
+	 */
+	synchronized void setLimit(int limit) {
+		this.limit = Math.max(1, Math.min(limit, maxConcurrency));
+		concurrency = Math.min(fixedConcurrency > 0 ? fixedConcurrency : concurrency, this.limit);
+	}
+
+	synchronized int getConcurrency() {
+		return concurrency;
+	}
+
+	synchronized long getFrameIntervalNanos() {
+		return frameIntervalNanos;
+	}
+
+	/**
+	 * @return mean decode latency of the last full window, 0 before the first.
+	 */
+	synchronized long getLatencyNanos() {
+		return lastMeanNanos;
+	}
+
+	/**
+	 * @return share of the decodes of the last full window which found a code.
+	 */
+	synchronized double getSuccessRate() {
+		return successRate;
+	}
+
+	/**
+	 * @param decodeNanos  time the decode took.
+	 * @param success      whether a code was found.
+	 * @param droppedCount frames dropped for want of a free worker so far.
+	 * @return whether the concurrency changed.
+	 */
+	synchronized boolean onDecodeFinished(long decodeNanos, boolean success, long droppedCount) {
+		windowDecodes++;
+		windowNanos += decodeNanos;
+		if (success) {
+			windowSuccesses++;
+		}
+		if (windowDecodes < WINDOW) {
+			return false;
+		}
+		long mean = windowNanos / windowDecodes;
+		successRate = (double) windowSuccesses / windowDecodes;
+		boolean dropping = droppedCount > windowStartDropped;
+		lastMeanNanos = mean;
+		windowDecodes = 0;
+		windowSuccesses = 0;
+		windowNanos = 0;
+		windowStartDropped = droppedCount;
+
+		long fastest = fastestNanos[concurrency];
+		boolean throttled = fastest > 0 && mean > fastest * THROTTLED_FACTOR;
+		fastestNanos[concurrency] = fastest == 0 ? mean : Math.min(mean, fastest + fastest / 100);
+
+		int previous = concurrency;
+		if (mean > targetNanos || throttled) {
+			if (fixedConcurrency == 0 && concurrency > 1) {
+				concurrency--;
+			} else if (!fixedFrameInterval) {
+				frameIntervalNanos = Math.min(MAX_FRAME_INTERVAL_MS * 1000000L,
+						Math.max(frameIntervalNanos * 2, MIN_FRAME_INTERVAL_MS * 1000000L));
+			}
+		} else if (mean < targetNanos * 3 / 4) {
+			if (!fixedFrameInterval && frameIntervalNanos > 0) {
+				frameIntervalNanos /= 2;
+				if (frameIntervalNanos < MIN_FRAME_INTERVAL_MS * 1000000L) {
+					frameIntervalNanos = 0;
+				}
+			} else if (fixedConcurrency == 0 && concurrency < limit && dropping && successRate > 0) {
+				concurrency++;
+			}
+		}
+		return concurrency != previous;
+	}
+}
@@ -0,0 +1,121 @@
+package com.ejin.sample.camera;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+import com.google.zxing.ResultMetadataType;
+import com.google.zxing.ResultPoint;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A decoded code with everything ZXing knows about it, plus how long each stage of getting it
+ * took. The stages of a frame, in order:
+ * <ul>
+ * <li>queue wait: from the camera delivering the frame until a decode thread picks it up,
+ * including the frame quality check and waiting for a free worker;</li>
+ * <li>crop: rotating and cropping the framing rect out of the frame;</li>
+ * <li>binarize: turning the crop into black and white;</li>
+ * <li>decode: the ZXing readers;</li>
+ * <li>dispatch: from the readers finishing until the listener is called.</li>
+ * </ul>
+ * The frame age spans all of them, from delivery to the listener. How long the camera held the
+ * frame before delivering it is not known to the preview callback, so it is not included. In bar
+ * code mode rows are cropped and binarized as the readers go, so that time counts as decoding.
+ */
+public final class DecodeResult {
+
+	private final Result result;
+	private final long frameAgeNanos;
+	private final long queueWaitNanos;
+	private final long cropNanos;
+	private final long binarizeNanos;
+	private final long decodeNanos;
+	private final long dispatchNanos;
+
+	DecodeResult(Result result, long frameAgeNanos, long queueWaitNanos, long cropNanos,
+				 long binarizeNanos, long decodeNanos, long dispatchNanos) {
+		this.result = result;
+		this.frameAgeNanos = frameAgeNanos;
+		this.queueWaitNanos = queueWaitNanos;
+		this.cropNanos = cropNanos;
+		this.binarizeNanos = binarizeNanos;
+		this.decodeNanos = decodeNanos;
+		this.dispatchNanos = dispatchNanos;
+	}
+
+	public String getText() {
+		return result.getText();
+	}
+
+	public BarcodeFormat getBarcodeFormat() {
+		return result.getBarcodeFormat();
+	}
+
+	/**
+	 * @return raw bytes of the code, if the format has any, or {@code null}.
+	 */
+	public byte[] getRawBytes() {
+		return result.getRawBytes();
+	}
+
+	/**
+	 * @return points of the code such as QR code finder patterns, in view coordinates.
+	 */
+	public ResultPoint[] getResultPoints() {
+		return result.getResultPoints();
+	}
+
+	/**
+	 * @return metadata such as the error correction level or orientation, may be {@code null}.
+	 */
+	public Map<ResultMetadataType, Object> getResultMetadata() {
+		return result.getResultMetadata();
+	}
+
+	/**
+	 * @return {@link System#currentTimeMillis()} when the code was decoded.
+	 */
+	public long getTimestamp() {
+		return result.getTimestamp();
+	}
+
+	/**
+	 * @return the underlying ZXing result.
+	 */
+	public Result getResult() {
+		return result;
+	}
+
+	public long getFrameAgeNanos() {
+		return frameAgeNanos;
+	}
+
+	public long getQueueWaitNanos() {
+		return queueWaitNanos;
+	}
+
+	public long getCropNanos() {
+		return cropNanos;
+	}
+
+	public long getBinarizeNanos() {
+		return binarizeNanos;
+	}
+
+	public long getDecodeNanos() {
+		return decodeNanos;
+	}
+
+	public long getDispatchNanos() {
+		return dispatchNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "%s %s, age %.1f ms (queue %.1f, crop %.1f, binarize %.1f, "
+						+ "decode %.1f, dispatch %.1f)", result.getBarcodeFormat(), result.getText(),
+				frameAgeNanos / 1e6, queueWaitNanos / 1e6, cropNanos / 1e6, binarizeNanos / 1e6,
+				decodeNanos / 1e6, dispatchNanos / 1e6);
+	}
+}
@@ -0,0 +1,12 @@
+package com.ejin.sample.camera;
+
+/**
+ * Receives the first code read, with its format, raw bytes, points, metadata and stage timings.
+ * See {@link DecodeHelper#setDecodeResultListener(DecodeResultListener)}. Called on a decode
+ * thread.
+ */
+public interface DecodeResultListener {
+
+	void onResult(DecodeResult result);
+
+}
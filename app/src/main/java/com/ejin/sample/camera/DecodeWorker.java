@@ -0,0 +1,345 @@
+package com.ejin.sample.camera;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultMetadataType;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
+import com.google.zxing.multi.qrcode.QRCodeMultiReader;
+import com.google.zxing.oned.MultiFormatOneDReader;
+import com.google.zxing.qrcode.QRCodeReader;
+
+import java.util.Map;
+
+/**
+ * Decoding state owned by exactly one decode thread. {@link MultiFormatReader} is not thread-safe,
+ * so every pool thread gets its own instance, configured once with the shared hints.
+ * <p>
+ * Each decode mode uses the smallest reader set that can find its codes: QR mode only runs
+ * {@link QRCodeReader}, bar code mode only runs the 1D readers over a few central rows, and the
+ * combined mode keeps the {@link MultiFormatReader} over every enabled format.
+ */
+final class DecodeWorker {
+
+	/**
+	 * Rows tried by the bar code mode, alternating around the middle of the framing rect
+	 */
+	private static final int BAR_CODE_ROWS = 5;
+
+	private static final Result[] NO_RESULTS = new Result[0];
+
+	private final Map<DecodeHintType, ?> hints;
+	private final MultiFormatReader reader;
+	private final QRCodeReader qrCodeReader = new QRCodeReader();
+	private final MultiFormatOneDReader oneDReader;
+	private final GenericMultipleBarcodeReader oneDMultipleReader;
+	private final QRCodeMultiReader qrCodeMultiReader = new QRCodeMultiReader();
+	// Replaced, not cleared, by trim(), so a decode still running keeps its own buffers
+	private volatile Scratch framingRectScratch = new Scratch();
+	private volatile Scratch downsampledScratch = new Scratch();
+	private volatile Scratch tileScratch = new Scratch();
+	private BitArray row;
+	private long cropNanos;
+	private long binarizeNanos;
+	private long decodeNanos;
+
+	DecodeWorker(Map<DecodeHintType, ?> hints) {
+		this.hints = hints;
+		reader = new MultiFormatReader();
+		reader.setHints(hints);
+		oneDReader = new MultiFormatOneDReader(hints);
+		oneDMultipleReader = new GenericMultipleBarcodeReader(oneDReader);
+	}
+
+	/**
+	 * Rotation and binarization buffers for one kind of region. Regions of different sizes get
+	 * their own, so the buffers are not reallocated when a frame is decoded in several passes.
+	 */
+	private static final class Scratch {
+
+		final FrameRotator rotator = new FrameRotator();
+		final ReusableHybridBinarizer.Buffers binarizerBuffers = new ReusableHybridBinarizer.Buffers();
+
+		long getBytes() {
+			return rotator.getBufferBytes() + binarizerBuffers.getBytes();
+		}
+	}
+
+	/**
+	 * Lets go of every buffer sized for the last frame, they are allocated again by the next
+	 * decode. Safe to call from another thread: a decode already running finishes with the old
+	 * buffers.
+	 */
+	void trim() {
+		framingRectScratch = new Scratch();
+		downsampledScratch = new Scratch();
+		tileScratch = new Scratch();
+	}
+
+	/**
+	 * @return bytes held by the buffers kept for the next decode, what {@link MemoryBudget}
+	 * counts per worker.
+	 */
+	long getBufferBytes() {
+		return framingRectScratch.getBytes() + downsampledScratch.getBytes() + tileScratch.getBytes();
+	}
+
+	/**
+	 * Sets the stage times back to 0. They add up over every decode since, so a frame decoded in
+	 * several passes reports its total.
+	 */
+	void resetTimings() {
+		cropNanos = 0;
+		binarizeNanos = 0;
+		decodeNanos = 0;
+	}
+
+	/**
+	 * @return time spent rotating and cropping frames since {@link #resetTimings()}.
+	 */
+	long getCropNanos() {
+		return cropNanos;
+	}
+
+	/**
+	 * @return time spent binarizing since {@link #resetTimings()}.
+	 */
+	long getBinarizeNanos() {
+		return binarizeNanos;
+	}
+
+	/**
+	 * @return time spent in the readers since {@link #resetTimings()}.
+	 */
+	long getDecodeNanos() {
+		return decodeNanos;
+	}
+
+	/**
+	 * When the preview is shown rotated, the frame is read in place through a
+	 * {@link RotatedLuminanceSource} rather than rotated into a copy first. The same source is
+	 * used whenever a rotator is given, so the luminance matrix lands in its reusable buffer.
+	 *
+	 * @param rotator supplies a reusable buffer for the luminance matrix, may be {@code null}.
+	 */
+	static LuminanceSource buildLuminanceSource(byte[] data, FrameGeometry geometry,
+												FrameRotator rotator) {
+		if (geometry.rotation == 0 && rotator == null) {
+			return new PlanarYUVLuminanceSource(data, geometry.sensorWidth, geometry.sensorHeight,
+					geometry.cropLeft, geometry.cropTop, geometry.cropWidth, geometry.cropHeight, false);
+		}
+		return new RotatedLuminanceSource(data, geometry, rotator);
+	}
+
+	/**
+	 * The whole per-frame pipeline: crop and rotate the framing rect, binarize, decode. Only
+	 * depends on ZXing, so it runs unchanged off-device, see DecodeBenchmark in the unit tests.
+	 *
+	 * @return the decoded result, or {@code null} if nothing was found.
+	 */
+	Result decodeFrame(byte[] frame, FrameGeometry geometry, int mode) {
+		return decodeRegion(frame, geometry, mode, framingRectScratch);
+	}
+
+	/**
+	 * Decodes one tile of a frame, for {@link RoiPyramid}. Result points are relative to the tile.
+	 */
+	Result decodeTile(byte[] frame, FrameGeometry tile, int mode) {
+		return decodeRegion(frame, tile, mode, tileScratch);
+	}
+
+	/**
+	 * Decodes the crop of {@code geometry} at half resolution, for {@link RoiPyramid}. Result
+	 * points are relative to the downsampled crop.
+	 */
+	Result decodeDownsampled(byte[] frame, FrameGeometry geometry, int mode) {
+		int width = geometry.cropWidth / 2;
+		int height = geometry.cropHeight / 2;
+		if (width == 0 || height == 0) {
+			return null;
+		}
+		long start = System.nanoTime();
+		Scratch scratch = downsampledScratch;
+		byte[] data = scratch.rotator.downsampleCrop(frame, geometry);
+		LuminanceSource source = new PlanarYUVLuminanceSource(data, width, height, 0, 0,
+				width, height, false);
+		return decode(binarize(source, scratch, mode, start), mode);
+	}
+
+	/**
+	 * Like {@link #decodeFrame}, but finds every code in the framing rect instead of the first.
+	 * The combined mode runs the QR code and the 1D multi-readers one after the other: the
+	 * QR code one finds several codes in one detection pass, where the generic reader over
+	 * {@link MultiFormatReader} stops at a partial code cut by the framing rect.
+	 *
+	 * @return the decoded results, empty if nothing was found.
+	 */
+	Result[] decodeMultiple(byte[] frame, FrameGeometry geometry, int mode) {
+		return decodeMultipleRegion(frame, geometry, mode, framingRectScratch);
+	}
+
+	/**
+	 * Finds every code in one tile of a frame, for {@link MultiCodeDecoder}. Result points are
+	 * relative to the tile.
+	 */
+	Result[] decodeMultipleTile(byte[] frame, FrameGeometry tile, int mode) {
+		return decodeMultipleRegion(frame, tile, mode, tileScratch);
+	}
+
+	private Result[] decodeMultipleRegion(byte[] frame, FrameGeometry geometry, int mode,
+										  Scratch scratch) {
+		if (geometry.cropWidth == 0 || geometry.cropHeight == 0) {
+			return NO_RESULTS;
+		}
+		long start = System.nanoTime();
+		BinaryBitmap bitmap = binarize(buildLuminanceSource(frame, geometry, scratch.rotator), scratch,
+				mode, start);
+		switch (mode) {
+			case DecodeMode.QR_CODE:
+				return decodeMultiple(bitmap, false);
+			case DecodeMode.BAR_CODE:
+				return decodeMultiple(bitmap, true);
+			default:
+				Result[] qrCodes = decodeMultiple(bitmap, false);
+				Result[] barCodes = decodeMultiple(bitmap, true);
+				if (qrCodes.length == 0 || barCodes.length == 0) {
+					return qrCodes.length == 0 ? barCodes : qrCodes;
+				}
+				Result[] results = new Result[qrCodes.length + barCodes.length];
+				System.arraycopy(qrCodes, 0, results, 0, qrCodes.length);
+				System.arraycopy(barCodes, 0, results, qrCodes.length, barCodes.length);
+				return results;
+		}
+	}
+
+	private Result[] decodeMultiple(BinaryBitmap bitmap, boolean oneD) {
+		long start = System.nanoTime();
+		try {
+			return oneD ? oneDMultipleReader.decodeMultiple(bitmap, hints)
+					: qrCodeMultiReader.decodeMultiple(bitmap, hints);
+		} catch (ReaderException re) {
+			return NO_RESULTS;
+		} finally {
+			decodeNanos += System.nanoTime() - start;
+			qrCodeMultiReader.reset();
+			oneDReader.reset();
+		}
+	}
+
+	private Result decodeRegion(byte[] frame, FrameGeometry geometry, int mode, Scratch scratch) {
+		if (geometry.cropWidth == 0 || geometry.cropHeight == 0) {
+			return null;
+		}
+		// Reads the camera buffer in place; only the crop is copied, into a buffer the worker
+		// keeps between frames
+		long start = System.nanoTime();
+		LuminanceSource source = buildLuminanceSource(frame, geometry, scratch.rotator);
+		return decode(binarize(source, scratch, mode, start), mode);
+	}
+
+	/**
+	 * The matrix modes materialize the crop and its black matrix up front, so both are timed
+	 * apart from decoding. Bar code mode reads and binarizes single rows as the readers go, so
+	 * there they count as decoding.
+	 *
+	 * @param start {@link System#nanoTime()} when work on the source began.
+	 * @return a bitmap binarized into the scratch buffers, valid until they are used again.
+	 */
+	private BinaryBitmap binarize(LuminanceSource source, Scratch scratch, int mode, long start) {
+		BinaryBitmap bitmap = new BinaryBitmap(new ReusableHybridBinarizer(source, scratch.binarizerBuffers));
+		if (mode != DecodeMode.BAR_CODE) {
+			source.getMatrix();
+			long cropped = System.nanoTime();
+			cropNanos += cropped - start;
+			try {
+				bitmap.getBlackMatrix();
+			} catch (NotFoundException ignored) {
+				// The reader runs into it again and reports nothing found
+			}
+			binarizeNanos += System.nanoTime() - cropped;
+		} else {
+			cropNanos += System.nanoTime() - start;
+		}
+		return bitmap;
+	}
+
+	/**
+	 * @param mode one of {@link DecodeMode#ALL}, {@link DecodeMode#QR_CODE} or
+	 *             {@link DecodeMode#BAR_CODE}.
+	 * @return the decoded result, or {@code null} if nothing was found.
+	 */
+	private Result decode(BinaryBitmap bitmap, int mode) {
+		long start = System.nanoTime();
+		try {
+			switch (mode) {
+				case DecodeMode.QR_CODE:
+					return qrCodeReader.decode(bitmap, hints);
+				case DecodeMode.BAR_CODE:
+					return decodeCentralRows(bitmap);
+				default:
+					return reader.decodeWithState(bitmap);
+			}
+		} catch (ReaderException re) {
+			return null;
+		} finally {
+			decodeNanos += System.nanoTime() - start;
+			reader.reset();
+			qrCodeReader.reset();
+			oneDReader.reset();
+		}
+	}
+
+	/**
+	 * Like {@code OneDReader.doDecode()}, but only over a handful of rows around the middle of the
+	 * bar code framing rect. Rows are binarized one at a time straight from the luminance source,
+	 * so the full black matrix is never computed.
+	 */
+	private Result decodeCentralRows(BinaryBitmap image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int middle = height / 2;
+		int rowStep = Math.max(1, height / (BAR_CODE_ROWS * 2));
+		for (int x = 0; x < BAR_CODE_ROWS; x++) {
+			int rowStepsAboveOrBelow = (x + 1) / 2;
+			boolean isAbove = (x & 0x01) == 0; // i.e. is x even?
+			int rowNumber = middle + rowStep * (isAbove ? rowStepsAboveOrBelow : -rowStepsAboveOrBelow);
+			if (rowNumber < 0 || rowNumber >= height) {
+				break;
+			}
+			try {
+				row = image.getBlackRow(rowNumber, row);
+			} catch (ReaderException ignored) {
+				continue;
+			}
+			// Try the row left to right, then reversed for an upside-down bar code
+			for (int attempt = 0; attempt < 2; attempt++) {
+				if (attempt == 1) {
+					row.reverse();
+				}
+				try {
+					Result result = oneDReader.decodeRow(rowNumber, row, hints);
+					if (attempt == 1) {
+						result.putMetadata(ResultMetadataType.ORIENTATION, 180);
+						ResultPoint[] points = result.getResultPoints();
+						if (points != null) {
+							for (int i = 0; i < points.length; i++) {
+								points[i] = new ResultPoint(width - points[i].getX() - 1, points[i].getY());
+							}
+						}
+					}
+					return result;
+				} catch (ReaderException re) {
+					// continue -- just couldn't decode this row
+				}
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,45 @@
+package com.ejin.sample.camera;
+
+import com.google.zxing.Result;
+
+/**
+ * Decodes a frame as both scanner types at once: the 1D readers over the central rows of the wide
+ * bar code framing rect, then the QR reader over the square one. Instead of looking for one kind
+ * of code at a time and switching every few seconds, every frame is searched for both, so the
+ * scanner type shown only changes the overlay.
+ * <p>
+ * The bar code pass is cheap, a handful of rows without a black matrix, so it goes first.
+ */
+final class DualModeDecoder {
+
+	private DualModeDecoder() {
+	}
+
+	/**
+	 * @param qrCode  the square framing rect, {@code null} to skip it.
+	 * @param barCode the wide framing rect, {@code null} to skip it.
+	 * @param target  the framing rect the result points are reported in.
+	 * @param pyramid searches beyond the square framing rect when given, may be {@code null}.
+	 * @param start   {@link System#nanoTime()} when work on the frame began.
+	 * @return the first code found, with points relative to {@code target}, or {@code null}.
+	 */
+	static Result decode(DecodeWorker worker, byte[] frame, FrameGeometry qrCode,
+						 FrameGeometry barCode, FrameGeometry target, RoiPyramid pyramid, long start) {
+		if (barCode != null) {
+			// Its own scratch buffers, so the two crops do not reallocate each other's
+			Result result = worker.decodeTile(frame, barCode, DecodeMode.BAR_CODE);
+			if (result != null) {
+				return RoiPyramid.translate(result, 1, barCode.cropLeft, barCode.cropTop, target);
+			}
+		}
+		if (qrCode != null) {
+			Result result = pyramid == null
+					? worker.decodeFrame(frame, qrCode, DecodeMode.QR_CODE)
+					: pyramid.decode(worker, frame, qrCode, DecodeMode.QR_CODE, start);
+			if (result != null) {
+				return RoiPyramid.translate(result, 1, qrCode.cropLeft, qrCode.cropTop, target);
+			}
+		}
+		return null;
+	}
+}
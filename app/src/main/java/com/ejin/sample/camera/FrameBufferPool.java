@@ -0,0 +1,160 @@
+package com.ejin.sample.camera;
+
+import android.hardware.Camera;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A fixed set of preview buffers that are handed to the camera through
+ * {@link Camera#addCallbackBuffer(byte[])} and recycled once the decode worker owning a frame is
+ * done with it, so steady-state scanning does not allocate a new frame array per preview frame.
+ */
+final class FrameBufferPool {
+
+	/**
+	 * Two frames in flight, one pending and one being filled by the camera
+	 */
+	static final int DEFAULT_POOL_SIZE = 4;
+
+	private final Set<byte[]> buffers = newIdentitySet();
+	private final Set<byte[]> inUse = newIdentitySet();
+	// One slot per buffer, so timing a frame does not allocate
+	private final Map<byte[], long[]> deliveryTimes = new IdentityHashMap<>();
+	private Camera camera;
+	private int poolSize = DEFAULT_POOL_SIZE;
+	private int bufferSize;
+	private int allocationCount;
+
+	private static Set<byte[]> newIdentitySet() {
+		return Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+	}
+
+	/**
+	 * @param poolSize number of buffers to keep; takes effect the next time the pool is attached.
+	 */
+	synchronized void setPoolSize(int poolSize) {
+		if (poolSize <= 0) {
+			throw new IllegalArgumentException("Pool size must be greater than 0.");
+		}
+		this.poolSize = poolSize;
+	}
+
+	synchronized int getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * @return how many frame arrays this pool has allocated since it was created.
+	 */
+	synchronized int getAllocationCount() {
+		return allocationCount;
+	}
+
+	/**
+	 * @return bytes held by the buffers of this pool, including those a decode worker owns.
+	 */
+	synchronized long getHeldBytes() {
+		return (long) buffers.size() * bufferSize;
+	}
+
+	/**
+	 * Gives every buffer which is not owned by a decode worker to the camera.
+	 *
+	 * @param camera     the camera whose preview callback was set with
+	 *                   {@link Camera#setPreviewCallbackWithBuffer(Camera.PreviewCallback)}.
+	 * @param bufferSize size in bytes of one preview frame.
+	 */
+	synchronized void attach(Camera camera, int bufferSize) {
+		if (this.camera == camera && this.bufferSize == bufferSize) {
+			return;
+		}
+		if (this.bufferSize != bufferSize) {
+			buffers.clear();
+			inUse.clear();
+			deliveryTimes.clear();
+			this.bufferSize = bufferSize;
+		}
+		Iterator<byte[]> it = buffers.iterator();
+		while (buffers.size() > poolSize && it.hasNext()) {
+			byte[] buffer = it.next();
+			if (!inUse.contains(buffer)) {
+				it.remove();
+				deliveryTimes.remove(buffer);
+			}
+		}
+		while (buffers.size() < poolSize) {
+			byte[] buffer = new byte[bufferSize];
+			buffers.add(buffer);
+			deliveryTimes.put(buffer, new long[1]);
+			allocationCount++;
+		}
+		this.camera = camera;
+		for (byte[] buffer : buffers) {
+			if (!inUse.contains(buffer)) {
+				camera.addCallbackBuffer(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Forgets the camera. The caller clears the camera's own buffer queue.
+	 */
+	synchronized void detach() {
+		camera = null;
+	}
+
+	/**
+	 * Forgets the camera and every buffer, so they can be garbage collected. Buffers still owned
+	 * by a decode worker are dropped when it recycles them. The pool allocates new buffers the
+	 * next time it is attached.
+	 */
+	synchronized void release() {
+		camera = null;
+		buffers.clear();
+		inUse.clear();
+		deliveryTimes.clear();
+		bufferSize = 0;
+	}
+
+	/**
+	 * Marks a buffer delivered by the camera as owned by a decode worker, and notes when.
+	 */
+	synchronized void acquire(byte[] buffer) {
+		long[] deliveryTime = deliveryTimes.get(buffer);
+		if (deliveryTime != null) {
+			inUse.add(buffer);
+			deliveryTime[0] = System.nanoTime();
+		}
+	}
+
+	/**
+	 * @return {@link System#nanoTime()} when the camera delivered the frame in {@code buffer}, or
+	 * 0 for a buffer not from this pool.
+	 */
+	synchronized long getDeliveryTime(byte[] buffer) {
+		long[] deliveryTime = deliveryTimes.get(buffer);
+		return deliveryTime == null ? 0 : deliveryTime[0];
+	}
+
+	/**
+	 * Returns a buffer to the camera once its decode worker is done with it. Buffers from a
+	 * previous preview size are dropped.
+	 */
+	synchronized void recycle(byte[] buffer) {
+		if (!inUse.remove(buffer)) {
+			return;
+		}
+		if (buffers.size() > poolSize) {
+			buffers.remove(buffer);
+			deliveryTimes.remove(buffer);
+			return;
+		}
+		if (camera != null) {
+			camera.addCallbackBuffer(buffer);
+		}
+	}
+}
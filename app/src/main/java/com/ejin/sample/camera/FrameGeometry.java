@@ -0,0 +1,98 @@
+package com.ejin.sample.camera;
+
+/**
+ * Immutable description of how a raw preview frame maps onto the screen: the sensor frame size,
+ * the clockwise rotation which brings it upright, and the framing rect to decode.
+ * <p>
+ * The crop is expressed in the rotated (upright) frame. For a mirrored front camera preview the
+ * framing rect is flipped when the geometry is built, so the crop covers what the user sees inside
+ * the framing rect while its pixels stay un-mirrored and decodable.
+ */
+final class FrameGeometry {
+
+	final int sensorWidth;
+	final int sensorHeight;
+	final int rotation;
+	final boolean mirror;
+	final int cropLeft;
+	final int cropTop;
+	final int cropWidth;
+	final int cropHeight;
+
+	/**
+	 * @param sensorWidth  width of the raw preview frame.
+	 * @param sensorHeight height of the raw preview frame.
+	 * @param rotation     clockwise rotation in degrees, one of 0, 90, 180 or 270.
+	 * @param mirror       whether the preview is shown mirrored, as the front camera is.
+	 * @param left         left of the framing rect, in preview coordinates as shown on screen.
+	 * @param top          top of the framing rect, in preview coordinates as shown on screen.
+	 * @param width        width of the framing rect.
+	 * @param height       height of the framing rect.
+	 */
+	FrameGeometry(int sensorWidth, int sensorHeight, int rotation, boolean mirror,
+				  int left, int top, int width, int height) {
+		if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) {
+			throw new IllegalArgumentException("Bad rotation: " + rotation);
+		}
+		this.sensorWidth = sensorWidth;
+		this.sensorHeight = sensorHeight;
+		this.rotation = rotation;
+		this.mirror = mirror;
+
+		int frameWidth = getFrameWidth();
+		int frameHeight = getFrameHeight();
+		if (mirror) {
+			left = frameWidth - (left + width);
+		}
+		int right = Math.min(left + width, frameWidth);
+		int bottom = Math.min(top + height, frameHeight);
+		cropLeft = Math.max(left, 0);
+		cropTop = Math.max(top, 0);
+		cropWidth = Math.max(right - cropLeft, 0);
+		cropHeight = Math.max(bottom - cropTop, 0);
+	}
+
+	/**
+	 * @return width of the upright frame.
+	 */
+	int getFrameWidth() {
+		return isSwapped() ? sensorHeight : sensorWidth;
+	}
+
+	/**
+	 * @return height of the upright frame.
+	 */
+	int getFrameHeight() {
+		return isSwapped() ? sensorWidth : sensorHeight;
+	}
+
+	/**
+	 * @param x column inside the crop, in upright coordinates.
+	 * @param y row inside the crop, in upright coordinates.
+	 * @return index of that pixel in the raw frame's luminance plane.
+	 */
+	int sensorIndex(int x, int y) {
+		int frameX = cropLeft + x;
+		int frameY = cropTop + y;
+		switch (rotation) {
+			case 90:
+				return (sensorHeight - 1 - frameX) * sensorWidth + frameY;
+			case 180:
+				return (sensorHeight - 1 - frameY) * sensorWidth + sensorWidth - 1 - frameX;
+			case 270:
+				return frameX * sensorWidth + sensorWidth - 1 - frameY;
+			default:
+				return frameY * sensorWidth + frameX;
+		}
+	}
+
+	boolean isSwapped() {
+		return rotation == 90 || rotation == 270;
+	}
+
+	@Override
+	public String toString() {
+		return sensorWidth + "x" + sensorHeight + " rotated " + rotation + (mirror ? " mirrored" : "")
+				+ ", crop " + cropLeft + ',' + cropTop + ' ' + cropWidth + 'x' + cropHeight;
+	}
+}
@@ -0,0 +1,156 @@
+package com.ejin.sample.camera;
+
+/**
+ * A cheap check run before a frame is queued for decoding, which skips frames that cannot
+ * decode anyway: blurry ones, taken while autofocus is still hunting, and ones still moving with
+ * the user's hand.
+ * <p>
+ * Both measures look at a {@value #GRID} x {@value #GRID} grid of samples over the framing rect.
+ * Sharpness is the mean absolute luminance gradient at each sample; motion is the mean absolute
+ * luminance difference of the samples against the previous frame. The gate is off by default,
+ * since good thresholds depend on the device and the codes being scanned.
+ */
+public final class FrameQualityGate {
+
+	static final int GRID = 32;
+
+	public static final int DEFAULT_MIN_SHARPNESS = 6;
+	public static final int DEFAULT_MAX_MOTION = 16;
+
+	private boolean enabled;
+	private int minSharpness = DEFAULT_MIN_SHARPNESS;
+	private int maxMotion = DEFAULT_MAX_MOTION;
+	private final int[] previous = new int[GRID * GRID];
+	private boolean hasPrevious;
+	private FrameGeometry previousGeometry;
+	private int lastSharpness = -1;
+	private long acceptedCount;
+	private long blurryCount;
+	private long movingCount;
+
+	public synchronized void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+		hasPrevious = false;
+	}
+
+	public synchronized boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param minSharpness frames whose mean gradient over the framing rect is below this are
+	 *                     skipped as blurry, 0 disables the check.
+	 */
+	public synchronized void setMinSharpness(int minSharpness) {
+		this.minSharpness = minSharpness;
+	}
+
+	/**
+	 * @param maxMotion frames whose mean difference to the previous frame is above this are skipped
+	 *                  as moving, 0 disables the check.
+	 */
+	public synchronized void setMaxMotion(int maxMotion) {
+		this.maxMotion = maxMotion;
+	}
+
+	/**
+	 * @return sharpness of the last frame checked, or -1 if none was.
+	 */
+	public synchronized int getLastSharpness() {
+		return lastSharpness;
+	}
+
+	public synchronized long getAcceptedCount() {
+		return acceptedCount;
+	}
+
+	public synchronized long getBlurryCount() {
+		return blurryCount;
+	}
+
+	public synchronized long getMovingCount() {
+		return movingCount;
+	}
+
+	public synchronized void resetCounters() {
+		acceptedCount = 0;
+		blurryCount = 0;
+		movingCount = 0;
+	}
+
+	/**
+	 * @param sharpness of the frame, as measured by {@link #measureSharpness(byte[], FrameGeometry)}
+	 *                  for the auto focus already.
+	 * @return {@code true} if the frame is worth decoding. Always {@code true} while disabled.
+	 */
+	synchronized boolean accept(byte[] frame, FrameGeometry geometry, int sharpness) {
+		if (!enabled) {
+			return true;
+		}
+		if (geometry.cropWidth < GRID || geometry.cropHeight < GRID) {
+			acceptedCount++;
+			return true;
+		}
+		if (geometry != previousGeometry) {
+			// The framing rect moved, the previous samples show something else
+			previousGeometry = geometry;
+			hasPrevious = false;
+		}
+		long difference = 0;
+		for (int j = 0; j < GRID; j++) {
+			int y = j * geometry.cropHeight / GRID;
+			for (int i = 0; i < GRID; i++) {
+				int x = i * geometry.cropWidth / GRID;
+				int pixel = frame[geometry.sensorIndex(x, y)] & 0xFF;
+				int sample = j * GRID + i;
+				if (hasPrevious) {
+					difference += Math.abs(pixel - previous[sample]);
+				}
+				previous[sample] = pixel;
+			}
+		}
+		boolean hadPrevious = hasPrevious;
+		hasPrevious = true;
+
+		int samples = GRID * GRID;
+		lastSharpness = sharpness;
+		if (minSharpness > 0 && lastSharpness < minSharpness) {
+			blurryCount++;
+			return false;
+		}
+		if (maxMotion > 0 && hadPrevious && difference / samples > maxMotion) {
+			movingCount++;
+			return false;
+		}
+		acceptedCount++;
+		return true;
+	}
+
+	/**
+	 * The sharpness the gate checks, for {@link AutoFocusManager} whether the gate is enabled or
+	 * not: the mean absolute luminance gradient over the grid of samples.
+	 *
+	 * @return the sharpness, or -1 if the framing rect is too small for the grid.
+	 */
+	static int measureSharpness(byte[] frame, FrameGeometry geometry) {
+		if (geometry.cropWidth < GRID || geometry.cropHeight < GRID) {
+			return -1;
+		}
+		int sensorWidth = geometry.sensorWidth;
+		int lumaSize = sensorWidth * geometry.sensorHeight;
+		long gradient = 0;
+		for (int j = 0; j < GRID; j++) {
+			int y = j * geometry.cropHeight / GRID;
+			for (int i = 0; i < GRID; i++) {
+				int x = i * geometry.cropWidth / GRID;
+				int index = geometry.sensorIndex(x, y);
+				int pixel = frame[index] & 0xFF;
+				// Gradient magnitude does not depend on orientation, so take neighbours on the sensor
+				int right = index % sensorWidth < sensorWidth - 1 ? index + 1 : index - 1;
+				int down = index + sensorWidth < lumaSize ? index + sensorWidth : index - sensorWidth;
+				gradient += Math.abs((frame[right] & 0xFF) - pixel) + Math.abs((frame[down] & 0xFF) - pixel);
+			}
+		}
+		return (int) (gradient / (GRID * GRID));
+	}
+}
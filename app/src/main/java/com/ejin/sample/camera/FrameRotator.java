@@ -0,0 +1,124 @@
+package com.ejin.sample.camera;
+
+/**
+ * Copies the framing rect of a raw preview frame into an upright luminance buffer. Only the crop
+ * is rotated, instead of the whole frame, and the buffer is reused as long as the crop size stays
+ * the same.
+ * <p>
+ * Quarter turns walk the frame in tiles: within a tile the sensor is read row by row, and the
+ * writes stay inside a region small enough to remain in cache.
+ */
+final class FrameRotator {
+
+	private static final int TILE_SIZE = 32;
+
+	private byte[] buffer;
+
+	/**
+	 * @param data     a preview frame whose first {@code sensorWidth * sensorHeight} bytes are the
+	 *                 luminance plane, as in NV21.
+	 * @param geometry how the frame maps onto the screen.
+	 * @return the upright crop, {@code cropWidth * cropHeight} bytes. The array is reused by the
+	 * next call.
+	 */
+	byte[] rotateCrop(byte[] data, FrameGeometry geometry) {
+		int size = geometry.cropWidth * geometry.cropHeight;
+		if (buffer == null || buffer.length != size) {
+			buffer = new byte[size];
+		}
+		rotateCrop(data, geometry, buffer);
+		return buffer;
+	}
+
+	/**
+	 * Like {@link #rotateCrop(byte[], FrameGeometry)}, at half the resolution: every output pixel
+	 * is the average of a 2x2 block of the crop.
+	 *
+	 * @return the upright crop, {@code (cropWidth / 2) * (cropHeight / 2)} bytes. The array is
+	 * reused by the next call.
+	 */
+	byte[] downsampleCrop(byte[] data, FrameGeometry g) {
+		int width = g.cropWidth / 2;
+		int height = g.cropHeight / 2;
+		if (buffer == null || buffer.length != width * height) {
+			buffer = new byte[width * height];
+		}
+		for (int y = 0; y < height; y++) {
+			int outOffset = y * width;
+			for (int x = 0; x < width; x++) {
+				int sum = (data[g.sensorIndex(2 * x, 2 * y)] & 0xFF)
+						+ (data[g.sensorIndex(2 * x + 1, 2 * y)] & 0xFF)
+						+ (data[g.sensorIndex(2 * x, 2 * y + 1)] & 0xFF)
+						+ (data[g.sensorIndex(2 * x + 1, 2 * y + 1)] & 0xFF);
+				buffer[outOffset + x] = (byte) (sum >> 2);
+			}
+		}
+		return buffer;
+	}
+
+	/**
+	 * @return size of the buffer kept for the next call, 0 before the first.
+	 */
+	int getBufferBytes() {
+		byte[] buffer = this.buffer;
+		return buffer == null ? 0 : buffer.length;
+	}
+
+	static void rotateCrop(byte[] data, FrameGeometry g, byte[] out) {
+		int sensorWidth = g.sensorWidth;
+		int sensorHeight = g.sensorHeight;
+		int left = g.cropLeft;
+		int top = g.cropTop;
+		int width = g.cropWidth;
+		int height = g.cropHeight;
+
+		switch (g.rotation) {
+			case 0:
+				for (int y = 0; y < height; y++) {
+					System.arraycopy(data, (top + y) * sensorWidth + left, out, y * width, width);
+				}
+				break;
+			case 180:
+				for (int y = 0; y < height; y++) {
+					int in = (sensorHeight - 1 - top - y) * sensorWidth + sensorWidth - 1 - left;
+					int outOffset = y * width;
+					for (int x = 0; x < width; x++) {
+						out[outOffset + x] = data[in - x];
+					}
+				}
+				break;
+			case 90:
+				// Upright (x, y) comes from sensor (top + y, sensorHeight - 1 - left - x)
+				for (int tileX = 0; tileX < width; tileX += TILE_SIZE) {
+					int endX = Math.min(tileX + TILE_SIZE, width);
+					for (int tileY = 0; tileY < height; tileY += TILE_SIZE) {
+						int endY = Math.min(tileY + TILE_SIZE, height);
+						for (int x = tileX; x < endX; x++) {
+							int in = (sensorHeight - 1 - left - x) * sensorWidth + top;
+							for (int y = tileY; y < endY; y++) {
+								out[y * width + x] = data[in + y];
+							}
+						}
+					}
+				}
+				break;
+			case 270:
+				// Upright (x, y) comes from sensor (sensorWidth - 1 - top - y, left + x)
+				for (int tileX = 0; tileX < width; tileX += TILE_SIZE) {
+					int endX = Math.min(tileX + TILE_SIZE, width);
+					for (int tileY = 0; tileY < height; tileY += TILE_SIZE) {
+						int endY = Math.min(tileY + TILE_SIZE, height);
+						for (int x = tileX; x < endX; x++) {
+							int in = (left + x) * sensorWidth + sensorWidth - 1 - top;
+							for (int y = tileY; y < endY; y++) {
+								out[y * width + x] = data[in - y];
+							}
+						}
+					}
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("Bad rotation: " + g.rotation);
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package com.ejin.sample.camera;
+
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Hands preview frames to the decode workers, keeping at most {@code maxInFlight} frames in
+ * flight. While all slots are busy only the newest frame is kept pending; an older pending frame
+ * is dropped, since decoding a stale frame only adds latency.
+ * <p>
+ * A frame whose decode throws is logged and released like any other, so the slot it held is
+ * given back and scanning goes on.
+ */
+final class FrameScheduler {
+
+	private static final String TAG = FrameScheduler.class.getSimpleName();
+
+	interface FrameConsumer {
+
+		/**
+		 * Called on a worker thread for each scheduled frame.
+		 */
+		void decodeFrame(byte[] frame);
+
+		/**
+		 * Called once the frame is decoded or cleared; the buffer may be reused afterwards.
+		 */
+		void releaseFrame(byte[] frame);
+
+		/**
+		 * Called instead of {@link #releaseFrame(byte[])} for a pending frame replaced by a newer
+		 * one; the buffer may be reused afterwards.
+		 */
+		void dropFrame(byte[] frame);
+	}
+
+	private final Executor executor;
+	private final FrameConsumer consumer;
+	private int maxInFlight;
+	private int inFlight;
+	private byte[] pending;
+	private long receivedCount;
+	private long droppedCount;
+
+	FrameScheduler(Executor executor, FrameConsumer consumer, int maxInFlight) {
+		this.executor = executor;
+		this.consumer = consumer;
+		setMaxInFlight(maxInFlight);
+	}
+
+	synchronized void setMaxInFlight(int maxInFlight) {
+		if (maxInFlight <= 0) {
+			throw new IllegalArgumentException("Frames in flight must be greater than 0.");
+		}
+		this.maxInFlight = maxInFlight;
+	}
+
+	synchronized int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	void submit(byte[] frame) {
+		byte[] dropped = null;
+		synchronized (this) {
+			receivedCount++;
+			if (inFlight >= maxInFlight) {
+				if (pending != null) {
+					dropped = pending;
+					droppedCount++;
+				}
+				pending = frame;
+				frame = null;
+			} else {
+				inFlight++;
+			}
+		}
+		if (dropped != null) {
+			consumer.dropFrame(dropped);
+		}
+		if (frame != null) {
+			execute(frame);
+		}
+	}
+
+	private void execute(final byte[] frame) {
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					byte[] next = frame;
+					while (next != null) {
+						try {
+							consumer.decodeFrame(next);
+						} catch (RuntimeException e) {
+							// One bad frame must not take the slot with it
+							Log.w(TAG, "Decoding a frame failed", e);
+						} finally {
+							consumer.releaseFrame(next);
+						}
+						next = takePending();
+					}
+				}
+			});
+		} catch (RejectedExecutionException ree) {
+			synchronized (this) {
+				inFlight--;
+			}
+			consumer.releaseFrame(frame);
+		}
+	}
+
+	/**
+	 * @return the pending frame for a worker which just finished, or {@code null} after
+	 * giving its slot back.
+	 */
+	private synchronized byte[] takePending() {
+		byte[] next = pending;
+		pending = null;
+		if (next == null || inFlight > maxInFlight) {
+			inFlight--;
+			if (next != null) {
+				// maxInFlight was lowered while busy, keep the frame for another slot
+				pending = next;
+				next = null;
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Drops the pending frame, if any. Frames already in flight finish normally.
+	 */
+	void clear() {
+		byte[] dropped;
+		synchronized (this) {
+			dropped = pending;
+			pending = null;
+		}
+		if (dropped != null) {
+			consumer.releaseFrame(dropped);
+		}
+	}
+
+	/**
+	 * @return frames being decoded plus the pending one.
+	 */
+	synchronized int getQueueDepth() {
+		return inFlight + (pending == null ? 0 : 1);
+	}
+
+	synchronized int getInFlightCount() {
+		return inFlight;
+	}
+
+	synchronized long getReceivedCount() {
+		return receivedCount;
+	}
+
+	synchronized long getDroppedCount() {
+		return droppedCount;
+	}
+}
@@ -0,0 +1,145 @@
+package com.ejin.sample.camera;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram in the style of HdrHistogram: fixed memory, lock-free recording, and a
+ * bounded relative error at every scale. Latencies are kept in microseconds; below
+ * {@value #SUB_BUCKETS} us every value has its own bucket, above that each power of two is split
+ * into {@value #HALF_SUB_BUCKETS} linear buckets, so any percentile is off by at most 1/16.
+ * Values past about 38 hours land in the last bucket.
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKETS = 32;
+	private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+	private static final int HALF_SUB_BUCKET_BITS = 4;
+	private static final int MAX_SHIFT = 32;
+	private static final int BUCKET_COUNT = SUB_BUCKETS + MAX_SHIFT * HALF_SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong totalMicros = new AtomicLong();
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	/**
+	 * @param nanos a latency, negative values count as 0.
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(nanos, 0) / 1000;
+		counts.incrementAndGet(bucketIndex(micros));
+		totalMicros.addAndGet(micros);
+		long max;
+		while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {
+			// Raced with another thread raising the max, try again
+		}
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts.set(i, 0);
+		}
+		totalMicros.set(0);
+		maxMicros.set(0);
+	}
+
+	/**
+	 * @return a copy of the current counts. Recording goes on meanwhile, so the copy may be off by
+	 * the values recorded while it is taken.
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			copy[i] = counts.get(i);
+		}
+		return new Snapshot(copy, totalMicros.get(), maxMicros.get());
+	}
+
+	static int bucketIndex(long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) micros;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(micros) - HALF_SUB_BUCKET_BITS;
+		if (shift > MAX_SHIFT) {
+			return BUCKET_COUNT - 1;
+		}
+		return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (micros >> shift) - HALF_SUB_BUCKETS;
+	}
+
+	/**
+	 * @return the middle of the values falling into the bucket, in microseconds.
+	 */
+	static long bucketValue(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+		long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+		return (subBucket << shift) + (1L << (shift - 1));
+	}
+
+	/**
+	 * The counts of a {@link LatencyHistogram} at one point in time.
+	 */
+	public static final class Snapshot {
+
+		private final long[] counts;
+		private final long count;
+		private final long totalMicros;
+		private final long maxMicros;
+
+		Snapshot(long[] counts, long totalMicros, long maxMicros) {
+			this.counts = counts;
+			long count = 0;
+			for (long c : counts) {
+				count += c;
+			}
+			this.count = count;
+			this.totalMicros = totalMicros;
+			this.maxMicros = maxMicros;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the mean latency in nanoseconds, 0 if nothing was recorded.
+		 */
+		public long getMeanNanos() {
+			return count == 0 ? 0 : totalMicros * 1000 / count;
+		}
+
+		public long getMaxNanos() {
+			return maxMicros * 1000;
+		}
+
+		/**
+		 * @param percentile between 0 and 100, such as 50 for the median or 99.
+		 * @return the latency in nanoseconds which {@code percentile} percent of the recorded
+		 * values do not exceed, 0 if nothing was recorded.
+		 */
+		public long getValueAtPercentile(double percentile) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(bucketValue(i), maxMicros) * 1000;
+				}
+			}
+			return maxMicros * 1000;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "n=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+					count, getMeanNanos() / 1e6, getValueAtPercentile(50) / 1e6,
+					getValueAtPercentile(90) / 1e6, getValueAtPercentile(99) / 1e6, getMaxNanos() / 1e6);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.ejin.sample.camera;
+
+/**
+ * How many frame buffers and decode workers fit into a byte budget, and whether the
+ * {@link RoiPyramid} still does. What the decoder keeps per frame size:
+ * <ul>
+ * <li>every frame buffer holds one NV21 preview frame;</li>
+ * <li>every worker holds the upright crop, its black matrix (one bit per pixel) and its block
+ * thresholds (one int per 8x8 block), about 1.2 bytes per crop pixel;</li>
+ * <li>with the pyramid, every worker also holds the downsampled frame and a tile, a quarter of the
+ * frame each, with their binarizer buffers;</li>
+ * <li>in multi-code mode, every worker also holds a multi-code tile, 4/9 of the crop. Pyramid and
+ * multi-code tiles share one set of buffers, so only the larger counts.</li>
+ * </ul>
+ * Bar code passes binarize row by row straight from the frame and never fill these buffers, so
+ * the bar code mode is counted as if it did, and the bar code pass of the dual mode, next to the
+ * square framing rect it counts, is left out. So are the single rows those passes hold and the
+ * state of the readers, a few KiB per worker whatever the frame size.
+ * When the wanted setup does not fit, the pyramid goes first, then workers one by one, then
+ * frame buffers down to {@value #MIN_FRAME_BUFFERS}. Below that the decoder cannot run, so the
+ * minimal setup is used even if it is over budget.
+ */
+final class MemoryBudget {
+
+	/**
+	 * One buffer being filled by the camera, one being decoded
+	 */
+	static final int MIN_FRAME_BUFFERS = 2;
+
+	final int frameBuffers;
+	final int workers;
+	final boolean roiPyramid;
+	final long bytes;
+
+	private MemoryBudget(int frameBuffers, int workers, boolean roiPyramid, long bytes) {
+		this.frameBuffers = frameBuffers;
+		this.workers = workers;
+		this.roiPyramid = roiPyramid;
+		this.bytes = bytes;
+	}
+
+	/**
+	 * @param budget       bytes the decoder may hold.
+	 * @param frameBytes   size of one preview frame buffer.
+	 * @param geometry     the frame and framing rect decoded, the square one in dual mode.
+	 * @param frameBuffers frame buffers wanted.
+	 * @param workers      decode workers wanted.
+	 * @param roiPyramid   whether the pyramid search is wanted.
+	 * @param multiCode    whether every code of a frame is decoded.
+	 */
+	static MemoryBudget fit(long budget, int frameBytes, FrameGeometry geometry, int frameBuffers,
+							int workers, boolean roiPyramid, boolean multiCode) {
+		long crop = (long) geometry.cropWidth * geometry.cropHeight;
+		long luma = (long) geometry.sensorWidth * geometry.sensorHeight;
+		long workerBytes = intermediateBytes(crop);
+		long tileBytes = multiCode ? intermediateBytes(crop * 4 / 9) : 0;
+		long pyramidBytes = intermediateBytes(luma / 4)
+				+ Math.max(intermediateBytes(luma / 4), tileBytes);
+
+		frameBuffers = Math.max(frameBuffers, MIN_FRAME_BUFFERS);
+		workers = Math.max(workers, 1);
+		while (true) {
+			long bytes = (long) frameBuffers * frameBytes
+					+ workers * (workerBytes + (roiPyramid ? pyramidBytes : tileBytes));
+			if (bytes <= budget) {
+				return new MemoryBudget(frameBuffers, workers, roiPyramid, bytes);
+			}
+			if (roiPyramid) {
+				roiPyramid = false;
+			} else if (workers > 1) {
+				workers--;
+				// Buffers beyond two per worker only wait for a worker anyway
+				frameBuffers = Math.max(MIN_FRAME_BUFFERS, Math.min(frameBuffers, workers + 2));
+			} else if (frameBuffers > MIN_FRAME_BUFFERS) {
+				frameBuffers--;
+			} else {
+				return new MemoryBudget(frameBuffers, workers, false, bytes);
+			}
+		}
+	}
+
+	/**
+	 * Luminance, black matrix and block thresholds of a region of {@code pixels} pixels.
+	 */
+	private static long intermediateBytes(long pixels) {
+		return pixels + pixels / 8 + pixels / 16;
+	}
+
+	@Override
+	public String toString() {
+		return frameBuffers + " frame buffers, " + workers + " workers, pyramid "
+				+ (roiPyramid ? "on" : "off") + ", " + bytes / 1024 + " KiB";
+	}
+}
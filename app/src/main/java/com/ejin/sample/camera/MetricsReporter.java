@@ -0,0 +1,12 @@
+package com.ejin.sample.camera;
+
+/**
+ * Receives the scan metrics periodically, to forward them to a backend of the app's choice. See
+ * {@link ScanMetrics#setReporter(MetricsReporter, long)}. Called on the metrics thread, not the
+ * main thread.
+ */
+public interface MetricsReporter {
+
+	void report(ScanMetrics.Snapshot snapshot);
+
+}
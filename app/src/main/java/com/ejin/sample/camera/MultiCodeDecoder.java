@@ -0,0 +1,171 @@
+package com.ejin.sample.camera;
+
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Finds every code in the framing rect of a frame in one pass, such as the several bar codes of a
+ * pallet label.
+ * <p>
+ * A small framing rect is decoded whole on the calling thread. A large one is split into
+ * {@value #TILE_GRID} x {@value #TILE_GRID} tiles overlapping by a third of the rect, so a code
+ * up to that size lies wholly inside some tile; the calling thread decodes one tile and the
+ * others run on the tile executor in the meantime. The same code found in several tiles is
+ * reported once.
+ */
+final class MultiCodeDecoder {
+
+	static final int TILE_GRID = 2;
+
+	/**
+	 * Framing rects with more pixels than this are decoded as parallel tiles
+	 */
+	static final int PARALLEL_MIN_PIXELS = 640 * 480;
+
+	private static final Result[] NO_RESULTS = new Result[0];
+
+	private final ThreadLocal<DecodeWorker> workers;
+	private final ExecutorService tileExecutor;
+	private volatile Tiles tiles;
+
+	/**
+	 * @param workers      the decode state of each thread, shared with the single-code decoding.
+	 * @param tileExecutor runs all tiles but the first; must not be the executor the frames are
+	 *                     decoded on, or the tiles could wait for the threads waiting on them.
+	 *                     Stop it with {@code shutdown()}, so tiles already queued still finish.
+	 */
+	MultiCodeDecoder(ThreadLocal<DecodeWorker> workers, ExecutorService tileExecutor) {
+		this.workers = workers;
+		this.tileExecutor = tileExecutor;
+	}
+
+	/**
+	 * The tiles of one framing rect.
+	 */
+	private static final class Tiles {
+
+		final FrameGeometry source;
+		final FrameGeometry[] tiles;
+
+		Tiles(FrameGeometry source) {
+			this.source = source;
+			int tileWidth = source.cropWidth * 2 / 3;
+			int tileHeight = source.cropHeight * 2 / 3;
+			tiles = new FrameGeometry[TILE_GRID * TILE_GRID];
+			for (int j = 0; j < TILE_GRID; j++) {
+				for (int i = 0; i < TILE_GRID; i++) {
+					// The crop is already flipped for a mirrored preview, the tiles must not be again
+					tiles[j * TILE_GRID + i] = new FrameGeometry(source.sensorWidth, source.sensorHeight,
+							source.rotation, false,
+							source.cropLeft + (source.cropWidth - tileWidth) * i / (TILE_GRID - 1),
+							source.cropTop + (source.cropHeight - tileHeight) * j / (TILE_GRID - 1),
+							tileWidth, tileHeight);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return every code found, with points relative to the framing rect, or an empty array.
+	 */
+	Result[] decode(final byte[] frame, FrameGeometry geometry, final int mode) {
+		if (geometry.cropWidth * geometry.cropHeight <= PARALLEL_MIN_PIXELS) {
+			return workers.get().decodeMultiple(frame, geometry, mode);
+		}
+		Tiles tiles = this.tiles;
+		if (tiles == null || tiles.source != geometry) {
+			tiles = new Tiles(geometry);
+			this.tiles = tiles;
+		}
+
+		List<Future<Result[]>> futures = new ArrayList<>(tiles.tiles.length - 1);
+		try {
+			for (int i = 1; i < tiles.tiles.length; i++) {
+				final FrameGeometry tile = tiles.tiles[i];
+				futures.add(tileExecutor.submit(new Callable<Result[]>() {
+					@Override
+					public Result[] call() {
+						return workers.get().decodeMultipleTile(frame, tile, mode);
+					}
+				}));
+			}
+		} catch (RejectedExecutionException e) {
+			// Shutting down
+			awaitTiles(futures);
+			return NO_RESULTS;
+		}
+
+		List<Result> results = new ArrayList<>();
+		Set<String> seen = new HashSet<>();
+		add(workers.get().decodeMultipleTile(frame, tiles.tiles[0], mode), tiles.tiles[0], geometry,
+				results, seen);
+		try {
+			for (int i = 0; i < futures.size(); i++) {
+				add(futures.get(i).get(), tiles.tiles[i + 1], geometry, results, seen);
+			}
+		} catch (InterruptedException e) {
+			awaitTiles(futures);
+			Thread.currentThread().interrupt();
+			return NO_RESULTS;
+		} catch (ExecutionException e) {
+			awaitTiles(futures);
+			throw new IllegalStateException(e.getCause());
+		}
+		return results.toArray(new Result[results.size()]);
+	}
+
+	/**
+	 * The frame buffer goes back to the camera once we return, so no tile may still be reading it.
+	 */
+	private static void awaitTiles(List<Future<Result[]>> futures) {
+		boolean interrupted = false;
+		for (Future<Result[]> future : futures) {
+			while (true) {
+				try {
+					future.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException ignored) {
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Adds the results of a tile not seen in an earlier tile, with their points moved from the
+	 * tile into the framing rect.
+	 */
+	private static void add(Result[] tileResults, FrameGeometry tile, FrameGeometry geometry,
+							List<Result> results, Set<String> seen) {
+		for (Result result : tileResults) {
+			if (!seen.add(result.getBarcodeFormat() + ":" + result.getText())) {
+				continue;
+			}
+			ResultPoint[] points = result.getResultPoints();
+			if (points != null) {
+				for (int i = 0; i < points.length; i++) {
+					if (points[i] != null) {
+						points[i] = new ResultPoint(tile.cropLeft - geometry.cropLeft + points[i].getX(),
+								tile.cropTop - geometry.cropTop + points[i].getY());
+					}
+				}
+			}
+			results.add(result);
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package com.ejin.sample.camera;
+
+import com.google.zxing.Result;
+
+/**
+ * Receives every code found in one frame, see
+ * {@link DecodeHelper#setMultiReadListener(MultiDecodeListener)}. The result points are in view
+ * coordinates, so the codes can be marked over the preview. Called on a decode thread.
+ */
+public interface MultiDecodeListener {
+
+	void onRead(Result[] results);
+
+}
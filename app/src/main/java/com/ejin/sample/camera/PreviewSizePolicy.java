@@ -0,0 +1,29 @@
+package com.ejin.sample.camera;
+
+import android.graphics.Point;
+
+import java.util.List;
+
+/**
+ * Chooses the camera preview size, see {@link CameraManager#setPreviewSizePolicy(PreviewSizePolicy)}.
+ * Without one, a size matching the view exactly is used, or else the largest one with the view's
+ * aspect ratio. The choice is cached per device, view size and {@link #cacheKey()}.
+ */
+public interface PreviewSizePolicy {
+
+	/**
+	 * @param supportedSizes   preview sizes the camera offers, in sensor orientation, so usually
+	 *                         wider than high.
+	 * @param screenResolution size of the view showing the preview, in its current orientation.
+	 * @return one of {@code supportedSizes}, or {@code null} to leave the choice to the default.
+	 */
+	Point select(List<Point> supportedSizes, Point screenResolution);
+
+	/**
+	 * @return a string that is the same for every instance, and every run of the app, choosing the
+	 * same sizes, such as the class name and settings; or {@code null} to have the choice made
+	 * afresh on every open instead of cached.
+	 */
+	String cacheKey();
+
+}
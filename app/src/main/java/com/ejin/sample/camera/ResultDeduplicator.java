@@ -0,0 +1,70 @@
+package com.ejin.sample.camera;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers recently read codes, so continuous scanning reports each code once while it stays in
+ * view. A code is a repeat if the same content in the same format was last seen less than the
+ * window ago; every sighting restarts its window, so a parcel held under the camera is never
+ * reported twice, while one scanned again later is.
+ * <p>
+ * At most {@code maxEntries} codes are kept. Entries leave once their window has passed, or
+ * least recently seen first when the cache is full.
+ */
+final class ResultDeduplicator {
+
+	static final long DEFAULT_WINDOW_MS = 3000;
+	static final int DEFAULT_MAX_ENTRIES = 256;
+
+	private final long windowNanos;
+	private final int maxEntries;
+	// In order of last sighting, oldest first
+	private final LinkedHashMap<String, Long> lastSeen;
+
+	ResultDeduplicator(long windowMillis, final int maxEntries) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("Max entries must be greater than 0.");
+		}
+		this.windowNanos = windowMillis * 1000000L;
+		this.maxEntries = maxEntries;
+		lastSeen = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+				return size() > ResultDeduplicator.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * @param key identifies the code, such as its format and text.
+	 * @param now {@link System#nanoTime()} of the sighting.
+	 * @return {@code true} if the code was not seen within the window, and should be reported.
+	 */
+	synchronized boolean offer(String key, long now) {
+		evictExpired(now);
+		// Access order: put() moves the code to the end as the latest sighting
+		Long previous = lastSeen.put(key, now);
+		return previous == null;
+	}
+
+	synchronized void clear() {
+		lastSeen.clear();
+	}
+
+	synchronized int size() {
+		return lastSeen.size();
+	}
+
+	private void evictExpired(long now) {
+		Iterator<Long> iterator = lastSeen.values().iterator();
+		while (iterator.hasNext()) {
+			if (now - iterator.next() < windowNanos) {
+				// The rest were seen even later
+				break;
+			}
+			iterator.remove();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package com.ejin.sample.camera;
+
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+/**
+ * Multi-scale search for codes the framing rect misses, such as small or off-centre ones. A frame
+ * goes through up to three steps, stopping at the first hit:
+ * <ol>
+ * <li>the framing rect, exactly as without the pyramid;</li>
+ * <li>the whole frame downsampled 2x, for codes larger than or outside the framing rect;</li>
+ * <li>a {@value #TILE_GRID} x {@value #TILE_GRID} grid of half-frame tiles overlapping by half,
+ * at full resolution, for codes too small to survive the downsampling.</li>
+ * </ol>
+ * Each step has a time budget. A step only starts while the frame is still within the budgets
+ * of the steps up to and including it, and the tiles are checked against it between tiles, so
+ * one hard frame cannot hold a worker much longer than the sum of the budgets. The framing rect
+ * is always tried.
+ * <p>
+ * Results found by the later steps have their points translated into the framing rect's
+ * coordinates, the same as a hit on the first step, so they may lie outside of it.
+ */
+final class RoiPyramid {
+
+	static final int TILE_GRID = 3;
+
+	static final int DEFAULT_FRAMING_RECT_BUDGET_MS = 30;
+	static final int DEFAULT_DOWNSAMPLED_BUDGET_MS = 30;
+	static final int DEFAULT_TILES_BUDGET_MS = 60;
+
+	private final long downsampledDeadline;
+	private final long tilesDeadline;
+	private volatile Levels levels;
+
+	/**
+	 * @param framingRectMillis budget of the framing rect step.
+	 * @param downsampledMillis budget of the downsampled frame step, 0 skips it.
+	 * @param tilesMillis       budget of the tiles step, 0 skips it.
+	 */
+	RoiPyramid(long framingRectMillis, long downsampledMillis, long tilesMillis) {
+		long framingRectDeadline = framingRectMillis * 1000000L;
+		downsampledDeadline = downsampledMillis > 0
+				? framingRectDeadline + downsampledMillis * 1000000L : 0;
+		tilesDeadline = tilesMillis > 0
+				? framingRectDeadline + Math.max(downsampledMillis, 0) * 1000000L + tilesMillis * 1000000L
+				: 0;
+	}
+
+	/**
+	 * The geometries of the later steps, derived once per framing rect.
+	 */
+	private static final class Levels {
+
+		final FrameGeometry source;
+		final FrameGeometry frame;
+		final FrameGeometry[] tiles;
+
+		Levels(FrameGeometry source) {
+			this.source = source;
+			int frameWidth = source.getFrameWidth();
+			int frameHeight = source.getFrameHeight();
+			// The pixels of the later steps are never mirrored, see FrameGeometry
+			frame = new FrameGeometry(source.sensorWidth, source.sensorHeight, source.rotation, false,
+					0, 0, frameWidth, frameHeight);
+			int tileWidth = frameWidth / 2;
+			int tileHeight = frameHeight / 2;
+			tiles = new FrameGeometry[TILE_GRID * TILE_GRID];
+			for (int j = 0; j < TILE_GRID; j++) {
+				for (int i = 0; i < TILE_GRID; i++) {
+					int left = (frameWidth - tileWidth) * i / (TILE_GRID - 1);
+					int top = (frameHeight - tileHeight) * j / (TILE_GRID - 1);
+					tiles[j * TILE_GRID + i] = new FrameGeometry(source.sensorWidth, source.sensorHeight,
+							source.rotation, false, left, top, tileWidth, tileHeight);
+				}
+			}
+			// Centre tile first, it is the likeliest place for a code
+			FrameGeometry centre = tiles[tiles.length / 2];
+			tiles[tiles.length / 2] = tiles[0];
+			tiles[0] = centre;
+		}
+	}
+
+	/**
+	 * @param start {@link System#nanoTime()} when work on the frame began, the budgets count
+	 *              from there.
+	 * @return the first result found, or {@code null} if nothing was found in time.
+	 */
+	Result decode(DecodeWorker worker, byte[] frame, FrameGeometry geometry, int mode, long start) {
+		Result result = worker.decodeFrame(frame, geometry, mode);
+		if (result != null) {
+			return result;
+		}
+		Levels levels = this.levels;
+		if (levels == null || levels.source != geometry) {
+			levels = new Levels(geometry);
+			this.levels = levels;
+		}
+
+		if (downsampledDeadline > 0 && System.nanoTime() - start < downsampledDeadline) {
+			result = worker.decodeDownsampled(frame, levels.frame, mode);
+			if (result != null) {
+				return translate(result, 2, 0, 0, geometry);
+			}
+		}
+
+		if (tilesDeadline > 0) {
+			for (FrameGeometry tile : levels.tiles) {
+				if (System.nanoTime() - start >= tilesDeadline) {
+					break;
+				}
+				result = worker.decodeTile(frame, tile, mode);
+				if (result != null) {
+					return translate(result, 1, tile.cropLeft, tile.cropTop, geometry);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Maps the points of a result found in a region at {@code (left, top)} of the upright frame,
+	 * scaled down by {@code scale}, into the framing rect of {@code geometry}.
+	 */
+	static Result translate(Result result, int scale, int left, int top, FrameGeometry geometry) {
+		ResultPoint[] points = result.getResultPoints();
+		if (points == null) {
+			return result;
+		}
+		for (int i = 0; i < points.length; i++) {
+			if (points[i] != null) {
+				points[i] = new ResultPoint(left + points[i].getX() * scale - geometry.cropLeft,
+						top + points[i].getY() * scale - geometry.cropTop);
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,103 @@
+package com.ejin.sample.camera;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * A {@link LuminanceSource} over the luminance plane of a raw preview frame that applies the
+ * rotation and crop of a {@link FrameGeometry} on the fly. Rows are read straight from the camera
+ * buffer, so no rotated copy of the frame is ever built; only {@link #getMatrix()} materializes
+ * the crop.
+ */
+final class RotatedLuminanceSource extends LuminanceSource {
+
+	private final byte[] data;
+	private final FrameGeometry geometry;
+	private final FrameRotator rotator;
+	private byte[] matrix;
+
+	/**
+	 * @param data     a preview frame, NV21 or any format starting with a full luminance plane.
+	 * @param geometry rotation and crop to apply.
+	 * @param rotator  supplies the buffer {@link #getMatrix()} fills, or {@code null} to allocate
+	 *                 one per call.
+	 */
+	RotatedLuminanceSource(byte[] data, FrameGeometry geometry, FrameRotator rotator) {
+		super(geometry.cropWidth, geometry.cropHeight);
+		if (geometry.sensorWidth * geometry.sensorHeight > data.length) {
+			throw new IllegalArgumentException("Frame is smaller than its geometry.");
+		}
+		this.data = data;
+		this.geometry = geometry;
+		this.rotator = rotator;
+	}
+
+	@Override
+	public byte[] getRow(int y, byte[] row) {
+		if (y < 0 || y >= getHeight()) {
+			throw new IllegalArgumentException("Requested row is outside the image: " + y);
+		}
+		int width = getWidth();
+		if (row == null || row.length < width) {
+			row = new byte[width];
+		}
+		FrameGeometry g = geometry;
+		int sensorWidth = g.sensorWidth;
+		int sensorHeight = g.sensorHeight;
+		int in;
+		int step;
+		switch (g.rotation) {
+			case 0:
+				System.arraycopy(data, (g.cropTop + y) * sensorWidth + g.cropLeft, row, 0, width);
+				return row;
+			case 90:
+				in = (sensorHeight - 1 - g.cropLeft) * sensorWidth + g.cropTop + y;
+				step = -sensorWidth;
+				break;
+			case 180:
+				in = (sensorHeight - 1 - g.cropTop - y) * sensorWidth + sensorWidth - 1 - g.cropLeft;
+				step = -1;
+				break;
+			default:
+				in = g.cropLeft * sensorWidth + sensorWidth - 1 - g.cropTop - y;
+				step = sensorWidth;
+				break;
+		}
+		for (int x = 0; x < width; x++, in += step) {
+			row[x] = data[in];
+		}
+		return row;
+	}
+
+	/**
+	 * The crop is built once per source and returned again on later calls.
+	 */
+	@Override
+	public byte[] getMatrix() {
+		if (matrix == null) {
+			if (rotator != null) {
+				matrix = rotator.rotateCrop(data, geometry);
+			} else {
+				matrix = new byte[getWidth() * getHeight()];
+				FrameRotator.rotateCrop(data, geometry, matrix);
+			}
+		}
+		return matrix;
+	}
+
+	@Override
+	public boolean isCropSupported() {
+		return true;
+	}
+
+	@Override
+	public LuminanceSource crop(int left, int top, int width, int height) {
+		FrameGeometry g = geometry;
+		// Undo the mirror flip the constructor applies, the crop is already in upright coordinates
+		int frameLeft = g.cropLeft + left;
+		if (g.mirror) {
+			frameLeft = g.getFrameWidth() - (frameLeft + width);
+		}
+		return new RotatedLuminanceSource(data, new FrameGeometry(g.sensorWidth, g.sensorHeight,
+				g.rotation, g.mirror, frameLeft, g.cropTop + top, width, height), null);
+	}
+}
@@ -0,0 +1,249 @@
+package com.ejin.sample.camera;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms of the scan loop. {@link CameraManager} owns one, and it,
+ * {@link DecodeHelper} and {@link AutoFocusManager} report into it. Read it with
+ * {@link #snapshot()}, or have it pushed to a {@link MetricsReporter} periodically.
+ * <p>
+ * Recording never locks or allocates, so it can stay on in production.
+ */
+public final class ScanMetrics {
+
+	private final AtomicLong framesReceived = new AtomicLong();
+	private final AtomicLong framesDropped = new AtomicLong();
+	private final AtomicLong framesSkipped = new AtomicLong();
+	private final AtomicLong decodesAttempted = new AtomicLong();
+	private final AtomicLong decodesSucceeded = new AtomicLong();
+	private final AtomicLong autoFocusCycles = new AtomicLong();
+	private final AtomicLong previewStarts = new AtomicLong();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final LatencyHistogram frameToResult = new LatencyHistogram();
+	private final LatencyHistogram decodeTime = new LatencyHistogram();
+
+	private ScheduledExecutorService reportExecutor;
+
+	void onFrameReceived() {
+		framesReceived.incrementAndGet();
+	}
+
+	/**
+	 * A frame was replaced by a newer one before any worker was free for it.
+	 */
+	void onFrameDropped() {
+		framesDropped.incrementAndGet();
+	}
+
+	/**
+	 * A frame was turned away by the {@link FrameQualityGate} or the frame interval.
+	 */
+	void onFrameSkipped() {
+		framesSkipped.incrementAndGet();
+	}
+
+	void onDecodeStarted() {
+		inFlight.incrementAndGet();
+	}
+
+	/**
+	 * @param decodeNanos time the decode took.
+	 * @param success     whether a code was found.
+	 */
+	void onDecodeFinished(long decodeNanos, boolean success) {
+		inFlight.decrementAndGet();
+		decodesAttempted.incrementAndGet();
+		if (success) {
+			decodesSucceeded.incrementAndGet();
+		}
+		decodeTime.record(decodeNanos);
+	}
+
+	/**
+	 * @param frameAgeNanos time from the camera delivering the frame to its result being reported.
+	 */
+	void onResult(long frameAgeNanos) {
+		frameToResult.record(frameAgeNanos);
+	}
+
+	void onAutoFocusCycle() {
+		autoFocusCycles.incrementAndGet();
+	}
+
+	void onPreviewStarted() {
+		previewStarts.incrementAndGet();
+	}
+
+	/**
+	 * Sets every counter and histogram back to 0, except the in-flight count.
+	 */
+	public void reset() {
+		framesReceived.set(0);
+		framesDropped.set(0);
+		framesSkipped.set(0);
+		decodesAttempted.set(0);
+		decodesSucceeded.set(0);
+		autoFocusCycles.set(0);
+		previewStarts.set(0);
+		frameToResult.reset();
+		decodeTime.reset();
+	}
+
+	public Snapshot snapshot() {
+		return new Snapshot(framesReceived.get(), framesDropped.get(), framesSkipped.get(),
+				decodesAttempted.get(), decodesSucceeded.get(), autoFocusCycles.get(), previewStarts.get(),
+				inFlight.get(),
+				frameToResult.snapshot(), decodeTime.snapshot());
+	}
+
+	/**
+	 * Passes a snapshot to {@code reporter} every {@code intervalMillis} on a background thread.
+	 * Replaces the previous reporter; {@code null} stops reporting.
+	 */
+	public synchronized void setReporter(final MetricsReporter reporter, long intervalMillis) {
+		if (reportExecutor != null) {
+			reportExecutor.shutdownNow();
+			reportExecutor = null;
+		}
+		if (reporter == null) {
+			return;
+		}
+		if (intervalMillis <= 0) {
+			throw new IllegalArgumentException("Report interval must be greater than 0.");
+		}
+		reportExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ScanMetrics");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		reportExecutor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				reporter.report(snapshot());
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops reporting and ends the metrics thread, at the end of a scan session. The counters can
+	 * still be read, and {@link #setReporter(MetricsReporter, long)} starts reporting again.
+	 */
+	public synchronized void close() {
+		if (reportExecutor != null) {
+			reportExecutor.shutdown();
+			reportExecutor = null;
+		}
+	}
+
+	/**
+	 * The metrics at one point in time.
+	 */
+	public static final class Snapshot {
+
+		private final long framesReceived;
+		private final long framesDropped;
+		private final long framesSkipped;
+		private final long decodesAttempted;
+		private final long decodesSucceeded;
+		private final long autoFocusCycles;
+		private final long previewStarts;
+		private final int inFlight;
+		private final LatencyHistogram.Snapshot frameToResult;
+		private final LatencyHistogram.Snapshot decodeTime;
+
+		Snapshot(long framesReceived, long framesDropped, long framesSkipped, long decodesAttempted,
+				 long decodesSucceeded, long autoFocusCycles, long previewStarts, int inFlight,
+				 LatencyHistogram.Snapshot frameToResult, LatencyHistogram.Snapshot decodeTime) {
+			this.framesReceived = framesReceived;
+			this.framesDropped = framesDropped;
+			this.framesSkipped = framesSkipped;
+			this.decodesAttempted = decodesAttempted;
+			this.decodesSucceeded = decodesSucceeded;
+			this.autoFocusCycles = autoFocusCycles;
+			this.previewStarts = previewStarts;
+			this.inFlight = inFlight;
+			this.frameToResult = frameToResult;
+			this.decodeTime = decodeTime;
+		}
+
+		/**
+		 * @return preview frames handed to the decoder.
+		 */
+		public long getFramesReceived() {
+			return framesReceived;
+		}
+
+		/**
+		 * @return frames replaced by a newer one while every worker was busy.
+		 */
+		public long getFramesDropped() {
+			return framesDropped;
+		}
+
+		/**
+		 * @return frames skipped as blurry or moving by the {@link FrameQualityGate}, or as
+		 * arriving sooner than the frame interval allows.
+		 */
+		public long getFramesSkipped() {
+			return framesSkipped;
+		}
+
+		public long getDecodesAttempted() {
+			return decodesAttempted;
+		}
+
+		public long getDecodesSucceeded() {
+			return decodesSucceeded;
+		}
+
+		public long getAutoFocusCycles() {
+			return autoFocusCycles;
+		}
+
+		/**
+		 * @return how often the camera preview was started, once per scan unless scanning
+		 * continuously.
+		 */
+		public long getPreviewStarts() {
+			return previewStarts;
+		}
+
+		/**
+		 * @return frames being decoded at the time of the snapshot.
+		 */
+		public int getInFlight() {
+			return inFlight;
+		}
+
+		/**
+		 * @return time from the camera delivering a frame to its result being reported.
+		 */
+		public LatencyHistogram.Snapshot getFrameToResult() {
+			return frameToResult;
+		}
+
+		/**
+		 * @return time of every decode, successful or not.
+		 */
+		public LatencyHistogram.Snapshot getDecodeTime() {
+			return decodeTime;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "frames %d received, %d dropped, %d skipped; decodes %d/%d; "
+							+ "autofocus %d; previews %d; in flight %d; frame to result [%s]; decode [%s]",
+					framesReceived, framesDropped, framesSkipped, decodesSucceeded, decodesAttempted,
+					autoFocusCycles, previewStarts, inFlight, frameToResult, decodeTime);
+		}
+	}
+}
@@ -6,18 +6,21 @@ import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.support.annotation.AttrRes;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.AttributeSet;
 import android.view.View;
+import android.view.animation.LinearInterpolator;
 import android.widget.FrameLayout;
 
 import com.ejin.sample.R;
+import com.ejin.sample.camera.CameraReadyListener;
+import com.ejin.sample.camera.ContinuousDecodeListener;
 import com.ejin.sample.camera.DecodeListener;
+import com.ejin.sample.camera.DecodeResultListener;
+import com.ejin.sample.camera.MultiDecodeListener;
 
 
 /**
@@ -27,6 +30,9 @@ import com.ejin.sample.camera.DecodeListener;
 public class BarcodeScannerView extends FrameLayout {
 
 	QRCodeReaderView qrCodeView;
+	private MaskView maskView;
+	private HardwareScannerOverlay hardwareOverlay;
+	private CameraReadyListener cameraReadyListener;
 	private int maskColor = Color.parseColor("#60000000");
 	private int cornerColor;
 	private int scannerLineColor;
@@ -49,7 +55,7 @@ public class BarcodeScannerView extends FrameLayout {
 	private final int CORNER_LENGTH = 50;
 
 	/**
-	 * 扫描线移动的速度
+	 * 扫描线移动的速度，每 ANIMATION_DELAY 毫秒移动的最大距离
 	 */
 	private int MAX_SPEED_DISTANCE = 10;
 
@@ -63,15 +69,11 @@ public class BarcodeScannerView extends FrameLayout {
 	 */
 	private static final int MIDDLE_LINE_PADDING = 15;
 
-	/**
-	 * 扫描线距离top的高度
-	 */
-	private int slideTop;
-
 	private boolean isShowScannerLine = true;
+	private boolean isScanning;
 
 	/**
-	 * 刷新界面的时间
+	 * 扫描线的速度以此为时间单位
 	 */
 	private static final long ANIMATION_DELAY = 20L;
 
@@ -124,8 +126,30 @@ public class BarcodeScannerView extends FrameLayout {
 		qrCodeView.setBackCamera();
 		addView(qrCodeView);
 
-		MaskView maskView = new MaskView(getContext());
+		maskView = new MaskView(getContext());
 		addView(maskView, new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
+
+		qrCodeView.setOnCameraReadyListener(new CameraReadyListener() {
+			@Override
+			public void onCameraReady() {
+				// The framing rect is known from now on
+				maskView.invalidate();
+				if (hardwareOverlay != null && getDrawRect() != null) {
+					hardwareOverlay.setFrame(getDrawRect(), 0);
+				}
+				updateScannerLine();
+				if (cameraReadyListener != null) {
+					cameraReadyListener.onCameraReady();
+				}
+			}
+
+			@Override
+			public void onCameraError(Exception e) {
+				if (cameraReadyListener != null) {
+					cameraReadyListener.onCameraError(e);
+				}
+			}
+		});
 	}
 
 	public void justEnableQrcode() {
@@ -140,13 +164,40 @@ public class BarcodeScannerView extends FrameLayout {
 		qrCodeView.setOnCodeReadListener(listener);
 	}
 
+	public void setOnDecodeResultListener(DecodeResultListener listener) {
+		qrCodeView.setOnDecodeResultListener(listener);
+	}
+
+	public void setOnContinuousReadListener(ContinuousDecodeListener listener) {
+		qrCodeView.setOnContinuousReadListener(listener);
+	}
+
+	public void setOnMultiReadListener(MultiDecodeListener listener) {
+		qrCodeView.setOnMultiReadListener(listener);
+	}
+
+	public void setOnCameraReadyListener(CameraReadyListener listener) {
+		cameraReadyListener = listener;
+	}
+
 	public void startCamera() {
 		qrCodeView.startCamera();
+		isScanning = true;
+		updateScannerLine();
 	}
 
 	public void stopCamera() {
 		qrCodeView.stopCamera();
 		qrCodeView.removeCallbacks(toggleRunnable);
+		isScanning = false;
+		updateScannerLine();
+	}
+
+	public void close() {
+		qrCodeView.removeCallbacks(toggleRunnable);
+		qrCodeView.close();
+		isScanning = false;
+		updateScannerLine();
 	}
 
 	public void setTorchEnabled(boolean enable) {
@@ -160,6 +211,12 @@ public class BarcodeScannerView extends FrameLayout {
 
 	public void setScannerSpeed(float speed) {
 		scannerSpeed = speed;
+		if (hardwareOverlay != null) {
+			hardwareOverlay.stopScannerLine();
+			updateScannerLine();
+		} else {
+			maskView.restartScannerLine();
+		}
 	}
 
 	public void setQrCodeScanner() {
@@ -170,13 +227,61 @@ public class BarcodeScannerView extends FrameLayout {
 		qrCodeView.setBarCodeScanner();
 	}
 
+	/**
+	 * Switches between the QR and the bar code framing rect every few seconds. Both kinds of
+	 * code are looked for on every frame meanwhile, so the switching is only for show.
+	 */
 	public void autoSwitchScaner() {
+		qrCodeView.setDualScanner(true);
 		showScannerLine(false);
 		qrCodeView.postDelayed(toggleRunnable, 1000);
 	}
 
 	public void showScannerLine(boolean show) {
 		isShowScannerLine = show;
+		updateScannerLine();
+		maskView.invalidate();
+	}
+
+	/**
+	 * Draws the overlay with views that are only moved and scaled, so the scan line and the QR /
+	 * bar code morph need no redraws on the UI thread. Off by default.
+	 */
+	public void setHardwareOverlayEnabled(boolean enabled) {
+		if (enabled == (hardwareOverlay != null)) {
+			return;
+		}
+		if (enabled) {
+			hardwareOverlay = new HardwareScannerOverlay(getContext(), maskColor, cornerColor,
+					scannerLineColor, CORNER_WIDTH, CORNER_LENGTH, MIDDLE_LINE_WIDTH, MIDDLE_LINE_PADDING);
+			addView(hardwareOverlay, new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
+			Rect frame = getDrawRect();
+			if (frame != null) {
+				hardwareOverlay.setFrame(frame, 0);
+			}
+			maskView.setVisibility(GONE);
+		} else {
+			removeView(hardwareOverlay);
+			hardwareOverlay = null;
+			maskView.setVisibility(VISIBLE);
+		}
+		updateScannerLine();
+	}
+
+	/**
+	 * Runs the scan line of whichever overlay is in use while scanning with the line shown.
+	 */
+	private void updateScannerLine() {
+		if (hardwareOverlay == null) {
+			maskView.updateScannerLine();
+			return;
+		}
+		boolean run = isScanning && isShowScannerLine && getDrawRect() != null;
+		if (!run) {
+			hardwareOverlay.stopScannerLine();
+		} else if (!hardwareOverlay.isScannerLineRunning()) {
+			hardwareOverlay.startScannerLine(MAX_SPEED_DISTANCE * scannerSpeed / ANIMATION_DELAY);
+		}
 	}
 
 	private void toggle() {
@@ -192,6 +297,13 @@ public class BarcodeScannerView extends FrameLayout {
 				break;
 		}
 		finalRect = qrCodeView.mCameraManager.getFramingRect();
+		if (hardwareOverlay != null) {
+			if (finalRect != null && getDrawRect() != null) {
+				currentRect.set(finalRect);
+				hardwareOverlay.setFrame(finalRect, ANIMATION_DURATION);
+			}
+			return;
+		}
 		if (valueAnimator == null) {
 			valueAnimator = ValueAnimator.ofFloat(0, 1);
 			valueAnimator.setDuration(ANIMATION_DURATION);
@@ -200,6 +312,8 @@ public class BarcodeScannerView extends FrameLayout {
 				public void onAnimationUpdate(ValueAnimator animation) {
 					float value = (float) animation.getAnimatedValue();
 					calculateRect(value);
+					// The whole mask changes shape
+					maskView.invalidate();
 				}
 			});
 		}
@@ -219,8 +333,12 @@ public class BarcodeScannerView extends FrameLayout {
 
 	private Rect getDrawRect() {
 		if (currentRect == null) {
-			currentRect = new Rect();
-			currentRect.set(qrCodeView.mCameraManager.getFramingRect());
+			// The camera is opened in the background, there is no framing rect until then
+			Rect framingRect = qrCodeView.mCameraManager.getFramingRect();
+			if (framingRect == null) {
+				return null;
+			}
+			currentRect = new Rect(framingRect);
 		}
 		return currentRect;
 	}
@@ -233,8 +351,129 @@ public class BarcodeScannerView extends FrameLayout {
 
 	public class MaskView extends View {
 
+		private final Paint maskPaint = new Paint();
+		private final Paint cornerPaint = new Paint();
+		private final Paint linePaint = new Paint();
+		// The mask is drawn around the framing rect rather than cleared inside it, no layer needed
+		private final Rect maskShapeFrame = new Rect();
+		private final Rect[] maskShape = {new Rect(), new Rect(), new Rect(), new Rect()};
+		private final ValueAnimator scannerLineAnimator = ValueAnimator.ofFloat(0, 1);
+		/**
+		 * 扫描线距离top的高度
+		 */
+		private int slideTop;
+		// Distance the scan line travels, which its duration was set for
+		private int scannerLineDistance;
+
 		public MaskView(Context context) {
 			super(context);
+			scannerLineAnimator.setInterpolator(new LinearInterpolator());
+			scannerLineAnimator.setRepeatCount(ValueAnimator.INFINITE);
+			scannerLineAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+				@Override
+				public void onAnimationUpdate(ValueAnimator animation) {
+					moveScannerLine((float) animation.getAnimatedValue());
+				}
+			});
+		}
+
+		/**
+		 * Runs the scan line while the camera is scanning, the line is shown and the view is on
+		 * screen, and stops it otherwise, so an idle scanner does not redraw at all.
+		 */
+		void updateScannerLine() {
+			Rect frame = getDrawRect();
+			boolean run = isScanning && isShowScannerLine && frame != null
+					&& getWindowToken() != null && getVisibility() == VISIBLE;
+			if (!run) {
+				if (scannerLineAnimator.isStarted()) {
+					scannerLineAnimator.cancel();
+					invalidate();
+				}
+				return;
+			}
+			if (!scannerLineAnimator.isStarted()) {
+				scannerLineDistance = getScannerLineDistance(frame);
+				scannerLineAnimator.setDuration(getScannerLineDuration(scannerLineDistance));
+				scannerLineAnimator.start();
+			}
+		}
+
+		private int getScannerLineDistance(Rect frame) {
+			return Math.max(1, frame.height() - 2 * CORNER_WIDTH);
+		}
+
+		/**
+		 * Same speed as moving MAX_SPEED_DISTANCE * scannerSpeed every ANIMATION_DELAY.
+		 */
+		private long getScannerLineDuration(int distance) {
+			return (long) (distance * ANIMATION_DELAY / (MAX_SPEED_DISTANCE * scannerSpeed));
+		}
+
+		/**
+		 * Keeps the scan line at its speed when the framing rect grows or shrinks, such as while
+		 * switching the scanner type, by stretching the running animation where the line is.
+		 */
+		private void retimeScannerLine(int distance) {
+			scannerLineDistance = distance;
+			float fraction = scannerLineAnimator.getAnimatedFraction();
+			long duration = getScannerLineDuration(distance);
+			scannerLineAnimator.setDuration(duration);
+			scannerLineAnimator.setCurrentPlayTime((long) (fraction * duration));
+		}
+
+		/**
+		 * Picks up a new speed.
+		 */
+		void restartScannerLine() {
+			scannerLineAnimator.cancel();
+			updateScannerLine();
+		}
+
+		private void moveScannerLine(float fraction) {
+			Rect frame = getDrawRect();
+			if (frame == null) {
+				return;
+			}
+			int distance = getScannerLineDistance(frame);
+			if (distance != scannerLineDistance) {
+				// Calls back here with the fraction for the new duration
+				retimeScannerLine(distance);
+				return;
+			}
+			int previousTop = slideTop;
+			slideTop = frame.top + CORNER_WIDTH
+					+ (int) ((frame.height() - 2 * CORNER_WIDTH) * fraction);
+			// Only the band between the old and the new line changes
+			int halfWidth = MIDDLE_LINE_WIDTH / 2 + 1;
+			invalidate(frame.left + MIDDLE_LINE_PADDING, Math.min(previousTop, slideTop) - halfWidth,
+					frame.right - MIDDLE_LINE_PADDING, Math.max(previousTop, slideTop) + halfWidth);
+		}
+
+		@Override
+		protected void onAttachedToWindow() {
+			super.onAttachedToWindow();
+			updateScannerLine();
+		}
+
+		@Override
+		protected void onDetachedFromWindow() {
+			super.onDetachedFromWindow();
+			scannerLineAnimator.cancel();
+		}
+
+		@Override
+		protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+			super.onSizeChanged(w, h, oldw, oldh);
+			// The mask reaches the view's edges, so it is laid out again on the next draw
+			maskShapeFrame.setEmpty();
+			updateScannerLine();
+		}
+
+		@Override
+		protected void onVisibilityChanged(@NonNull View changedView, int visibility) {
+			super.onVisibilityChanged(changedView, visibility);
+			updateScannerLine();
 		}
 
 		@Override
@@ -243,52 +482,48 @@ public class BarcodeScannerView extends FrameLayout {
 			Rect frame = getDrawRect();
 
 			if (frame == null) {
-				invalidate();
+				// Drawn again once the camera is ready
 				return;
 			}
 
 			//画背景
-			canvas.drawColor(maskColor);
-			Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
-			paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OUT));
-			canvas.drawRect(frame, paint);
-
+			if (!frame.equals(maskShapeFrame)) {
+				maskShapeFrame.set(frame);
+				maskShape[0].set(0, 0, getWidth(), frame.top);
+				maskShape[1].set(0, frame.top, frame.left, frame.bottom);
+				maskShape[2].set(frame.right, frame.top, getWidth(), frame.bottom);
+				maskShape[3].set(0, frame.bottom, getWidth(), getHeight());
+			}
+			maskPaint.setColor(maskColor);
+			for (Rect rect : maskShape) {
+				canvas.drawRect(rect, maskPaint);
+			}
 
 			//画扫描框边上的角，总共8个部分
-			paint.setXfermode(null);
-			paint.setColor(cornerColor);
+			cornerPaint.setColor(cornerColor);
 			canvas.drawRect(frame.left, frame.top, frame.left + CORNER_LENGTH,
-					frame.top + CORNER_WIDTH, paint);
+					frame.top + CORNER_WIDTH, cornerPaint);
 			canvas.drawRect(frame.left, frame.top, frame.left + CORNER_WIDTH, frame.top
-					+ CORNER_LENGTH, paint);
+					+ CORNER_LENGTH, cornerPaint);
 			canvas.drawRect(frame.right - CORNER_LENGTH, frame.top, frame.right,
-					frame.top + CORNER_WIDTH, paint);
+					frame.top + CORNER_WIDTH, cornerPaint);
 			canvas.drawRect(frame.right - CORNER_WIDTH, frame.top, frame.right, frame.top
-					+ CORNER_LENGTH, paint);
+					+ CORNER_LENGTH, cornerPaint);
 			canvas.drawRect(frame.left, frame.bottom - CORNER_WIDTH, frame.left
-					+ CORNER_LENGTH, frame.bottom, paint);
+					+ CORNER_LENGTH, frame.bottom, cornerPaint);
 			canvas.drawRect(frame.left, frame.bottom - CORNER_LENGTH,
-					frame.left + CORNER_WIDTH, frame.bottom, paint);
+					frame.left + CORNER_WIDTH, frame.bottom, cornerPaint);
 			canvas.drawRect(frame.right - CORNER_LENGTH, frame.bottom - CORNER_WIDTH,
-					frame.right, frame.bottom, paint);
+					frame.right, frame.bottom, cornerPaint);
 			canvas.drawRect(frame.right - CORNER_WIDTH, frame.bottom - CORNER_LENGTH,
-					frame.right, frame.bottom, paint);
+					frame.right, frame.bottom, cornerPaint);
 
-			//绘制中间的线,每次刷新界面，中间的线往下移动SPEEN_DISTANCE
-			if (isShowScannerLine) {
-				slideTop += MAX_SPEED_DISTANCE * scannerSpeed;
-				if (slideTop >= frame.bottom - CORNER_WIDTH || slideTop < frame.top + CORNER_WIDTH) {
-					slideTop = frame.top + CORNER_WIDTH;
-				}
-				paint.setColor(scannerLineColor);
-				canvas.drawRect(frame.left + MIDDLE_LINE_PADDING, slideTop - MIDDLE_LINE_WIDTH / 2, frame.right - MIDDLE_LINE_PADDING, slideTop + MIDDLE_LINE_WIDTH / 2, paint);
-
-				//只刷新扫描框的内容，其他地方不刷新
-				postInvalidateDelayed(ANIMATION_DELAY, frame.left, frame.top,
-						frame.right, frame.bottom);
+			//绘制中间的线，位置由 scannerLineAnimator 推进
+			if (scannerLineAnimator.isStarted()) {
+				linePaint.setColor(scannerLineColor);
+				canvas.drawRect(frame.left + MIDDLE_LINE_PADDING, slideTop - MIDDLE_LINE_WIDTH / 2,
+						frame.right - MIDDLE_LINE_PADDING, slideTop + MIDDLE_LINE_WIDTH / 2, linePaint);
 			}
-
-			postInvalidateDelayed(ANIMATION_DELAY);
 		}
 	}
 
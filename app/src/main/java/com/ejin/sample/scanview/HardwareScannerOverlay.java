@@ -0,0 +1,184 @@
+package com.ejin.sample.scanview;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.support.v4.view.ViewCompat;
+import android.view.View;
+import android.view.animation.LinearInterpolator;
+import android.widget.FrameLayout;
+
+/**
+ * The scanner overlay built from plain colored views instead of drawn in {@code onDraw}: four
+ * mask views around the framing rect, eight corner bars and the scan line. They are only ever
+ * moved and scaled, which changes the properties of their render nodes and nothing else, so
+ * neither the scan line nor the QR / bar code morph redraws anything.
+ * <p>
+ * All of it is animated with {@link View#animate()} and no listeners. From API 21 a hardware
+ * accelerated window is expected to hand such animations to its render thread, so a sweep would
+ * keep its pace however busy the UI thread is; that has not been measured on a device yet. The
+ * UI thread only starts each sweep of the scan line.
+ */
+final class HardwareScannerOverlay extends FrameLayout {
+
+	private final int cornerWidth;
+	private final int cornerLength;
+	private final int lineWidth;
+	private final int linePadding;
+	// Top, left, right, bottom, each as large as the overlay and scaled down to its rect
+	private final View[] masks = new View[4];
+	// Two bars per corner: top left, top right, bottom left, bottom right, horizontal bar first
+	private final View[] corners = new View[8];
+	private final View scannerLine;
+	private final Rect frame = new Rect();
+	private final LinearInterpolator linearInterpolator = new LinearInterpolator();
+	private boolean scannerLineRunning;
+	private float pixelsPerMillisecond;
+	private final Runnable sweepScannerLine = new Runnable() {
+		@Override
+		public void run() {
+			sweepScannerLine();
+		}
+	};
+
+	HardwareScannerOverlay(Context context, int maskColor, int cornerColor, int lineColor,
+						   int cornerWidth, int cornerLength, int lineWidth, int linePadding) {
+		super(context);
+		this.cornerWidth = cornerWidth;
+		this.cornerLength = cornerLength;
+		this.lineWidth = lineWidth;
+		this.linePadding = linePadding;
+		for (int i = 0; i < masks.length; i++) {
+			masks[i] = addBar(maskColor, LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
+		}
+		for (int i = 0; i < corners.length; i++) {
+			boolean horizontal = i % 2 == 0;
+			corners[i] = addBar(cornerColor, horizontal ? cornerLength : cornerWidth,
+					horizontal ? cornerWidth : cornerLength);
+		}
+		scannerLine = addBar(lineColor, LayoutParams.MATCH_PARENT, lineWidth);
+		scannerLine.setVisibility(INVISIBLE);
+		setVisibility(INVISIBLE);
+	}
+
+	private View addBar(int color, int width, int height) {
+		View bar = new View(getContext());
+		bar.setBackgroundColor(color);
+		bar.setPivotX(0);
+		bar.setPivotY(0);
+		addView(bar, new LayoutParams(width, height));
+		return bar;
+	}
+
+	/**
+	 * Moves everything to {@code rect}, over {@code duration} ms if greater than 0.
+	 */
+	void setFrame(Rect rect, long duration) {
+		if (getWidth() == 0 || getHeight() == 0) {
+			// Not laid out yet, done again once it is
+			frame.set(rect);
+			return;
+		}
+		frame.set(rect);
+		setVisibility(VISIBLE);
+		int width = getWidth();
+		int height = getHeight();
+		place(masks[0], 0, 0, width, rect.top, duration);
+		place(masks[1], 0, rect.top, rect.left, rect.height(), duration);
+		place(masks[2], rect.right, rect.top, width - rect.right, rect.height(), duration);
+		place(masks[3], 0, rect.bottom, width, height - rect.bottom, duration);
+		move(corners[0], rect.left, rect.top, duration);
+		move(corners[1], rect.left, rect.top, duration);
+		move(corners[2], rect.right - cornerLength, rect.top, duration);
+		move(corners[3], rect.right - cornerWidth, rect.top, duration);
+		move(corners[4], rect.left, rect.bottom - cornerWidth, duration);
+		move(corners[5], rect.left, rect.bottom - cornerLength, duration);
+		move(corners[6], rect.right - cornerLength, rect.bottom - cornerWidth, duration);
+		move(corners[7], rect.right - cornerWidth, rect.bottom - cornerLength, duration);
+		scannerLine.setTranslationX(rect.left + linePadding);
+		scannerLine.setScaleX((float) (rect.width() - 2 * linePadding) / width);
+		if (scannerLineRunning) {
+			// The sweep follows the new rect
+			startScannerLine(pixelsPerMillisecond);
+		}
+	}
+
+	/**
+	 * Scales a view as large as the overlay down to the rect, a solid color scales without
+	 * distortion.
+	 */
+	private void place(View view, int left, int top, int width, int height, long duration) {
+		float scaleX = (float) Math.max(width, 0) / getWidth();
+		float scaleY = (float) Math.max(height, 0) / getHeight();
+		if (duration > 0) {
+			view.animate().translationX(left).translationY(top).scaleX(scaleX).scaleY(scaleY)
+					.setDuration(duration);
+		} else {
+			view.animate().cancel();
+			view.setTranslationX(left);
+			view.setTranslationY(top);
+			view.setScaleX(scaleX);
+			view.setScaleY(scaleY);
+		}
+	}
+
+	private void move(View view, int left, int top, long duration) {
+		if (duration > 0) {
+			view.animate().translationX(left).translationY(top).setDuration(duration);
+		} else {
+			view.animate().cancel();
+			view.setTranslationX(left);
+			view.setTranslationY(top);
+		}
+	}
+
+	/**
+	 * Sweeps the scan line from the top to the bottom of the framing rect, over and over.
+	 */
+	void startScannerLine(float pixelsPerMillisecond) {
+		this.pixelsPerMillisecond = pixelsPerMillisecond;
+		scannerLineRunning = true;
+		scannerLine.setVisibility(VISIBLE);
+		sweepScannerLine();
+	}
+
+	/**
+	 * Starts one sweep and posts the next one for when it ends. An end action would do the same
+	 * but takes the animation off the render thread.
+	 */
+	private void sweepScannerLine() {
+		removeCallbacks(sweepScannerLine);
+		float from = frame.top + cornerWidth - lineWidth / 2f;
+		float to = frame.bottom - cornerWidth - lineWidth / 2f;
+		long duration = (long) (Math.max(1, to - from) / pixelsPerMillisecond);
+		scannerLine.animate().cancel();
+		scannerLine.setTranslationY(from);
+		scannerLine.animate().translationY(to).setInterpolator(linearInterpolator)
+				.setDuration(duration);
+		ViewCompat.postOnAnimationDelayed(this, sweepScannerLine, duration);
+	}
+
+	void stopScannerLine() {
+		scannerLineRunning = false;
+		removeCallbacks(sweepScannerLine);
+		scannerLine.animate().cancel();
+		scannerLine.setVisibility(INVISIBLE);
+	}
+
+	boolean isScannerLineRunning() {
+		return scannerLineRunning;
+	}
+
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		if (!frame.isEmpty()) {
+			setFrame(new Rect(frame), 0);
+		}
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		stopScannerLine();
+	}
+}
@@ -27,10 +27,16 @@ import android.view.WindowManager;
 
 import com.ejin.sample.camera.BeepManager;
 import com.ejin.sample.camera.CameraManager;
+import com.ejin.sample.camera.CameraReadyListener;
+import com.ejin.sample.camera.ContinuousDecodeListener;
 import com.ejin.sample.camera.DecodeHelper;
 import com.ejin.sample.camera.DecodeListener;
-
-import java.io.IOException;
+import com.ejin.sample.camera.DecodeResult;
+import com.ejin.sample.camera.DecodeResultListener;
+import com.ejin.sample.camera.MultiDecodeListener;
+import com.ejin.sample.camera.PreviewSizePolicy;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
 
 import static android.hardware.Camera.getCameraInfo;
 
@@ -49,6 +55,10 @@ public class QRCodeReaderView extends SurfaceView
 	private BeepManager beepManager;
 	private DecodeHelper decodeHelper;
 	private boolean justQrcode = false;
+	private boolean dualScanner = false;
+	// Decode mode of the scanner type shown, used while not dual
+	private int scannerDecodeMode = DecodeHelper.DECODE_MODE_ALL;
+	private CameraReadyListener cameraReadyListener;
 
 	protected QRCodeReaderView(Context context) {
 		this(context, null);
@@ -73,12 +83,44 @@ public class QRCodeReaderView extends SurfaceView
 		}
 	}
 
+	/**
+	 * Square framing rect, decoding QR codes only, or both kinds while
+	 * {@link #setDualScanner(boolean)} is on
+	 */
 	public void setQrCodeScanner() {
 		mCameraManager.switchScannerType(CameraManager.SCANNER_QR_CODE);
+		scannerDecodeMode = DecodeHelper.DECODE_MODE_QR_CODE;
+		updateDecodeMode();
 	}
 
+	/**
+	 * Wide framing rect, decoding 1D bar codes only, unless {@link #justEnableQrcode()} was called,
+	 * or both kinds while {@link #setDualScanner(boolean)} is on
+	 */
 	public void setBarCodeScanner() {
 		mCameraManager.switchScannerType(CameraManager.SCANNER_BAR_CODE);
+		scannerDecodeMode = DecodeHelper.DECODE_MODE_BAR_CODE;
+		updateDecodeMode();
+	}
+
+	/**
+	 * Looks for QR codes in the square framing rect and 1D bar codes in the wide one on every
+	 * frame, so {@link #setQrCodeScanner()} and {@link #setBarCodeScanner()} only change the
+	 * framing rect shown. Off by default.
+	 */
+	public void setDualScanner(boolean enabled) {
+		dualScanner = enabled;
+		updateDecodeMode();
+	}
+
+	private void updateDecodeMode() {
+		if (justQrcode) {
+			decodeHelper.setDecodeMode(DecodeHelper.DECODE_MODE_QR_CODE);
+		} else if (dualScanner) {
+			decodeHelper.setDecodeMode(DecodeHelper.DECODE_MODE_DUAL);
+		} else {
+			decodeHelper.setDecodeMode(scannerDecodeMode);
+		}
 	}
 
 	/**
@@ -97,8 +139,84 @@ public class QRCodeReaderView extends SurfaceView
 		});
 	}
 
+	/**
+	 * Set the callback to return the decoding result with its format, raw bytes, points,
+	 * metadata and stage timings. Replaces the listener of {@link #setOnCodeReadListener};
+	 * {@code null} removes it.
+	 *
+	 * @param listener the listener
+	 */
+	public void setOnDecodeResultListener(final DecodeResultListener listener) {
+		if (listener == null) {
+			decodeHelper.setDecodeResultListener(null);
+			return;
+		}
+		decodeHelper.setDecodeResultListener(new DecodeResultListener() {
+
+			@Override
+			public void onResult(DecodeResult result) {
+				beepManager.playBeepSoundAndVibrate();
+				listener.onResult(result);
+			}
+		});
+	}
+
+	/**
+	 * Keep scanning after a code is read, reporting every distinct code to the listener instead
+	 * of stopping at the first one. {@code null} turns continuous scanning off again.
+	 *
+	 * @param listener the listener
+	 */
+	public void setOnContinuousReadListener(final ContinuousDecodeListener listener) {
+		if (listener == null) {
+			decodeHelper.setContinuousReadListener(null);
+			return;
+		}
+		decodeHelper.setContinuousReadListener(new ContinuousDecodeListener() {
+
+			@Override
+			public void onRead(String s, BarcodeFormat format) {
+				beepManager.playBeepSoundAndVibrate();
+				listener.onRead(s, format);
+			}
+		});
+	}
+
+	/**
+	 * Read every code in the framing rect at once, such as the several bar codes of a pallet
+	 * label, instead of only the first. The result points are in view coordinates. {@code null}
+	 * goes back to reading a single code.
+	 *
+	 * @param listener the listener
+	 */
+	public void setOnMultiReadListener(final MultiDecodeListener listener) {
+		if (listener == null) {
+			decodeHelper.setMultiReadListener(null);
+			return;
+		}
+		decodeHelper.setMultiReadListener(new MultiDecodeListener() {
+
+			@Override
+			public void onRead(Result[] results) {
+				beepManager.playBeepSoundAndVibrate();
+				listener.onRead(results);
+			}
+		});
+	}
+
+	/**
+	 * Set the callback told on the main thread once the camera, opened in the background when
+	 * the view is shown, is previewing, or why it could not be opened.
+	 *
+	 * @param listener the listener
+	 */
+	public void setOnCameraReadyListener(CameraReadyListener listener) {
+		cameraReadyListener = listener;
+	}
+
 	public void justEnableQrcode() {
 		justQrcode = true;
+		decodeHelper.setDecodeMode(DecodeHelper.DECODE_MODE_QR_CODE);
 	}
 
 	/**
@@ -107,7 +225,7 @@ public class QRCodeReaderView extends SurfaceView
 	public void startCamera() {
 		mCameraManager.startPreview();
 		beepManager.init();
-		decodeHelper.startShotFrame();
+		decodeHelper.start();
 		Log.d(TAG, "startCamera");
 	}
 
@@ -117,10 +235,21 @@ public class QRCodeReaderView extends SurfaceView
 	public void stopCamera() {
 		mCameraManager.stopPreview();
 		beepManager.close();
-		decodeHelper.stop();
+		decodeHelper.pause();
 		Log.d(TAG, "stopCamera");
 	}
 
+	/**
+	 * Stop camera preview and release the decoder's threads and buffers, e.g. when the Activity
+	 * is destroyed. The view can not scan again afterwards.
+	 */
+	public void close() {
+		stopCamera();
+		decodeHelper.close();
+		mCameraManager.release();
+		Log.d(TAG, "close");
+	}
+
 	/**
 	 * Set Camera autofocus interval value
 	 * default value is 5000 ms.
@@ -154,6 +283,17 @@ public class QRCodeReaderView extends SurfaceView
 		}
 	}
 
+	/**
+	 * Choose the preview size with {@code policy}, such as
+	 * {@link com.ejin.sample.camera.DecodePreviewSizePolicy}, which takes the smallest size that
+	 * still resolves the codes to be scanned. Call before the view is shown.
+	 *
+	 * @param policy the policy, {@code null} for the largest size matching the view.
+	 */
+	public void setPreviewSizePolicy(PreviewSizePolicy policy) {
+		mCameraManager.setPreviewSizePolicy(policy);
+	}
+
 	/**
 	 * Allows user to specify the camera ID, rather than determine
 	 * it automatically based on available cameras and their orientation.
@@ -191,22 +331,24 @@ public class QRCodeReaderView extends SurfaceView
 	public void surfaceCreated(SurfaceHolder holder) {
 		Log.d(TAG, "surfaceCreated");
 
-		try {
-			// Indicate camera, our View dimensions
-			mCameraManager.openDriver(holder, this.getWidth(), this.getHeight());
-		} catch (IOException e) {
-			Log.w(TAG, "Can not openDriver: " + e.getMessage());
-			mCameraManager.closeDriver();
-		}
-
-		try {
-//      mQRCodeReader = new QRCodeReader();
-
-			mCameraManager.startPreview();
-		} catch (Exception e) {
-			Log.e(TAG, "Exception: " + e.getMessage());
-			mCameraManager.closeDriver();
-		}
+		// Opening and configuring the camera takes hundreds of ms, keep it off the UI thread
+		mCameraManager.openDriverAsync(holder, this.getWidth(), this.getHeight(),
+				getCameraDisplayOrientation(), new CameraReadyListener() {
+					@Override
+					public void onCameraReady() {
+						Log.d(TAG, "camera ready");
+						if (cameraReadyListener != null) {
+							cameraReadyListener.onCameraReady();
+						}
+					}
+
+					@Override
+					public void onCameraError(Exception e) {
+						if (cameraReadyListener != null) {
+							cameraReadyListener.onCameraError(e);
+						}
+					}
+				});
 	}
 
 	@Override
@@ -218,22 +360,9 @@ public class QRCodeReaderView extends SurfaceView
 			return;
 		}
 
-		if (mCameraManager.getPreviewSize() == null) {
-			Log.e(TAG, "Error: preview size does not exist");
-			return;
-		}
-
-		mCameraManager.stopPreview();
-
-		// Fix the camera sensor rotation
-
-		mCameraManager.setDisplayOrientation(getCameraDisplayOrientation());
-
-		mCameraManager.startPreview();
-//		if (decodeHandler != null) {
-//			decodeHandler.requestOneShotFrame();
-//		}
-
+		// Fix the camera sensor rotation. Runs after the open, which may still be going on, and
+		// only restarts the preview if the orientation did change
+		mCameraManager.setDisplayOrientationAsync(getCameraDisplayOrientation());
 	}
 
 	@Override
@@ -0,0 +1,66 @@
+package android.graphics;
+
+/**
+ * Stands in for the framework class in unit tests, where the android.jar stubs give it
+ * constructors which do nothing. The test classes come before that jar on the unit test
+ * classpath, so code under test gets points which hold what they are made of.
+ */
+public class Point {
+
+	public int x;
+	public int y;
+
+	public Point() {
+	}
+
+	public Point(int x, int y) {
+		this.x = x;
+		this.y = y;
+	}
+
+	public Point(Point src) {
+		this.x = src.x;
+		this.y = src.y;
+	}
+
+	public void set(int x, int y) {
+		this.x = x;
+		this.y = y;
+	}
+
+	public final void negate() {
+		x = -x;
+		y = -y;
+	}
+
+	public final void offset(int dx, int dy) {
+		x += dx;
+		y += dy;
+	}
+
+	public final boolean equals(int x, int y) {
+		return this.x == x && this.y == y;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o == null || getClass() != o.getClass()) {
+			return false;
+		}
+		Point point = (Point) o;
+		return x == point.x && y == point.y;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * x + y;
+	}
+
+	@Override
+	public String toString() {
+		return "Point(" + x + ", " + y + ")";
+	}
+}
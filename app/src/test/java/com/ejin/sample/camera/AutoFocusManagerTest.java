@@ -0,0 +1,258 @@
+package com.ejin.sample.camera;
+
+import android.hardware.Camera;
+import android.os.Handler;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Drives {@link AutoFocusManager} with a fake camera, which focuses whenever asked to, and a fake
+ * handler, whose delayed tasks run only when the test lets time pass.
+ */
+public class AutoFocusManagerTest {
+
+	private static final long INTERVAL_MS = 700L;
+
+	/**
+	 * Delayed tasks in the order they are due.
+	 */
+	private static final class FakeHandler {
+
+		final Handler handler = mock(Handler.class);
+		final List<Runnable> tasks = new ArrayList<>();
+		final List<Long> dueTimes = new ArrayList<>();
+		long now;
+
+		FakeHandler() {
+			doAnswer(new Answer<Boolean>() {
+				@Override
+				public Boolean answer(InvocationOnMock invocation) {
+					Object[] arguments = invocation.getArguments();
+					long due = now + (Long) arguments[1];
+					int i = 0;
+					while (i < dueTimes.size() && dueTimes.get(i) <= due) {
+						i++;
+					}
+					tasks.add(i, (Runnable) arguments[0]);
+					dueTimes.add(i, due);
+					return true;
+				}
+			}).when(handler).postDelayed(any(Runnable.class), anyLong());
+			doAnswer(new Answer<Void>() {
+				@Override
+				public Void answer(InvocationOnMock invocation) {
+					Object runnable = invocation.getArguments()[0];
+					for (int i = tasks.size() - 1; i >= 0; i--) {
+						if (tasks.get(i) == runnable) {
+							tasks.remove(i);
+							dueTimes.remove(i);
+						}
+					}
+					return null;
+				}
+			}).when(handler).removeCallbacks(any(Runnable.class));
+		}
+
+		/**
+		 * Runs the tasks due within {@code millis}, in order.
+		 */
+		void advance(long millis) {
+			long until = now + millis;
+			while (!tasks.isEmpty() && dueTimes.get(0) <= until) {
+				now = dueTimes.remove(0);
+				tasks.remove(0).run();
+			}
+			now = until;
+		}
+	}
+
+	private final FakeHandler handler = new FakeHandler();
+	private final Camera camera = mock(Camera.class);
+	private final ScanMetrics metrics = new ScanMetrics();
+
+	@Test
+	public void autoModeFocusesEveryIntervalAfterTheLastFocus() {
+		AutoFocusManager manager = create(Camera.Parameters.FOCUS_MODE_AUTO);
+		verify(camera).autoFocus(manager);
+
+		handler.advance(INTERVAL_MS * 5);
+		// Not before the focus ended
+		verify(camera, times(1)).autoFocus(manager);
+
+		manager.onAutoFocus(true, camera);
+		handler.advance(INTERVAL_MS - 1);
+		verify(camera, times(1)).autoFocus(manager);
+		handler.advance(1);
+		verify(camera, times(2)).autoFocus(manager);
+
+		manager.onAutoFocus(false, camera);
+		handler.advance(INTERVAL_MS);
+		verify(camera, times(3)).autoFocus(manager);
+		verify(camera, never()).cancelAutoFocus();
+	}
+
+	@Test
+	public void continuousModeHandsTheFocusBack() {
+		AutoFocusManager manager = create(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
+		verify(camera).autoFocus(manager);
+
+		manager.onAutoFocus(true, camera);
+		handler.advance(INTERVAL_MS * 10);
+
+		verify(camera).cancelAutoFocus();
+		// The camera keeps focusing by itself
+		verify(camera, times(1)).autoFocus(manager);
+	}
+
+	@Test
+	public void blurryFramesFocusAgainAtOnce() {
+		AutoFocusManager manager = create(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
+		manager.onAutoFocus(true, camera);
+		handler.advance(AutoFocusManager.MIN_REFOCUS_GAP_MS);
+
+		manager.onFrameSharpness(100);
+		for (int i = 1; i < AutoFocusManager.BLURRY_FRAMES; i++) {
+			manager.onFrameSharpness(40);
+		}
+		verify(camera, times(1)).autoFocus(manager);
+		manager.onFrameSharpness(40);
+
+		verify(camera, times(2)).autoFocus(manager);
+		// Ignored while focusing
+		manager.onFrameSharpness(10);
+		verify(camera, times(2)).autoFocus(manager);
+	}
+
+	@Test
+	public void slightlySofterFramesDoNotCount() {
+		AutoFocusManager manager = create(Camera.Parameters.FOCUS_MODE_AUTO);
+		manager.onAutoFocus(true, camera);
+		handler.advance(AutoFocusManager.MIN_REFOCUS_GAP_MS);
+
+		manager.onFrameSharpness(100);
+		manager.onFrameSharpness(40);
+		manager.onFrameSharpness(40);
+		// Not under half as sharp, so the frames in a row start over
+		manager.onFrameSharpness(60);
+		manager.onFrameSharpness(40);
+		manager.onFrameSharpness(-1);
+
+		verify(camera, times(1)).autoFocus(manager);
+	}
+
+	@Test
+	public void noRefocusRightAfterAFocus() {
+		AutoFocusManager manager = create(Camera.Parameters.FOCUS_MODE_AUTO);
+		manager.onAutoFocus(true, camera);
+		handler.advance(AutoFocusManager.MIN_REFOCUS_GAP_MS - 1);
+
+		manager.onFrameSharpness(100);
+		for (int i = 0; i < AutoFocusManager.BLURRY_FRAMES; i++) {
+			manager.onFrameSharpness(10);
+		}
+		verify(camera, times(1)).autoFocus(manager);
+
+		handler.advance(1);
+		manager.onFrameSharpness(10);
+		verify(camera, times(2)).autoFocus(manager);
+	}
+
+	@Test
+	public void torchToggleSuspendsAndResumes() {
+		AutoFocusManager manager = create(Camera.Parameters.FOCUS_MODE_AUTO);
+
+		manager.suspend();
+		verify(camera).cancelAutoFocus();
+		// A focus cancelled may still report, no cycle is started from it
+		manager.onAutoFocus(false, camera);
+		handler.advance(INTERVAL_MS * 5);
+		manager.onFrameSharpness(100);
+		for (int i = 0; i < AutoFocusManager.BLURRY_FRAMES; i++) {
+			manager.onFrameSharpness(10);
+		}
+		verify(camera, times(1)).autoFocus(manager);
+
+		manager.resume();
+		verify(camera, times(2)).autoFocus(manager);
+		manager.onAutoFocus(true, camera);
+		handler.advance(INTERVAL_MS);
+		verify(camera, times(3)).autoFocus(manager);
+	}
+
+	@Test
+	public void stopLeavesNothingScheduled() {
+		AutoFocusManager manager = create(Camera.Parameters.FOCUS_MODE_AUTO);
+		manager.onAutoFocus(true, camera);
+
+		manager.stop();
+
+		assertTrue(handler.tasks.isEmpty());
+		manager.onAutoFocus(true, camera);
+		manager.start();
+		handler.advance(INTERVAL_MS * 5);
+		verify(camera, times(1)).autoFocus(manager);
+		assertTrue(handler.tasks.isEmpty());
+	}
+
+	@Test
+	public void fixedFocusIsLeftAlone() {
+		AutoFocusManager manager = create(Camera.Parameters.FOCUS_MODE_FIXED);
+		manager.onFrameSharpness(100);
+		for (int i = 0; i < AutoFocusManager.BLURRY_FRAMES; i++) {
+			manager.onFrameSharpness(10);
+		}
+		manager.stop();
+
+		verify(camera, never()).autoFocus(any(Camera.AutoFocusCallback.class));
+		verify(camera, never()).cancelAutoFocus();
+		assertTrue(handler.tasks.isEmpty());
+	}
+
+	@Test
+	public void failedFocusIsRetriedLater() {
+		doThrow(new RuntimeException("autoFocus failed")).doNothing().when(camera)
+				.autoFocus(any(Camera.AutoFocusCallback.class));
+
+		AutoFocusManager manager = create(Camera.Parameters.FOCUS_MODE_MACRO);
+		assertEquals(1, handler.tasks.size());
+		handler.advance(INTERVAL_MS);
+
+		verify(camera, times(2)).autoFocus(manager);
+	}
+
+	@Test
+	public void focusCyclesAreCounted() {
+		AutoFocusManager manager = create(Camera.Parameters.FOCUS_MODE_AUTO);
+		for (int i = 0; i < 5; i++) {
+			manager.onAutoFocus(true, camera);
+			handler.advance(INTERVAL_MS);
+		}
+
+		verify(camera, times(6)).autoFocus(manager);
+		assertEquals(5, metrics.snapshot().getAutoFocusCycles());
+	}
+
+	private AutoFocusManager create(String focusMode) {
+		Camera.Parameters parameters = mock(Camera.Parameters.class);
+		when(parameters.getFocusMode()).thenReturn(focusMode);
+		when(camera.getParameters()).thenReturn(parameters);
+		return new AutoFocusManager(camera, handler.handler, metrics, INTERVAL_MS);
+	}
+}
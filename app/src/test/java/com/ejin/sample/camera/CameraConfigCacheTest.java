@@ -0,0 +1,188 @@
+package com.ejin.sample.camera;
+
+import android.graphics.Point;
+import android.hardware.Camera;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class CameraConfigCacheTest {
+
+	private static final String FINGERPRINT = "brand/product/device:7.0/NRD90M/1:user/release-keys";
+	private static final String KEY = "maker/model/0/1080x1920/0";
+
+	private final MapPreferences preferences = new MapPreferences();
+	private final CameraConfigCache cache = new CameraConfigCache(preferences, FINGERPRINT);
+
+	@Test
+	public void entryWrittenIsReadBack() {
+		cache.put(KEY, entry(1280, 720, "continuous-picture", 90));
+
+		CameraConfigCache.Entry entry = cache.get(KEY, null, null);
+
+		assertNotNull(entry);
+		assertEquals("continuous-picture", entry.focusMode);
+		assertEquals(90, entry.displayRotation);
+		assertNull(cache.get("maker/model/1/1080x1920/0", null, null));
+	}
+
+	@Test
+	public void otherBuildOfTheSystemMisses() {
+		cache.put(KEY, entry(1280, 720, "auto", 0));
+
+		CameraConfigCache updated = new CameraConfigCache(preferences, FINGERPRINT + ".1");
+
+		assertNull(updated.get(KEY, null, null));
+		// Dropped, so it is not read again
+		assertFalse(preferences.contains(KEY));
+	}
+
+	@Test
+	public void focusModeNoLongerOfferedMisses() {
+		cache.put(KEY, entry(1280, 720, "continuous-picture", 0));
+
+		assertNotNull(cache.get(KEY, null, Arrays.asList("auto", "continuous-picture")));
+		assertNull(cache.get(KEY, null, Collections.singletonList("auto")));
+		assertFalse(preferences.contains(KEY));
+	}
+
+	@Test
+	public void previewSizeMustStillBeOffered() {
+		CameraConfigCache.Entry entry = entry(1280, 720, null, 0);
+
+		assertTrue(CameraConfigCache.isValid(entry, sizes(640, 480, 1280, 720), null));
+		assertFalse(CameraConfigCache.isValid(entry, sizes(640, 480, 720, 1280), null));
+		// The camera not telling is no reason to drop it
+		assertTrue(CameraConfigCache.isValid(entry, null, null));
+		assertTrue(CameraConfigCache.isValid(entry, sizes(1280, 720),
+				Collections.singletonList("fixed")));
+	}
+
+	@Test
+	public void formatRoundTrips() {
+		String value = CameraConfigCache.format(entry(1280, 720, "auto", 270), FINGERPRINT, 1234L);
+
+		CameraConfigCache.Entry entry = CameraConfigCache.parse(value, FINGERPRINT);
+
+		assertNotNull(entry);
+		assertEquals("auto", entry.focusMode);
+		assertEquals(270, entry.displayRotation);
+		assertEquals(1234L, CameraConfigCache.parseSavedAt(value, FINGERPRINT));
+		assertNull(CameraConfigCache.parse(
+				CameraConfigCache.format(entry(1280, 720, null, 0), FINGERPRINT, 1L), FINGERPRINT)
+				.focusMode);
+	}
+
+	@Test
+	public void fingerprintMayHoldSeparators() {
+		String fingerprint = "odd;fingerprint;";
+		String value = CameraConfigCache.format(entry(640, 480, "auto", 0), fingerprint, 5L);
+
+		assertNotNull(CameraConfigCache.parse(value, fingerprint));
+		assertNull(CameraConfigCache.parse(value, "odd;fingerprint"));
+	}
+
+	@Test
+	public void malformedValuesAreRejected() {
+		String[] values = {
+				"",
+				"3;1280;720;auto;0;1",
+				"2;1280;720;auto;0;1;" + FINGERPRINT,
+				"3;wide;720;auto;0;1;" + FINGERPRINT,
+				"3;0;720;auto;0;1;" + FINGERPRINT,
+				"3;1280;-720;auto;0;1;" + FINGERPRINT,
+				"3;1280;720;auto;45;1;" + FINGERPRINT,
+				"3;1280;720;auto;0;-1;" + FINGERPRINT,
+				"3;1280;720;auto;0;never;" + FINGERPRINT,
+		};
+		for (String value : values) {
+			assertNull(value, CameraConfigCache.parse(value, FINGERPRINT));
+			assertEquals(value, -1, CameraConfigCache.parseSavedAt(value, FINGERPRINT));
+		}
+	}
+
+	@Test
+	public void unusableEntriesAreEvictedFirstThenTheOldest() {
+		Map<String, Object> stored = new LinkedHashMap<>();
+		stored.put("stale", "2;1280;720;auto;0;1;" + FINGERPRINT);
+		stored.put("other build", value(50L, "another"));
+		stored.put("not a string", 7);
+		for (int i = 0; i < 4; i++) {
+			stored.put("entry " + i, value(100L - i, FINGERPRINT));
+		}
+
+		List<String> evicted = CameraConfigCache.selectEvicted(stored, "new", FINGERPRINT, 3);
+
+		// Room for two besides the one written, the two written last
+		assertEquals(Arrays.asList("stale", "other build", "not a string", "entry 3", "entry 2"),
+				evicted);
+	}
+
+	@Test
+	public void keyRewrittenIsNotEvicted() {
+		Map<String, Object> stored = new HashMap<>();
+		stored.put("a", value(1L, FINGERPRINT));
+		stored.put("b", value(2L, FINGERPRINT));
+
+		assertEquals(Collections.<String>emptyList(),
+				CameraConfigCache.selectEvicted(stored, "a", FINGERPRINT, 2));
+		assertEquals(Collections.singletonList("a"),
+				CameraConfigCache.selectEvicted(stored, "c", FINGERPRINT, 2));
+	}
+
+	@Test
+	public void atMostMaxEntriesAreKept() {
+		for (int i = 0; i < CameraConfigCache.MAX_ENTRIES * 2; i++) {
+			cache.put("key " + i, entry(1280, 720, "auto", 0));
+		}
+		String last = "key " + (CameraConfigCache.MAX_ENTRIES * 2 - 1);
+
+		assertEquals(CameraConfigCache.MAX_ENTRIES, preferences.getAll().size());
+		assertNotNull(cache.get(last, null, null));
+	}
+
+	@Test
+	public void clearDropsEverything() {
+		cache.put(KEY, entry(1280, 720, "auto", 0));
+
+		cache.clear();
+
+		assertNull(cache.get(KEY, null, null));
+		assertTrue(preferences.getAll().isEmpty());
+	}
+
+	private static String value(long savedAt, String fingerprint) {
+		return CameraConfigCache.format(entry(1280, 720, "auto", 0), fingerprint, savedAt);
+	}
+
+	private static CameraConfigCache.Entry entry(int width, int height, String focusMode,
+												 int displayRotation) {
+		return new CameraConfigCache.Entry(new Point(width, height), focusMode, displayRotation);
+	}
+
+	/**
+	 * @param dimensions width and height of each size.
+	 */
+	private static List<Camera.Size> sizes(int... dimensions) {
+		Camera.Size[] sizes = new Camera.Size[dimensions.length / 2];
+		for (int i = 0; i < sizes.length; i++) {
+			sizes[i] = mock(Camera.Size.class);
+			sizes[i].width = dimensions[2 * i];
+			sizes[i].height = dimensions[2 * i + 1];
+		}
+		return Arrays.asList(sizes);
+	}
+}
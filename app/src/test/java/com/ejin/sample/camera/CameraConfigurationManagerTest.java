@@ -0,0 +1,245 @@
+package com.ejin.sample.camera;
+
+import android.content.Context;
+import android.graphics.Point;
+import android.hardware.Camera;
+import android.view.Display;
+import android.view.Surface;
+import android.view.WindowManager;
+
+import com.ejin.sample.camera.open.CameraFacing;
+import com.ejin.sample.camera.open.OpenCamera;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Opens a fake back camera in a portrait view of 1080x1920, first with an empty configuration
+ * cache, then again with what the first open cached.
+ */
+public class CameraConfigurationManagerTest {
+
+	private static final String FINGERPRINT = "brand/product/device:7.0/NRD90M/1:user/release-keys";
+	private static final int WIDTH = 1080;
+	private static final int HEIGHT = 1920;
+
+	private final MapPreferences preferences = new MapPreferences();
+	private final Camera camera = mock(Camera.class);
+	private Camera.Parameters parameters;
+
+	@Before
+	public void setUp() {
+		offer(sizes(1920, 1080, 1280, 720, 640, 480));
+	}
+
+	@Test
+	public void firstOpenSelectsAndCaches() {
+		CameraConfigurationManager manager = manager();
+		OpenCamera open = open(90);
+
+		manager.initFromCameraParameters(open, WIDTH, HEIGHT);
+
+		assertFalse(manager.isConfigCached());
+		// Matches the view exactly once turned
+		assertPoint(1920, 1080, manager.getBestPreviewSize());
+		assertPoint(1080, 1920, manager.getPreviewSizeOnScreen());
+		assertTrue(preferences.getAll().isEmpty());
+
+		manager.setDesiredCameraParameters(open, false);
+
+		verify(parameters).setPreviewSize(1920, 1080);
+		verify(parameters).setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
+		verify(camera).setDisplayOrientation(90);
+		assertEquals(1, preferences.getAll().size());
+	}
+
+	@Test
+	public void laterOpenSetsTheCachedConfiguration() {
+		// The driver settles on another size than the one set, which is what gets cached
+		when(parameters.getPreviewSize()).thenReturn(size(1280, 720));
+		CameraConfigurationManager first = configure(90);
+		assertPoint(1280, 720, first.getBestPreviewSize());
+		// Not corrected along with the preview size
+		assertPoint(1920, 1080, first.getCameraResolution());
+
+		Camera.Parameters later = offer(sizes(1920, 1080, 1280, 720, 640, 480));
+		CameraConfigurationManager manager = manager();
+		OpenCamera open = open(90);
+		manager.initFromCameraParameters(open, WIDTH, HEIGHT);
+
+		assertTrue(manager.isConfigCached());
+		assertPoint(1280, 720, manager.getBestPreviewSize());
+		assertPoint(1280, 720, manager.getCameraResolution());
+		assertPoint(720, 1280, manager.getPreviewSizeOnScreen());
+
+		manager.setDesiredCameraParameters(open, false);
+
+		verify(later).setPreviewSize(1280, 720);
+		verify(later).setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
+		// Neither logged nor read back
+		verify(later, never()).flatten();
+		verify(later, never()).getPreviewSize();
+	}
+
+	@Test
+	public void previewSizeNoLongerOfferedIsSelectedAgain() {
+		configure(90);
+
+		offer(sizes(1280, 720, 640, 480));
+		CameraConfigurationManager manager = manager();
+		manager.initFromCameraParameters(open(90), WIDTH, HEIGHT);
+
+		assertFalse(manager.isConfigCached());
+		assertPoint(1280, 720, manager.getBestPreviewSize());
+		assertTrue(preferences.getAll().isEmpty());
+	}
+
+	@Test
+	public void otherCameraRotationInvalidates() {
+		configure(90);
+
+		// Same camera id and view, but the camera turned the other way
+		CameraConfigurationManager manager = manager();
+		manager.initFromCameraParameters(open(270), WIDTH, HEIGHT);
+
+		assertFalse(manager.isConfigCached());
+		assertPoint(1920, 1080, manager.getBestPreviewSize());
+		assertTrue(preferences.getAll().isEmpty());
+	}
+
+	@Test
+	public void rejectedCachedConfigurationIsForgotten() {
+		configure(90);
+		doThrow(new RuntimeException("setParameters failed")).when(camera)
+				.setParameters(any(Camera.Parameters.class));
+
+		CameraConfigurationManager manager = manager();
+		OpenCamera open = open(90);
+		manager.initFromCameraParameters(open, WIDTH, HEIGHT);
+		assertTrue(manager.isConfigCached());
+		try {
+			manager.setDesiredCameraParameters(open, false);
+			fail("Rejected configuration set");
+		} catch (RuntimeException expected) {
+			// Handled by the camera manager, which goes on in safe mode
+		}
+
+		assertFalse(manager.isConfigCached());
+		assertTrue(preferences.getAll().isEmpty());
+	}
+
+	@Test
+	public void policyChoosesOnAMiss() {
+		CameraConfigurationManager manager = manager();
+		manager.setPreviewSizePolicy(new DecodePreviewSizePolicy());
+
+		manager.initFromCameraParameters(open(90), WIDTH, HEIGHT);
+
+		// The smallest 16:9 size large enough to decode from, not the largest
+		assertPoint(1280, 720, manager.getBestPreviewSize());
+	}
+
+	@Test
+	public void policyWithoutACacheKeyIsNeverCached() {
+		CameraConfigurationManager manager = manager();
+		manager.setPreviewSizePolicy(new PreviewSizePolicy() {
+			@Override
+			public Point select(List<Point> supportedSizes, Point screenResolution) {
+				return new Point(640, 480);
+			}
+
+			@Override
+			public String cacheKey() {
+				return null;
+			}
+		});
+		OpenCamera open = open(90);
+
+		manager.initFromCameraParameters(open, WIDTH, HEIGHT);
+		manager.setDesiredCameraParameters(open, false);
+		manager.initFromCameraParameters(open, WIDTH, HEIGHT);
+
+		assertFalse(manager.isConfigCached());
+		assertPoint(640, 480, manager.getBestPreviewSize());
+		assertTrue(preferences.getAll().isEmpty());
+		verify(parameters, never()).setPreviewSize(1920, 1080);
+		verify(parameters).setPreviewSize(anyInt(), anyInt());
+	}
+
+	/**
+	 * Opens the camera with an empty or no cache and configures it, leaving the configuration in
+	 * the cache.
+	 */
+	private CameraConfigurationManager configure(int cameraOrientation) {
+		CameraConfigurationManager manager = manager();
+		OpenCamera open = open(cameraOrientation);
+		manager.initFromCameraParameters(open, WIDTH, HEIGHT);
+		manager.setDesiredCameraParameters(open, false);
+		assertEquals(1, preferences.getAll().size());
+		return manager;
+	}
+
+	private CameraConfigurationManager manager() {
+		Display display = mock(Display.class);
+		when(display.getRotation()).thenReturn(Surface.ROTATION_0);
+		WindowManager windowManager = mock(WindowManager.class);
+		when(windowManager.getDefaultDisplay()).thenReturn(display);
+		Context context = mock(Context.class);
+		when(context.getSystemService(Context.WINDOW_SERVICE)).thenReturn(windowManager);
+		return new CameraConfigurationManager(context,
+				new CameraConfigCache(preferences, FINGERPRINT));
+	}
+
+	private OpenCamera open(int orientation) {
+		return new OpenCamera(0, camera, CameraFacing.BACK, orientation);
+	}
+
+	/**
+	 * Has the camera hand out new parameters offering {@code sizes} and the usual focus modes.
+	 */
+	private Camera.Parameters offer(List<Camera.Size> sizes) {
+		parameters = mock(Camera.Parameters.class);
+		when(parameters.getSupportedPreviewSizes()).thenReturn(sizes);
+		when(parameters.getSupportedFocusModes()).thenReturn(Arrays.asList(
+				Camera.Parameters.FOCUS_MODE_AUTO, Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE));
+		when(camera.getParameters()).thenReturn(parameters);
+		return parameters;
+	}
+
+	private static void assertPoint(int x, int y, Point point) {
+		assertEquals(x + "x" + y, new Point(x, y), point);
+	}
+
+	private static Camera.Size size(int width, int height) {
+		Camera.Size size = mock(Camera.Size.class);
+		size.width = width;
+		size.height = height;
+		return size;
+	}
+
+	/**
+	 * @param dimensions width and height of each size.
+	 */
+	private static List<Camera.Size> sizes(int... dimensions) {
+		Camera.Size[] sizes = new Camera.Size[dimensions.length / 2];
+		for (int i = 0; i < sizes.length; i++) {
+			sizes[i] = size(dimensions[2 * i], dimensions[2 * i + 1]);
+		}
+		return Arrays.asList(sizes);
+	}
+}
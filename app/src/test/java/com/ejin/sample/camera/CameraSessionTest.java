@@ -0,0 +1,185 @@
+package com.ejin.sample.camera;
+
+import android.content.Context;
+import android.graphics.Point;
+import android.graphics.Rect;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Whatever the scanner type is switched to meanwhile, a {@link CameraSession} read from the
+ * camera manager holds the framing rect geometry of its own scanner type, and the last one
+ * published is of the type set last.
+ */
+public class CameraSessionTest {
+
+	private static final int QR = CameraManager.SCANNER_QR_CODE;
+	private static final int BAR = CameraManager.SCANNER_BAR_CODE;
+	private static final int ROUNDS = 2000;
+
+	@Test
+	public void switchingSwapsTheGeometries() {
+		FrameGeometry square = square();
+		FrameGeometry strip = strip();
+		CameraSession qr = session(square, strip);
+
+		CameraSession bar = qr.withScannerType(BAR);
+
+		assertSame(qr, qr.withScannerType(QR));
+		assertEquals(BAR, bar.scannerType);
+		assertSame(strip, bar.frameGeometry);
+		assertSame(square, bar.getFrameGeometry(QR));
+		assertSame(strip, bar.getFrameGeometry(BAR));
+		assertSame(qr.previewSize, bar.previewSize);
+		assertSame(square, bar.withScannerType(QR).frameGeometry);
+	}
+
+	@Test
+	public void gettersHandOutCopies() {
+		CameraManager manager = new CameraManager(mock(Context.class));
+		manager.setSession(session(square(), strip()));
+
+		assertNotSame(manager.getSession().framingRect, manager.getFramingRect());
+		assertNotSame(manager.getSession().framingRectInPreview, manager.getFramingRectInPreview());
+		assertNotSame(manager.getSession().previewSizeOnScreen, manager.getPreviewSize());
+	}
+
+	@Test
+	public void sessionPublishedIsSwitchedToTheCurrentType() {
+		CameraManager manager = new CameraManager(mock(Context.class));
+		manager.switchScannerType(BAR);
+		FrameGeometry strip = strip();
+
+		manager.setSession(session(square(), strip));
+
+		assertEquals(BAR, manager.getSession().scannerType);
+		assertSame(strip, manager.getFrameGeometry());
+	}
+
+	@Test
+	public void readersNeverSeeAMixedSession() throws Exception {
+		final CameraManager manager = new CameraManager(mock(Context.class));
+		final FrameGeometry square = square();
+		final FrameGeometry strip = strip();
+		manager.setSession(session(square, strip));
+		final AtomicBoolean done = new AtomicBoolean();
+		final List<String> mixed = new CopyOnWriteArrayList<>();
+		Thread[] readers = new Thread[2];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (!done.get()) {
+						CameraSession session = manager.getSession();
+						FrameGeometry own = session.scannerType == QR ? square : strip;
+						FrameGeometry other = own == square ? strip : square;
+						if (session.frameGeometry != own || session.getFrameGeometry(
+								session.scannerType == QR ? BAR : QR) != other) {
+							mixed.add(session.toString());
+						}
+					}
+				}
+			});
+			readers[i].start();
+		}
+
+		Random random = new Random(24);
+		try {
+			for (int i = 0; i < ROUNDS * 10; i++) {
+				manager.switchScannerType(random.nextBoolean() ? QR : BAR);
+			}
+		} finally {
+			done.set(true);
+			for (Thread reader : readers) {
+				reader.join();
+			}
+		}
+
+		assertEquals(mixed.toString(), 0, mixed.size());
+	}
+
+	@Test
+	public void lastTypeSetWinsOverAConcurrentConfiguration() throws Exception {
+		final CameraManager manager = new CameraManager(mock(Context.class));
+		final CyclicBarrier start = new CyclicBarrier(3);
+		final CyclicBarrier end = new CyclicBarrier(3);
+		final int[] types = new int[ROUNDS];
+		Random random = new Random(42);
+		for (int i = 0; i < types.length; i++) {
+			types[i] = random.nextBoolean() ? QR : BAR;
+		}
+		final List<Throwable> failures = new CopyOnWriteArrayList<>();
+		// One thread switches the scanner type while the other publishes a new configuration
+		Thread switcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (int type : types) {
+						start.await(10, TimeUnit.SECONDS);
+						manager.switchScannerType(type);
+						end.await(10, TimeUnit.SECONDS);
+					}
+				} catch (Exception e) {
+					failures.add(e);
+				}
+			}
+		});
+		Thread configurer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < types.length; i++) {
+						start.await(10, TimeUnit.SECONDS);
+						manager.setSession(session(square(), strip()));
+						end.await(10, TimeUnit.SECONDS);
+					}
+				} catch (Exception e) {
+					failures.add(e);
+				}
+			}
+		});
+		switcher.start();
+		configurer.start();
+
+		for (int i = 0; i < types.length; i++) {
+			start.await(10, TimeUnit.SECONDS);
+			end.await(10, TimeUnit.SECONDS);
+			CameraSession session = manager.getSession();
+			assertEquals("round " + i, types[i], session.scannerType);
+			assertSame(session.getFrameGeometry(types[i]), manager.getFrameGeometry());
+		}
+		switcher.join();
+		configurer.join();
+		assertTrue(failures.toString(), failures.isEmpty());
+	}
+
+	/**
+	 * The rects are left empty, the constructors of the android.jar stubs do nothing; the
+	 * geometries tell the scanner types apart.
+	 */
+	private static CameraSession session(FrameGeometry qrGeometry, FrameGeometry barGeometry) {
+		return new CameraSession(QR, new Point(1080, 1920), new Point(1080, 1440),
+				new Point(640, 480), new Rect(), new Rect(), qrGeometry, barGeometry);
+	}
+
+	private static FrameGeometry square() {
+		return new FrameGeometry(640, 480, 90, false, 120, 80, 240, 240);
+	}
+
+	private static FrameGeometry strip() {
+		return new FrameGeometry(640, 480, 90, false, 80, 170, 320, 80);
+	}
+}
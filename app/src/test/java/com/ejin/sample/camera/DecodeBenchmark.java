@@ -0,0 +1,787 @@
+package com.ejin.sample.camera;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.Result;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replays recorded frames through the same per-frame pipeline {@code DecodeHelper} runs on the
+ * device ({@link DecodeWorker#decodeFrame}): rotation, framing-rect crop, binarization and
+ * decoding. Everything from {@link DecodeWorker} down only depends on ZXing, so it runs on any
+ * JVM without a camera or the Android framework. It lives with the unit tests so it stays out of
+ * the APK:
+ * <pre>
+ * java -cp core-3.3.0.jar:&lt;app classes&gt;:&lt;unit test classes&gt; com.ejin.sample.camera.DecodeBenchmark \
+ *     [-mode all|qr|bar] [-roi] [-scans] [-budget bytes] [-frames 4] [-dual] [-rotation 90] [-iterations 20] [-warmup 5] &lt;file or directory&gt;...
+ * </pre>
+ * {@code -scans} replaces the per-frame report with scans per minute, comparing the continuous
+ * mode against stopping and restarting the decoder after every code, see {@link #runScans}.
+ * {@code -budget} replaces it with the heap held under a memory budget with {@code -frames}
+ * frame buffers wanted, 4 by default as in the frame buffer pool, see {@link #runBudget}.
+ * {@code -dual} replaces it with the time to the first read of switching between the QR and the
+ * bar code scanner against looking for both at once, see {@link #runDual}.
+ * {@code -rotate} needs no input: it times turning synthetic 1280x720 and 1920x1080 frames
+ * upright the way {@code DecodeHelper} did before {@link FrameRotator}, against the rotator, see
+ * {@link #runRotation}.
+ * <p>
+ * {@code -roi} decodes through the {@link RoiPyramid} with its default budgets, as
+ * {@code DecodeHelper.setRoiPyramidEnabled(true)} does.
+ * Two kinds of input are understood:
+ * <ul>
+ * <li>{@code *.nv21} raw preview frames as delivered by the camera, named
+ * {@code <anything>_<width>x<height>.nv21} after the sensor size. They are rotated by
+ * {@code -rotation} degrees clockwise, 90 for the usual portrait back camera.</li>
+ * <li>{@code *.pgm} binary (P5) grayscale images, already upright.</li>
+ * </ul>
+ * A file name starting with a {@link BarcodeFormat} name, such as
+ * {@code QR_CODE_parcel_1280x720.nv21}, declares what the frame holds; only a result of that
+ * format counts as a hit. Results are reported per expected format and upright frame size.
+ */
+public final class DecodeBenchmark {
+
+	private static final Pattern SIZE_PATTERN = Pattern.compile("_(\\d+)x(\\d+)\\.nv21$");
+
+	private DecodeBenchmark() {
+	}
+
+	/**
+	 * One recorded frame and what it is expected to hold.
+	 */
+	static final class Frame {
+
+		final String name;
+		final byte[] data;
+		final int width;
+		final int height;
+		final int rotation;
+		final BarcodeFormat expected;
+
+		Frame(String name, byte[] data, int width, int height, int rotation) {
+			this.name = name;
+			this.data = data;
+			this.width = width;
+			this.height = height;
+			this.rotation = rotation;
+			this.expected = parseExpectedFormat(name);
+		}
+
+		/**
+		 * The framing rect {@code CameraManager.getFramingRect()} would pick, scaled to the frame.
+		 */
+		FrameGeometry geometry(int mode) {
+			boolean swapped = rotation == 90 || rotation == 270;
+			int frameWidth = swapped ? height : width;
+			int frameHeight = swapped ? width : height;
+			int rectWidth = Math.min(frameWidth, frameHeight) / 2;
+			int rectHeight = rectWidth;
+			if (mode == DecodeMode.BAR_CODE) {
+				rectWidth = frameWidth * 2 / 3;
+				rectHeight = rectWidth / 4;
+			}
+			return new FrameGeometry(width, height, rotation, false,
+					(frameWidth - rectWidth) / 2, (frameHeight - rectHeight) / 2, rectWidth, rectHeight);
+		}
+
+		String group(FrameGeometry geometry) {
+			return (expected == null ? "ANY" : expected.name()) + ' '
+					+ geometry.getFrameWidth() + 'x' + geometry.getFrameHeight();
+		}
+	}
+
+	/**
+	 * Accumulated measurements of one group of frames.
+	 */
+	static final class Stats {
+
+		private final List<Long> latencies = new ArrayList<>();
+		private long totalNanos;
+		private long allocatedBytes;
+		private int frames;
+		private int hits;
+		private int misreads;
+
+		void add(long nanos, long allocated) {
+			latencies.add(nanos);
+			totalNanos += nanos;
+			allocatedBytes += Math.max(allocated, 0);
+		}
+
+		long percentile(double p) {
+			if (latencies.isEmpty()) {
+				return 0;
+			}
+			List<Long> sorted = new ArrayList<>(latencies);
+			Collections.sort(sorted);
+			int index = (int) Math.ceil(p * sorted.size()) - 1;
+			return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+		}
+
+		double decodesPerSecond() {
+			return totalNanos == 0 ? 0 : latencies.size() * 1e9 / totalNanos;
+		}
+
+		double allocationMbPerSecond() {
+			return totalNanos == 0 ? 0 : allocatedBytes * 1e9 / totalNanos / (1024 * 1024);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int mode = DecodeMode.ALL;
+		int rotation = 90;
+		int iterations = 20;
+		int warmup = 5;
+		RoiPyramid pyramid = null;
+		boolean scans = false;
+		long budget = 0;
+		int frameBuffers = 4;
+		boolean dual = false;
+		boolean rotate = false;
+		List<File> inputs = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("-mode".equals(arg)) {
+				mode = parseMode(args[++i]);
+			} else if ("-roi".equals(arg)) {
+				pyramid = new RoiPyramid(RoiPyramid.DEFAULT_FRAMING_RECT_BUDGET_MS,
+						RoiPyramid.DEFAULT_DOWNSAMPLED_BUDGET_MS, RoiPyramid.DEFAULT_TILES_BUDGET_MS);
+			} else if ("-scans".equals(arg)) {
+				scans = true;
+			} else if ("-budget".equals(arg)) {
+				budget = Long.parseLong(args[++i]);
+			} else if ("-frames".equals(arg)) {
+				frameBuffers = Integer.parseInt(args[++i]);
+			} else if ("-dual".equals(arg)) {
+				dual = true;
+			} else if ("-rotate".equals(arg)) {
+				rotate = true;
+			} else if ("-rotation".equals(arg)) {
+				rotation = Integer.parseInt(args[++i]);
+			} else if ("-iterations".equals(arg)) {
+				iterations = Integer.parseInt(args[++i]);
+			} else if ("-warmup".equals(arg)) {
+				warmup = Integer.parseInt(args[++i]);
+			} else {
+				inputs.add(new File(arg));
+			}
+		}
+		if (rotate) {
+			runRotation(mode, iterations, warmup);
+			return;
+		}
+		List<Frame> frames = new ArrayList<>();
+		for (File input : inputs) {
+			loadFrames(input, rotation, frames);
+		}
+		if (frames.isEmpty()) {
+			System.err.println("Usage: DecodeBenchmark [-mode all|qr|bar] [-roi] [-scans] [-budget bytes] [-frames n] [-dual] [-rotate] "
+					+ "[-rotation degrees] [-iterations n] [-warmup n] <file or directory>...");
+			System.exit(1);
+		}
+		if (scans) {
+			runScans(frames, mode, iterations, warmup);
+		} else if (budget > 0) {
+			runBudget(frames, mode, pyramid != null, budget, frameBuffers);
+		} else if (dual) {
+			runDual(frames, pyramid, iterations, warmup);
+		} else {
+			report(run(frames, mode, pyramid, iterations, warmup));
+		}
+	}
+
+	/**
+	 * Decodes every frame {@code warmup + iterations} times on the calling thread, timing the last
+	 * {@code iterations} decodes.
+	 *
+	 * @param pyramid searches beyond the framing rect when given, may be {@code null}.
+	 */
+	static Map<String, Stats> run(List<Frame> frames, int mode, RoiPyramid pyramid,
+								  int iterations, int warmup) {
+		Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+		hints.put(DecodeHintType.POSSIBLE_FORMATS, new ArrayList<>(DecodeFormatManager.DEFAULT_FORMATS));
+		DecodeWorker worker = new DecodeWorker(hints);
+
+		Map<String, Stats> stats = new TreeMap<>();
+		for (Frame frame : frames) {
+			FrameGeometry geometry = frame.geometry(mode);
+			Stats group = stats.get(frame.group(geometry));
+			if (group == null) {
+				group = new Stats();
+				stats.put(frame.group(geometry), group);
+			}
+			group.frames++;
+			Result result = null;
+			for (int i = 0; i < warmup; i++) {
+				result = decodeFrame(worker, pyramid, frame.data, geometry, mode);
+			}
+			for (int i = 0; i < iterations; i++) {
+				long allocatedBefore = allocatedBytes();
+				long start = System.nanoTime();
+				result = decodeFrame(worker, pyramid, frame.data, geometry, mode);
+				long nanos = System.nanoTime() - start;
+				group.add(nanos, allocatedBytes() - allocatedBefore);
+			}
+			if (result != null) {
+				if (frame.expected == null || frame.expected == result.getBarcodeFormat()) {
+					group.hits++;
+				} else {
+					group.misreads++;
+				}
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Replays the frames {@code iterations} times as a stream of parcels, each pass with new
+	 * labels, and prints how many codes per minute each way of scanning reports:
+	 * <ul>
+	 * <li>restarting: every parcel gets a new thread pool and worker, which are torn down with
+	 * {@code shutdownNow()} and {@code System.gc()} once it is read, as {@code DecodeHelper} did
+	 * before it could pause;</li>
+	 * <li>continuous: one pool and one worker per thread for the whole run, every code going
+	 * through the {@link ResultDeduplicator}.</li>
+	 * </ul>
+	 * Restarting the camera preview is not part of it, so on a device the gap is wider.
+	 */
+	static void runScans(List<Frame> frames, final int mode, int iterations, int warmup) {
+		final Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+		hints.put(DecodeHintType.POSSIBLE_FORMATS, new ArrayList<>(DecodeFormatManager.DEFAULT_FORMATS));
+		int workerCount = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+		for (int i = 0; i < warmup; i++) {
+			scanRestarting(frames, mode, hints, workerCount, 1);
+		}
+		long start = System.nanoTime();
+		int restartingScans = scanRestarting(frames, mode, hints, workerCount, iterations);
+		long restartingNanos = System.nanoTime() - start;
+
+		ExecutorService pool = Executors.newFixedThreadPool(workerCount);
+		final ThreadLocal<DecodeWorker> workers = new ThreadLocal<DecodeWorker>() {
+			@Override
+			protected DecodeWorker initialValue() {
+				return new DecodeWorker(hints);
+			}
+		};
+		ResultDeduplicator deduplicator = new ResultDeduplicator(
+				ResultDeduplicator.DEFAULT_WINDOW_MS, ResultDeduplicator.DEFAULT_MAX_ENTRIES);
+		int continuousScans = 0;
+		try {
+			for (int i = 0; i < warmup; i++) {
+				scanContinuous(frames, mode, pool, workers, deduplicator, -1 - i);
+			}
+			start = System.nanoTime();
+			for (int pass = 0; pass < iterations; pass++) {
+				continuousScans += scanContinuous(frames, mode, pool, workers, deduplicator, pass);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		long continuousNanos = System.nanoTime() - start;
+
+		System.out.println(String.format(Locale.US, "%-12s %8s %10s", "scanning", "codes", "scans/min"));
+		System.out.println(String.format(Locale.US, "%-12s %8d %10.0f", "restarting",
+				restartingScans, restartingScans * 60e9 / restartingNanos));
+		System.out.println(String.format(Locale.US, "%-12s %8d %10.0f", "continuous",
+				continuousScans, continuousScans * 60e9 / continuousNanos));
+	}
+
+	/**
+	 * For the first frame of every group, fits the frame pool and one worker per core
+	 * into {@code budget} as {@code DecodeHelper.setMemoryBudget(long)} does, holds that many
+	 * frame buffers and workers with every worker having decoded the frame, and prints the heap
+	 * they keep, measured after a full collection, next to the plan's estimate. The last column
+	 * is what is left once the workers are trimmed and the buffers let go of, as on pause.
+	 */
+	static void runBudget(List<Frame> frames, int mode, boolean roiPyramid, long budget,
+						  int frameBuffers) {
+		Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+		hints.put(DecodeHintType.POSSIBLE_FORMATS, new ArrayList<>(DecodeFormatManager.DEFAULT_FORMATS));
+		int workerCount = Math.max(1, Runtime.getRuntime().availableProcessors());
+		RoiPyramid pyramid = new RoiPyramid(RoiPyramid.DEFAULT_FRAMING_RECT_BUDGET_MS,
+				RoiPyramid.DEFAULT_DOWNSAMPLED_BUDGET_MS, RoiPyramid.DEFAULT_TILES_BUDGET_MS);
+
+		System.out.println(String.format(Locale.US, "%-24s %-46s %10s %10s %10s",
+				"group", "plan", "est KiB", "held KiB", "paused KiB"));
+		List<String> seen = new ArrayList<>();
+		for (Frame frame : frames) {
+			FrameGeometry geometry = frame.geometry(mode);
+			String group = frame.group(geometry);
+			if (seen.contains(group)) {
+				continue;
+			}
+			seen.add(group);
+			MemoryBudget plan = MemoryBudget.fit(budget, frame.data.length, geometry,
+					frameBuffers, workerCount, roiPyramid, false);
+
+			long baseline = usedHeapAfterGc();
+			List<byte[]> buffers = new ArrayList<>();
+			for (int i = 0; i < plan.frameBuffers; i++) {
+				buffers.add(new byte[frame.data.length]);
+			}
+			List<DecodeWorker> workers = new ArrayList<>();
+			for (int i = 0; i < plan.workers; i++) {
+				DecodeWorker worker = new DecodeWorker(hints);
+				decodeFrame(worker, plan.roiPyramid ? pyramid : null, frame.data, geometry, mode);
+				workers.add(worker);
+			}
+			long held = usedHeapAfterGc() - baseline;
+			for (DecodeWorker worker : workers) {
+				worker.trim();
+			}
+			buffers.clear();
+			long paused = usedHeapAfterGc() - baseline;
+			System.out.println(String.format(Locale.US, "%-24s %-46s %10d %10d %10d", group, plan,
+					plan.bytes / 1024, held / 1024, paused / 1024));
+			// Keeps the workers reachable until measured
+			workers.clear();
+		}
+	}
+
+	/**
+	 * Prints the median, mean and 90th percentile time from a code coming into view to it being read,
+	 * per group, for two ways of scanning for both kinds of code:
+	 * <ul>
+	 * <li>toggling: the QR code and the bar code scanner take turns every
+	 * {@value #TOGGLE_INTERVAL_MS} ms as {@code BarcodeScannerView.autoSwitchScaner()} used to, the
+	 * code coming into view at {@value #TOGGLE_PHASES} evenly spread points of the cycle;</li>
+	 * <li>dual: every frame is tried against both framing rects by {@link DualModeDecoder}.</li>
+	 * </ul>
+	 * One worker decodes the newest frame of a {@value #FRAME_INTERVAL_MS} ms preview each time it
+	 * is free, a decode taking the median of {@code iterations} timed runs of the frame. A code
+	 * not read within {@value #GIVE_UP_MS} ms counts as missed and is left out of the times.
+	 */
+	static void runDual(List<Frame> frames, RoiPyramid pyramid, int iterations, int warmup) {
+		Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+		hints.put(DecodeHintType.POSSIBLE_FORMATS, new ArrayList<>(DecodeFormatManager.DEFAULT_FORMATS));
+		DecodeWorker worker = new DecodeWorker(hints);
+		Map<String, List<Long>> toggling = new TreeMap<>();
+		Map<String, List<Long>> dual = new TreeMap<>();
+		Map<String, int[]> attempts = new TreeMap<>();
+		for (Frame frame : frames) {
+			FrameGeometry qrCode = frame.geometry(DecodeMode.QR_CODE);
+			FrameGeometry barCode = frame.geometry(DecodeMode.BAR_CODE);
+			String group = frame.group(qrCode);
+			if (!attempts.containsKey(group)) {
+				toggling.put(group, new ArrayList<Long>());
+				dual.put(group, new ArrayList<Long>());
+				attempts.put(group, new int[2]);
+			}
+			DualAttempt[] byMode = {
+					timeDual(worker, pyramid, frame, qrCode, null, qrCode, iterations, warmup),
+					timeDual(worker, pyramid, frame, null, barCode, qrCode, iterations, warmup)
+			};
+			DualAttempt both = timeDual(worker, pyramid, frame, qrCode, barCode, qrCode, iterations,
+					warmup);
+			long cycle = 2 * TOGGLE_INTERVAL_MS * 1000000L;
+			for (int phase = 0; phase < TOGGLE_PHASES; phase++) {
+				long offset = cycle * phase / TOGGLE_PHASES;
+				addIfRead(toggling.get(group), firstRead(byMode, offset));
+			}
+			addIfRead(dual.get(group), firstRead(new DualAttempt[]{both}, 0));
+			attempts.get(group)[0] += TOGGLE_PHASES;
+			attempts.get(group)[1]++;
+		}
+		System.out.println(String.format(Locale.US, "%-24s %-9s %8s %10s %10s %10s",
+				"group", "scanning", "read", "p50 ms", "mean ms", "p90 ms"));
+		for (String group : attempts.keySet()) {
+			printFirstReads(group, "toggling", toggling.get(group), attempts.get(group)[0]);
+			printFirstReads(group, "dual", dual.get(group), attempts.get(group)[1]);
+		}
+	}
+
+	private static final long TOGGLE_INTERVAL_MS = 2500;
+	private static final int TOGGLE_PHASES = 20;
+	private static final long FRAME_INTERVAL_MS = 33;
+	private static final long GIVE_UP_MS = 10000;
+
+	/**
+	 * How long decoding a frame one way takes, and whether it reads the expected code.
+	 */
+	private static final class DualAttempt {
+
+		final long nanos;
+		final boolean read;
+
+		DualAttempt(long nanos, boolean read) {
+			this.nanos = nanos;
+			this.read = read;
+		}
+	}
+
+	private static DualAttempt timeDual(DecodeWorker worker, RoiPyramid pyramid, Frame frame,
+										FrameGeometry qrCode, FrameGeometry barCode,
+										FrameGeometry target, int iterations, int warmup) {
+		Result result = null;
+		for (int i = 0; i < warmup; i++) {
+			result = DualModeDecoder.decode(worker, frame.data, qrCode, barCode, target, pyramid,
+					System.nanoTime());
+		}
+		long[] nanos = new long[Math.max(iterations, 1)];
+		for (int i = 0; i < nanos.length; i++) {
+			long start = System.nanoTime();
+			result = DualModeDecoder.decode(worker, frame.data, qrCode, barCode, target, pyramid, start);
+			nanos[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(nanos);
+		boolean read = result != null
+				&& (frame.expected == null || frame.expected == result.getBarcodeFormat());
+		return new DualAttempt(nanos[nanos.length / 2], read);
+	}
+
+	/**
+	 * @param attempts one per scanner type, taking turns every {@value #TOGGLE_INTERVAL_MS} ms.
+	 * @param offset   where in the toggle cycle the code comes into view.
+	 * @return nanoseconds from the code coming into view to it being read, -1 if it never is.
+	 */
+	private static long firstRead(DualAttempt[] attempts, long offset) {
+		long frameInterval = FRAME_INTERVAL_MS * 1000000L;
+		long toggleInterval = TOGGLE_INTERVAL_MS * 1000000L;
+		long now = 0;
+		while (now < GIVE_UP_MS * 1000000L) {
+			DualAttempt attempt = attempts[(int) ((offset + now) / toggleInterval % attempts.length)];
+			now += attempt.nanos;
+			if (attempt.read) {
+				return now;
+			}
+			// Waits for the next preview frame
+			now = (now + frameInterval - 1) / frameInterval * frameInterval;
+		}
+		return -1;
+	}
+
+	private static void addIfRead(List<Long> times, long nanos) {
+		if (nanos >= 0) {
+			times.add(nanos);
+		}
+	}
+
+	private static void printFirstReads(String group, String scanning, List<Long> times, int attempts) {
+		Collections.sort(times);
+		long total = 0;
+		for (long nanos : times) {
+			total += nanos;
+		}
+		System.out.println(String.format(Locale.US, "%-24s %-9s %8s %10s %10s %10s", group, scanning,
+				times.size() + "/" + attempts, millis(times.isEmpty() ? -1 : pick(times, 0.5)),
+				millis(times.isEmpty() ? -1 : total / times.size()),
+				millis(times.isEmpty() ? -1 : pick(times, 0.9))));
+	}
+
+	private static final int[][] ROTATION_SIZES = {{1280, 720}, {1920, 1080}};
+
+	/**
+	 * Turns a synthetic frame of each of {@link #ROTATION_SIZES} upright, as the usual portrait
+	 * back camera needs, {@code warmup + iterations} times each way, and prints the median and
+	 * mean time of the last {@code iterations} and the bytes allocated per frame:
+	 * <ul>
+	 * <li>full frame: the loop {@code DecodeHelper} ran before {@link FrameRotator}, column by
+	 * column over the whole frame into a new array the size of the frame;</li>
+	 * <li>full frame tiled: {@link FrameRotator} with the whole frame as crop, which tells the
+	 * tiling apart from the crop;</li>
+	 * <li>framing rect: {@link FrameRotator} with the framing rect of {@code mode}, as decoding
+	 * does.</li>
+	 * </ul>
+	 */
+	static void runRotation(int mode, int iterations, int warmup) {
+		System.out.println(String.format(Locale.US, "%-10s %-17s %8s %8s %10s",
+				"sensor", "rotating", "p50 ms", "mean ms", "alloc KiB"));
+		for (int[] size : ROTATION_SIZES) {
+			int width = size[0];
+			int height = size[1];
+			byte[] data = new byte[width * height * 3 / 2];
+			new Random(width).nextBytes(data);
+			String sensor = width + "x" + height;
+			FrameGeometry full = new FrameGeometry(width, height, 90, false, 0, 0, height, width);
+			FrameGeometry rect = new Frame(sensor, data, width, height, 90).geometry(mode);
+
+			timeRotation(sensor, "full frame", null, data, full, iterations, warmup);
+			timeRotation(sensor, "full frame tiled", new FrameRotator(), data, full, iterations,
+					warmup);
+			timeRotation(sensor, "framing rect", new FrameRotator(), data, rect, iterations, warmup);
+		}
+	}
+
+	/**
+	 * @param rotator turns the crop of {@code geometry}, {@code null} for the old full-frame loop.
+	 */
+	private static void timeRotation(String sensor, String rotating, FrameRotator rotator,
+									 byte[] data, FrameGeometry geometry, int iterations,
+									 int warmup) {
+		for (int i = 0; i < warmup; i++) {
+			rotate(rotator, data, geometry);
+		}
+		List<Long> times = new ArrayList<>();
+		long total = 0;
+		long allocated = 0;
+		for (int i = 0; i < Math.max(iterations, 1); i++) {
+			long allocatedBefore = allocatedBytes();
+			long start = System.nanoTime();
+			rotate(rotator, data, geometry);
+			long nanos = System.nanoTime() - start;
+			allocated += allocatedBytes() - allocatedBefore;
+			times.add(nanos);
+			total += nanos;
+		}
+		Collections.sort(times);
+		System.out.println(String.format(Locale.US, "%-10s %-17s %8s %8s %10s", sensor, rotating,
+				millis(pick(times, 0.5)), millis(total / times.size()),
+				allocatedBytes() < 0 ? "n/a" : String.valueOf(allocated / times.size() / 1024)));
+	}
+
+	private static byte[] rotate(FrameRotator rotator, byte[] data, FrameGeometry geometry) {
+		if (rotator != null) {
+			return rotator.rotateCrop(data, geometry);
+		}
+		// Upright, the frame is as wide as the sensor is high
+		int width = geometry.sensorHeight;
+		int height = geometry.sensorWidth;
+		byte[] rotatedData = new byte[data.length];
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++)
+				rotatedData[y * width + width - x - 1] = data[y + x * height];
+		}
+		return rotatedData;
+	}
+
+	private static String millis(long nanos) {
+		return nanos < 0 ? "-" : String.format(Locale.US, "%.1f", nanos / 1e6);
+	}
+
+	private static long pick(List<Long> sorted, double p) {
+		int index = (int) Math.ceil(p * sorted.size()) - 1;
+		return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+	}
+
+	private static long usedHeapAfterGc() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static int scanRestarting(List<Frame> frames, final int mode,
+									  final Map<DecodeHintType, Object> hints, int workerCount,
+									  int passes) {
+		int scans = 0;
+		for (int pass = 0; pass < passes; pass++) {
+			for (final Frame frame : frames) {
+				ExecutorService pool = Executors.newFixedThreadPool(workerCount);
+				try {
+					Result result = pool.submit(new Callable<Result>() {
+						@Override
+						public Result call() {
+							return new DecodeWorker(hints).decodeFrame(frame.data, frame.geometry(mode), mode);
+						}
+					}).get();
+					if (result != null) {
+						scans++;
+					}
+				} catch (InterruptedException | ExecutionException e) {
+					throw new IllegalStateException(e);
+				} finally {
+					pool.shutdownNow();
+					System.gc();
+				}
+			}
+		}
+		return scans;
+	}
+
+	private static int scanContinuous(List<Frame> frames, final int mode, ExecutorService pool,
+									  final ThreadLocal<DecodeWorker> workers,
+									  ResultDeduplicator deduplicator, int pass) {
+		int scans = 0;
+		for (final Frame frame : frames) {
+			Result result;
+			try {
+				result = pool.submit(new Callable<Result>() {
+					@Override
+					public Result call() {
+						return workers.get().decodeFrame(frame.data, frame.geometry(mode), mode);
+					}
+				}).get();
+			} catch (InterruptedException | ExecutionException e) {
+				throw new IllegalStateException(e);
+			}
+			// Every pass stands for new parcels, so their codes are not repeats
+			if (result != null && deduplicator.offer(pass + ":" + result.getBarcodeFormat() + ":"
+					+ result.getText(), System.nanoTime())) {
+				scans++;
+			}
+		}
+		return scans;
+	}
+
+	private static Result decodeFrame(DecodeWorker worker, RoiPyramid pyramid, byte[] data,
+									  FrameGeometry geometry, int mode) {
+		return pyramid == null
+				? worker.decodeFrame(data, geometry, mode)
+				: pyramid.decode(worker, data, geometry, mode, System.nanoTime());
+	}
+
+	private static void report(Map<String, Stats> stats) {
+		System.out.println(String.format(Locale.US, "%-24s %6s %8s %8s %8s %10s %8s %9s",
+				"group", "frames", "dec/s", "p50 ms", "p99 ms", "alloc MB/s", "hit rate", "misreads"));
+		for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+			Stats s = entry.getValue();
+			System.out.println(String.format(Locale.US, "%-24s %6d %8.1f %8.2f %8.2f %10s %7.1f%% %9d",
+					entry.getKey(), s.frames, s.decodesPerSecond(), s.percentile(0.5) / 1e6,
+					s.percentile(0.99) / 1e6,
+					allocatedBytes() < 0 ? "n/a" : String.format(Locale.US, "%.1f", s.allocationMbPerSecond()),
+					100.0 * s.hits / s.frames, s.misreads));
+		}
+	}
+
+	private static int parseMode(String mode) {
+		if ("qr".equals(mode)) {
+			return DecodeMode.QR_CODE;
+		} else if ("bar".equals(mode)) {
+			return DecodeMode.BAR_CODE;
+		} else if ("all".equals(mode)) {
+			return DecodeMode.ALL;
+		}
+		throw new IllegalArgumentException("Unknown mode: " + mode);
+	}
+
+	static void loadFrames(File input, int rotation, List<Frame> frames) throws IOException {
+		if (input.isDirectory()) {
+			File[] files = input.listFiles();
+			if (files != null) {
+				Arrays.sort(files);
+				for (File file : files) {
+					loadFrames(file, rotation, frames);
+				}
+			}
+			return;
+		}
+		String name = input.getName();
+		Matcher matcher = SIZE_PATTERN.matcher(name);
+		if (matcher.find()) {
+			int width = Integer.parseInt(matcher.group(1));
+			int height = Integer.parseInt(matcher.group(2));
+			byte[] data = readFully(input);
+			if (data.length < width * height) {
+				throw new IOException(name + " is smaller than " + width + 'x' + height);
+			}
+			frames.add(new Frame(name, data, width, height, rotation));
+		} else if (name.endsWith(".pgm")) {
+			frames.add(readPgm(input));
+		}
+	}
+
+	/**
+	 * Reads a binary grayscale PGM, which is a luminance plane preceded by a small text header.
+	 */
+	private static Frame readPgm(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			if (!"P5".equals(readPgmToken(in))) {
+				throw new IOException(file.getName() + " is not a binary PGM");
+			}
+			int width = Integer.parseInt(readPgmToken(in));
+			int height = Integer.parseInt(readPgmToken(in));
+			int maxValue = Integer.parseInt(readPgmToken(in));
+			if (maxValue > 255) {
+				throw new IOException(file.getName() + " has more than 8 bits per pixel");
+			}
+			byte[] data = new byte[width * height];
+			in.readFully(data);
+			return new Frame(file.getName(), data, width, height, 0);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static String readPgmToken(InputStream in) throws IOException {
+		StringBuilder token = new StringBuilder();
+		int c;
+		while ((c = in.read()) != -1) {
+			if (c == '#') {
+				while (c != -1 && c != '\n') {
+					c = in.read();
+				}
+			} else if (Character.isWhitespace(c)) {
+				if (token.length() > 0) {
+					break;
+				}
+			} else {
+				token.append((char) c);
+			}
+		}
+		return token.toString();
+	}
+
+	private static byte[] readFully(File file) throws IOException {
+		byte[] data = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.readFully(data);
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+
+	static BarcodeFormat parseExpectedFormat(String name) {
+		BarcodeFormat best = null;
+		for (BarcodeFormat format : BarcodeFormat.values()) {
+			if (name.startsWith(format.name())
+					&& (best == null || format.name().length() > best.name().length())) {
+				best = format;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Bytes allocated by the current thread, read through {@code com.sun.management} when the VM
+	 * offers it, or -1 elsewhere (such as on Android).
+	 */
+	static long allocatedBytes() {
+		if (threadMXBean == null) {
+			return -1;
+		}
+		try {
+			return (Long) getThreadAllocatedBytes.invoke(threadMXBean, Thread.currentThread().getId());
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	private static Object threadMXBean;
+	private static Method getThreadAllocatedBytes;
+
+	static {
+		try {
+			Class<?> factory = Class.forName("java.lang.management.ManagementFactory");
+			getThreadAllocatedBytes = Class.forName("com.sun.management.ThreadMXBean")
+					.getMethod("getThreadAllocatedBytes", long.class);
+			threadMXBean = factory.getMethod("getThreadMXBean").invoke(null);
+		} catch (Exception e) {
+			threadMXBean = null;
+		}
+	}
+}
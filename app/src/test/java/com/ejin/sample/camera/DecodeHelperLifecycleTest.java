@@ -0,0 +1,151 @@
+package com.ejin.sample.camera;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Starting and pausing a {@link DecodeHelper} over and over must reuse its threads, readers and
+ * frame buffers rather than leak them.
+ */
+public class DecodeHelperLifecycleTest {
+
+	private static final int CYCLES = 1000;
+	private static final int WIDTH = 320;
+	private static final int HEIGHT = 240;
+
+	private final byte[] qrFrame = TestFrames.qrCode("lifecycle", WIDTH, HEIGHT, 60, 20, 5);
+	private final Semaphore results = new Semaphore(0);
+	private final AtomicInteger resultCount = new AtomicInteger();
+	private CameraManager manager;
+	private FakePreview preview;
+	private DecodeHelper helper;
+
+	@Before
+	public void setUp() {
+		manager = new CameraManager(mock(Context.class));
+		preview = new FakePreview(manager, WIDTH, HEIGHT, 40, 0, 240, 240);
+		helper = new DecodeHelper(manager);
+		// Every frame handed over is decoded
+		helper.setFrameInterval(0);
+		helper.setDecodeResultListener(new DecodeResultListener() {
+			@Override
+			public void onResult(DecodeResult result) {
+				assertEquals("lifecycle", result.getText());
+				resultCount.incrementAndGet();
+				results.release();
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		helper.close();
+	}
+
+	@Test
+	public void startAndPauseReuseThreadsAndBuffers() throws InterruptedException {
+		FrameBufferPool pool = null;
+		int threads = 0;
+		long heap = 0;
+		for (int cycle = 0; cycle < CYCLES; cycle++) {
+			helper.start();
+			assertNotNull(manager.getPreviewCallbackWithBuffer());
+			pool = manager.getFrameBufferPool();
+			preview.attach();
+			assertEquals("cycle " + cycle, FrameBufferPool.DEFAULT_POOL_SIZE,
+					preview.getQueuedBufferCount());
+			assertTrue(preview.deliver(qrFrame));
+			if (cycle % 2 == 0) {
+				// Reading a code pauses the helper
+				assertTrue("No code in cycle " + cycle, results.tryAcquire(10, TimeUnit.SECONDS));
+				awaitIdle();
+				assertNull(manager.getPreviewCallbackWithBuffer());
+			} else {
+				// Paused while the frame is decoded; its code may or may not be reported
+				helper.pause();
+				assertNull(manager.getPreviewCallbackWithBuffer());
+				awaitIdle();
+				results.drainPermits();
+			}
+			assertEquals(0, helper.getQueueDepth());
+
+			if (cycle == 100) {
+				threads = Thread.activeCount();
+				heap = usedHeap();
+			}
+		}
+
+		assertEquals(FrameBufferPool.DEFAULT_POOL_SIZE, pool.getAllocationCount());
+		assertTrue("Threads grew from " + threads + " to " + Thread.activeCount(),
+				Thread.activeCount() <= threads);
+		long grown = usedHeap() - heap;
+		assertTrue("Heap grew by " + grown + " bytes", grown < 8 * 1024 * 1024);
+		assertTrue(resultCount.get() >= CYCLES / 2 && resultCount.get() <= CYCLES);
+		assertEquals(CYCLES, helper.getReceivedFrameCount());
+	}
+
+	@Test
+	public void frameAfterPauseIsNotDecoded() throws InterruptedException {
+		helper.start();
+		preview.attach();
+		helper.pause();
+
+		assertFalse(preview.deliver(qrFrame));
+		assertEquals(0, helper.getReceivedFrameCount());
+
+		helper.resume();
+		preview.attach();
+		assertTrue(preview.deliver(qrFrame));
+		assertTrue(results.tryAcquire(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void closeIsFinal() {
+		helper.start();
+		helper.close();
+
+		assertTrue(helper.isClosed());
+		assertNull(manager.getPreviewCallbackWithBuffer());
+		try {
+			helper.start();
+			fail("Started after close");
+		} catch (IllegalStateException expected) {
+			// Closed for good
+		}
+		// Closing again does nothing
+		helper.close();
+	}
+
+	private void awaitIdle() throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (helper.getQueueDepth() > 0) {
+			if (System.nanoTime() > deadline) {
+				fail("Frames still queued: " + helper.getQueueDepth());
+			}
+			Thread.sleep(1);
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
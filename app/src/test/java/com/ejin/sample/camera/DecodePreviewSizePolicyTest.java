@@ -0,0 +1,129 @@
+package com.ejin.sample.camera;
+
+import android.content.Context;
+import android.graphics.Point;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class DecodePreviewSizePolicyTest {
+
+	// What a typical back camera offers, in sensor orientation
+	private final List<Point> sizes = sizes(1920, 1080, 1440, 1080, 1280, 960, 1280, 720, 960, 540,
+			800, 600, 640, 480, 352, 288, 320, 240, 176, 144);
+
+	@Test
+	public void defaultNeedsA342PixelShortSide() {
+		// 57 modules, 3 pixels each, across half the shorter side
+		assertEquals(342, new DecodePreviewSizePolicy().getMinShortSide());
+	}
+
+	@Test
+	public void smallestLargeEnoughSizeOfTheViewsAspectRatio() {
+		DecodePreviewSizePolicy policy = new DecodePreviewSizePolicy();
+
+		// 16:9 portrait view: 960x540 rather than 1280x720 or 1920x1080
+		assertSize(960, 540, policy.select(sizes, new Point(1080, 1920)));
+		// 4:3 landscape view: 640x480, 320x240 being too small
+		assertSize(640, 480, policy.select(sizes, new Point(1024, 768)));
+	}
+
+	@Test
+	public void denserCodesNeedLargerSizes() {
+		// 177 modules across a version 40 QR code: 1062 pixels
+		DecodePreviewSizePolicy policy = new DecodePreviewSizePolicy(177, 3f, 0.5f);
+
+		assertSize(1920, 1080, policy.select(sizes, new Point(1080, 1920)));
+		// A framing rect across the whole view halves that
+		assertSize(960, 540, new DecodePreviewSizePolicy(177, 3f, 1f)
+				.select(sizes, new Point(1080, 1920)));
+	}
+
+	@Test
+	public void largestOfTheAspectRatioIfNoneIsLargeEnough() {
+		DecodePreviewSizePolicy policy = new DecodePreviewSizePolicy(400, 4f, 0.5f);
+
+		assertSize(1440, 1080, policy.select(sizes, new Point(768, 1024)));
+	}
+
+	@Test
+	public void otherAspectRatiosAreNeverChosen() {
+		List<Point> wide = sizes(1920, 1080, 1280, 720);
+
+		assertNull(new DecodePreviewSizePolicy().select(wide, new Point(1024, 768)));
+		assertNull(new DecodePreviewSizePolicy().select(new ArrayList<Point>(),
+				new Point(1024, 768)));
+	}
+
+	@Test
+	public void sizeChosenIsOneOfThoseOffered() {
+		Point offered = new Point(800, 600);
+		List<Point> sizes = new ArrayList<>();
+		sizes.add(offered);
+
+		assertSame(offered, new DecodePreviewSizePolicy().select(sizes, new Point(600, 800)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void framingRectLargerThanTheViewIsRejected() {
+		new DecodePreviewSizePolicy(57, 3f, 1.5f);
+	}
+
+	@Test
+	public void cacheKeyFollowsTheSettings() {
+		assertEquals(new DecodePreviewSizePolicy().cacheKey(),
+				new DecodePreviewSizePolicy(57, 3f, 0.5f).cacheKey());
+		assertFalse(new DecodePreviewSizePolicy().cacheKey()
+				.equals(new DecodePreviewSizePolicy(57, 2.5f, 0.5f).cacheKey()));
+	}
+
+	@Test
+	public void configurationIsCachedPerPolicy() {
+		CameraConfigurationManager manager = new CameraConfigurationManager(mock(Context.class));
+		String withoutPolicy = manager.buildCacheKey(0, 1080, 1920, 90);
+
+		manager.setPreviewSizePolicy(new DecodePreviewSizePolicy());
+		String withPolicy = manager.buildCacheKey(0, 1080, 1920, 90);
+
+		assertTrue(withPolicy.startsWith(withoutPolicy));
+		assertFalse(withPolicy.equals(withoutPolicy));
+		manager.setPreviewSizePolicy(new DecodePreviewSizePolicy(57, 2.5f, 0.5f));
+		assertFalse(withPolicy.equals(manager.buildCacheKey(0, 1080, 1920, 90)));
+
+		// A policy without a stable key is not cached at all
+		manager.setPreviewSizePolicy(new PreviewSizePolicy() {
+			@Override
+			public Point select(List<Point> supportedSizes, Point screenResolution) {
+				return null;
+			}
+
+			@Override
+			public String cacheKey() {
+				return null;
+			}
+		});
+		assertNull(manager.buildCacheKey(0, 1080, 1920, 90));
+	}
+
+	private static void assertSize(int width, int height, Point size) {
+		assertEquals(width + "x" + height, width, size.x);
+		assertEquals(width + "x" + height, height, size.y);
+	}
+
+	private static List<Point> sizes(int... dimensions) {
+		List<Point> sizes = new ArrayList<>();
+		for (int i = 0; i < dimensions.length; i += 2) {
+			sizes.add(new Point(dimensions[i], dimensions[i + 1]));
+		}
+		return sizes;
+	}
+}
@@ -0,0 +1,219 @@
+package com.ejin.sample.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds {@link DecodeRateController} whole windows of decodes of one latency, with the default
+ * target of 100 ms.
+ */
+public class DecodeRateControllerTest {
+
+	private static final long MS = 1000000L;
+	private static final long SLOW = 200 * MS;
+	private static final long FAST = 20 * MS;
+
+	private long dropped;
+
+	@Test
+	public void startsWithTheInitialConcurrencyAndEveryFrame() {
+		DecodeRateController controller = new DecodeRateController(4, 2);
+
+		assertEquals(2, controller.getConcurrency());
+		assertEquals(0, controller.getFrameIntervalNanos());
+		assertEquals(4, new DecodeRateController(4, 9).getConcurrency());
+		assertEquals(1, new DecodeRateController(4, 0).getConcurrency());
+	}
+
+	@Test
+	public void nothingChangesWithinAWindow() {
+		DecodeRateController controller = new DecodeRateController(4, 3);
+		for (int i = 1; i < DecodeRateController.WINDOW; i++) {
+			assertFalse(controller.onDecodeFinished(SLOW, false, 0));
+		}
+
+		assertEquals(3, controller.getConcurrency());
+		assertEquals(0, controller.getLatencyNanos());
+		assertTrue(controller.onDecodeFinished(SLOW, false, 0));
+		assertEquals(SLOW, controller.getLatencyNanos());
+	}
+
+	@Test
+	public void slowWindowsLowerConcurrencyThenTakeFewerFrames() {
+		DecodeRateController controller = new DecodeRateController(4, 2);
+
+		assertTrue(window(controller, SLOW, false));
+		assertEquals(1, controller.getConcurrency());
+
+		assertFalse(window(controller, SLOW, false));
+		assertEquals(DecodeRateController.MIN_FRAME_INTERVAL_MS * MS,
+				controller.getFrameIntervalNanos());
+		window(controller, SLOW, false);
+		assertEquals(2 * DecodeRateController.MIN_FRAME_INTERVAL_MS * MS,
+				controller.getFrameIntervalNanos());
+		for (int i = 0; i < 10; i++) {
+			window(controller, SLOW, false);
+		}
+		assertEquals(DecodeRateController.MAX_FRAME_INTERVAL_MS * MS,
+				controller.getFrameIntervalNanos());
+	}
+
+	@Test
+	public void fastWindowsTakeEveryFrameThenRaiseConcurrency() {
+		DecodeRateController controller = new DecodeRateController(3, 1);
+		window(controller, SLOW, false);
+		window(controller, SLOW, false);
+		assertEquals(2 * DecodeRateController.MIN_FRAME_INTERVAL_MS * MS,
+				controller.getFrameIntervalNanos());
+
+		dropped++;
+		assertFalse(window(controller, FAST, true));
+		assertEquals(DecodeRateController.MIN_FRAME_INTERVAL_MS * MS,
+				controller.getFrameIntervalNanos());
+		dropped++;
+		assertFalse(window(controller, FAST, true));
+		// Under the smallest step every frame is taken
+		assertEquals(0, controller.getFrameIntervalNanos());
+
+		dropped++;
+		assertTrue(window(controller, FAST, true));
+		assertEquals(2, controller.getConcurrency());
+		dropped++;
+		window(controller, FAST, true);
+		dropped++;
+		window(controller, FAST, true);
+		// Not past the number of cores
+		assertEquals(3, controller.getConcurrency());
+	}
+
+	@Test
+	public void concurrencyRisesOnlyWhileDroppingAndFinding() {
+		DecodeRateController controller = new DecodeRateController(4, 1);
+
+		// Every frame finds a free worker
+		window(controller, FAST, true);
+		assertEquals(1, controller.getConcurrency());
+
+		// Frames dropped, but no codes in view
+		dropped++;
+		window(controller, FAST, false);
+		assertEquals(1, controller.getConcurrency());
+		assertEquals(0, controller.getSuccessRate(), 0);
+
+		dropped++;
+		window(controller, FAST, true);
+		assertEquals(2, controller.getConcurrency());
+		assertEquals(1, controller.getSuccessRate(), 0);
+	}
+
+	@Test
+	public void withinTheTargetButNotWellBelowItNothingChanges() {
+		DecodeRateController controller = new DecodeRateController(4, 2);
+		dropped++;
+
+		assertFalse(window(controller, 90 * MS, true));
+
+		assertEquals(2, controller.getConcurrency());
+		assertEquals(0, controller.getFrameIntervalNanos());
+	}
+
+	@Test
+	public void throttledDeviceBacksOffWithinTheTarget() {
+		DecodeRateController controller = new DecodeRateController(4, 2);
+		window(controller, 40 * MS, true);
+
+		// Still under 100 ms, but more than 1.5 times the 40 ms seen before at this concurrency
+		assertTrue(window(controller, 70 * MS, true));
+
+		assertEquals(1, controller.getConcurrency());
+	}
+
+	@Test
+	public void fixedConcurrencyAdaptsOnlyTheFrameInterval() {
+		DecodeRateController controller = new DecodeRateController(4, 1);
+		controller.setFixedConcurrency(3);
+
+		assertFalse(window(controller, SLOW, false));
+
+		assertEquals(3, controller.getConcurrency());
+		assertEquals(DecodeRateController.MIN_FRAME_INTERVAL_MS * MS,
+				controller.getFrameIntervalNanos());
+		controller.setFixedConcurrency(8);
+		assertEquals(4, controller.getConcurrency());
+	}
+
+	@Test
+	public void fixedFrameIntervalAdaptsOnlyTheConcurrency() {
+		DecodeRateController controller = new DecodeRateController(4, 2);
+		controller.setFixedFrameInterval(100);
+
+		window(controller, SLOW, false);
+		window(controller, SLOW, false);
+		assertEquals(1, controller.getConcurrency());
+		assertEquals(100 * MS, controller.getFrameIntervalNanos());
+
+		dropped++;
+		window(controller, FAST, true);
+		assertEquals(2, controller.getConcurrency());
+		assertEquals(100 * MS, controller.getFrameIntervalNanos());
+	}
+
+	@Test
+	public void newTargetDropsTheFixedSettings() {
+		DecodeRateController controller = new DecodeRateController(4, 2);
+		controller.setFixedConcurrency(2);
+		controller.setFixedFrameInterval(100);
+
+		controller.setTargetLatency(300);
+		window(controller, SLOW, false);
+
+		// 200 ms is within the new target of 300 ms
+		assertEquals(2, controller.getConcurrency());
+		controller.setTargetLatency(100);
+		window(controller, SLOW, false);
+		assertEquals(1, controller.getConcurrency());
+	}
+
+	@Test
+	public void limitCapsTheConcurrency() {
+		DecodeRateController controller = new DecodeRateController(4, 4);
+
+		controller.setLimit(2);
+		assertEquals(2, controller.getConcurrency());
+		dropped++;
+		window(controller, FAST, true);
+		assertEquals(2, controller.getConcurrency());
+
+		controller.setLimit(0);
+		assertEquals(1, controller.getConcurrency());
+		controller.setLimit(4);
+		controller.setFixedConcurrency(3);
+		assertEquals(3, controller.getConcurrency());
+		controller.setLimit(2);
+		assertEquals(2, controller.getConcurrency());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void zeroTargetIsRejected() {
+		new DecodeRateController(4, 2).setTargetLatency(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeFrameIntervalIsRejected() {
+		new DecodeRateController(4, 2).setFixedFrameInterval(-1);
+	}
+
+	/**
+	 * @return whether the concurrency changed at the end of the window.
+	 */
+	private boolean window(DecodeRateController controller, long decodeNanos, boolean success) {
+		boolean changed = false;
+		for (int i = 0; i < DecodeRateController.WINDOW; i++) {
+			changed = controller.onDecodeFinished(decodeNanos, success, dropped);
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,109 @@
+package com.ejin.sample.camera;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.hardware.Camera;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Stands in for an open camera previewing {@code width} x {@code height} NV21 frames: publishes a
+ * session for them, takes the buffers {@link FrameBufferPool} hands to the camera and fills them
+ * with frames for the callback {@link DecodeHelper} registered.
+ */
+final class FakePreview {
+
+	// Stub only, so the buffers handed to it are not kept as recorded invocations
+	final Camera camera = mock(Camera.class, withSettings().stubOnly());
+	final int width;
+	final int height;
+	final FrameGeometry geometry;
+	private final CameraManager manager;
+	private final Queue<byte[]> queuedBuffers = new ArrayDeque<>();
+
+	/**
+	 * @param crop left, top, width and height of the framing rect on the sensor.
+	 */
+	FakePreview(CameraManager manager, int width, int height, int... crop) {
+		this.manager = manager;
+		this.width = width;
+		this.height = height;
+		geometry = new FrameGeometry(width, height, 0, false, crop[0], crop[1], crop[2], crop[3]);
+		manager.setSession(new CameraSession(CameraManager.SCANNER_QR_CODE, new Point(), new Point(),
+				new Point(), new Rect(), new Rect(), geometry, geometry));
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) {
+				synchronized (queuedBuffers) {
+					queuedBuffers.add((byte[]) invocation.getArguments()[0]);
+				}
+				return null;
+			}
+		}).when(camera).addCallbackBuffer(any(byte[].class));
+	}
+
+	int getBufferSize() {
+		return width * height * 3 / 2;
+	}
+
+	/**
+	 * Clears the camera's buffer queue and hands it the pool's buffers again, as starting the
+	 * preview with a callback set does.
+	 */
+	void attach() {
+		stop();
+		FrameBufferPool pool = manager.getFrameBufferPool();
+		if (pool != null) {
+			pool.attach(camera, getBufferSize());
+		}
+	}
+
+	/**
+	 * Clears the camera's buffer queue, as stopping the preview does.
+	 */
+	void stop() {
+		synchronized (queuedBuffers) {
+			queuedBuffers.clear();
+		}
+	}
+
+	/**
+	 * @return buffers the camera may write the next frames into.
+	 */
+	int getQueuedBufferCount() {
+		synchronized (queuedBuffers) {
+			return queuedBuffers.size();
+		}
+	}
+
+	/**
+	 * Writes {@code frame} into the next queued buffer and delivers it to the registered callback.
+	 *
+	 * @return {@code false} if the camera has no buffer or no callback, so the frame is skipped.
+	 */
+	boolean deliver(byte[] frame) {
+		Camera.PreviewCallback callback = manager.getPreviewCallbackWithBuffer();
+		if (callback == null) {
+			return false;
+		}
+		byte[] buffer;
+		synchronized (queuedBuffers) {
+			buffer = queuedBuffers.poll();
+		}
+		if (buffer == null) {
+			return false;
+		}
+		System.arraycopy(frame, 0, buffer, 0, buffer.length);
+		callback.onPreviewFrame(buffer, camera);
+		return true;
+	}
+}
@@ -0,0 +1,159 @@
+package com.ejin.sample.camera;
+
+import android.hardware.Camera;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class FrameBufferPoolTest {
+
+	private static final int FRAME_BYTES = 640 * 480 * 3 / 2;
+
+	private FrameBufferPool pool;
+	private Camera camera;
+
+	@Before
+	public void setUp() {
+		pool = new FrameBufferPool();
+		camera = mock(Camera.class);
+	}
+
+	@Test
+	public void attachAllocatesThePoolOnce() {
+		pool.attach(camera, FRAME_BYTES);
+
+		assertEquals(FrameBufferPool.DEFAULT_POOL_SIZE, pool.getAllocationCount());
+		List<byte[]> queued = queuedBuffers(camera, FrameBufferPool.DEFAULT_POOL_SIZE);
+		for (byte[] buffer : queued) {
+			assertEquals(FRAME_BYTES, buffer.length);
+		}
+	}
+
+	@Test
+	public void steadyStateScanningDoesNotAllocate() {
+		pool.attach(camera, FRAME_BYTES);
+		List<byte[]> queued = queuedBuffers(camera, FrameBufferPool.DEFAULT_POOL_SIZE);
+
+		for (int frame = 0; frame < 1000; frame++) {
+			byte[] buffer = queued.get(frame % queued.size());
+			pool.acquire(buffer);
+			pool.recycle(buffer);
+		}
+
+		assertEquals(FrameBufferPool.DEFAULT_POOL_SIZE, pool.getAllocationCount());
+		// Every frame went back to the camera
+		verify(camera, times(FrameBufferPool.DEFAULT_POOL_SIZE + 1000))
+				.addCallbackBuffer(any(byte[].class));
+	}
+
+	@Test
+	public void reattachingAtTheSameSizeReusesTheBuffers() {
+		pool.attach(camera, FRAME_BYTES);
+		byte[] first = queuedBuffers(camera, FrameBufferPool.DEFAULT_POOL_SIZE).get(0);
+		pool.detach();
+
+		Camera reopened = mock(Camera.class);
+		pool.attach(reopened, FRAME_BYTES);
+
+		assertEquals(FrameBufferPool.DEFAULT_POOL_SIZE, pool.getAllocationCount());
+		assertSame(first, queuedBuffers(reopened, FrameBufferPool.DEFAULT_POOL_SIZE).get(0));
+	}
+
+	@Test
+	public void bufferOwnedByAWorkerIsNotHandedOutAgain() {
+		pool.attach(camera, FRAME_BYTES);
+		byte[] owned = queuedBuffers(camera, FrameBufferPool.DEFAULT_POOL_SIZE).get(0);
+		pool.acquire(owned);
+		pool.detach();
+
+		Camera reopened = mock(Camera.class);
+		pool.attach(reopened, FRAME_BYTES);
+		verify(reopened, never()).addCallbackBuffer(same(owned));
+
+		pool.recycle(owned);
+		verify(reopened).addCallbackBuffer(same(owned));
+	}
+
+	@Test
+	public void newPreviewSizeReallocates() {
+		pool.attach(camera, FRAME_BYTES);
+		pool.attach(camera, FRAME_BYTES * 4);
+
+		assertEquals(2 * FrameBufferPool.DEFAULT_POOL_SIZE, pool.getAllocationCount());
+	}
+
+	@Test
+	public void bufferOfThePreviousSizeIsDroppedOnRecycle() {
+		pool.attach(camera, FRAME_BYTES);
+		byte[] old = queuedBuffers(camera, FrameBufferPool.DEFAULT_POOL_SIZE).get(0);
+		pool.acquire(old);
+		pool.attach(camera, FRAME_BYTES * 4);
+
+		pool.recycle(old);
+
+		verify(camera, times(1)).addCallbackBuffer(same(old));
+	}
+
+	@Test
+	public void smallerPoolKeepsSomeBuffers() {
+		pool.attach(camera, FRAME_BYTES);
+		pool.detach();
+		pool.setPoolSize(2);
+		pool.attach(mock(Camera.class), FRAME_BYTES);
+		pool.detach();
+		pool.setPoolSize(3);
+		pool.attach(mock(Camera.class), FRAME_BYTES);
+
+		assertEquals(FrameBufferPool.DEFAULT_POOL_SIZE + 1, pool.getAllocationCount());
+	}
+
+	@Test
+	public void releasedPoolAllocatesAgain() {
+		pool.attach(camera, FRAME_BYTES);
+		pool.release();
+		pool.attach(camera, FRAME_BYTES);
+
+		assertEquals(2 * FrameBufferPool.DEFAULT_POOL_SIZE, pool.getAllocationCount());
+	}
+
+	@Test
+	public void foreignBufferIsIgnored() {
+		pool.attach(camera, FRAME_BYTES);
+		byte[] foreign = new byte[FRAME_BYTES];
+
+		pool.acquire(foreign);
+		pool.recycle(foreign);
+
+		verify(camera, never()).addCallbackBuffer(same(foreign));
+		assertEquals(0, pool.getDeliveryTime(foreign));
+	}
+
+	@Test
+	public void acquireNotesTheDeliveryTime() {
+		pool.attach(camera, FRAME_BYTES);
+		byte[] buffer = queuedBuffers(camera, FrameBufferPool.DEFAULT_POOL_SIZE).get(0);
+
+		pool.acquire(buffer);
+
+		assertNotEquals(0, pool.getDeliveryTime(buffer));
+	}
+
+	private static List<byte[]> queuedBuffers(Camera camera, int count) {
+		ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+		verify(camera, times(count)).addCallbackBuffer(captor.capture());
+		return captor.getAllValues();
+	}
+}
@@ -0,0 +1,102 @@
+package com.ejin.sample.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class FrameRotatorTest {
+
+	// Not a multiple of the tile size, so partial tiles are covered
+	private static final int SENSOR_WIDTH = 150;
+	private static final int SENSOR_HEIGHT = 110;
+	private static final int[] ROTATIONS = {0, 90, 180, 270};
+
+	private final byte[] frame = TestFrames.noise(SENSOR_WIDTH, SENSOR_HEIGHT, 42);
+
+	@Test
+	public void quarterTurnMatchesTheOldWholeFrameRotation() {
+		byte[] before = TestFrames.rotateClockwiseLikeBefore(frame, SENSOR_WIDTH, SENSOR_HEIGHT);
+		assertArrayEquals(before, TestFrames.upright(frame, SENSOR_WIDTH, SENSOR_HEIGHT, 90));
+
+		FrameGeometry whole = new FrameGeometry(SENSOR_WIDTH, SENSOR_HEIGHT, 90, false, 0, 0,
+				SENSOR_HEIGHT, SENSOR_WIDTH);
+		assertArrayEquals(before, new FrameRotator().rotateCrop(frame, whole));
+
+		FrameGeometry crop = new FrameGeometry(SENSOR_WIDTH, SENSOR_HEIGHT, 90, false, 13, 21, 70, 45);
+		assertArrayEquals(TestFrames.crop(before, SENSOR_HEIGHT, 13, 21, 70, 45),
+				new FrameRotator().rotateCrop(frame, crop));
+	}
+
+	@Test
+	public void everyRotationMatchesCounterclockwiseTurns() {
+		for (int rotation : ROTATIONS) {
+			FrameGeometry g = new FrameGeometry(SENSOR_WIDTH, SENSOR_HEIGHT, rotation, false, 7, 9,
+					61, 43);
+			assertArrayEquals("rotation " + rotation, expectedCrop(g),
+					new FrameRotator().rotateCrop(frame, g));
+		}
+	}
+
+	@Test
+	public void mirroredCropIsTakenFromTheOtherSide() {
+		for (int rotation : ROTATIONS) {
+			FrameGeometry g = new FrameGeometry(SENSOR_WIDTH, SENSOR_HEIGHT, rotation, true, 5, 11,
+					40, 30);
+			assertEquals(g.getFrameWidth() - 45, g.cropLeft);
+			assertArrayEquals("rotation " + rotation, expectedCrop(g),
+					new FrameRotator().rotateCrop(frame, g));
+		}
+	}
+
+	@Test
+	public void cropIsClippedToTheFrame() {
+		FrameGeometry g = new FrameGeometry(SENSOR_WIDTH, SENSOR_HEIGHT, 270, false, 80, 100, 100, 100);
+		assertEquals(SENSOR_HEIGHT - 80, g.cropWidth);
+		assertEquals(SENSOR_WIDTH - 100, g.cropHeight);
+		assertArrayEquals(expectedCrop(g), new FrameRotator().rotateCrop(frame, g));
+	}
+
+	@Test
+	public void downsampledCropAveragesBlocks() {
+		for (int rotation : ROTATIONS) {
+			FrameGeometry g = new FrameGeometry(SENSOR_WIDTH, SENSOR_HEIGHT, rotation, false, 3, 4,
+					50, 36);
+			byte[] full = expectedCrop(g);
+			byte[] half = new FrameRotator().downsampleCrop(frame, g);
+			assertEquals(25 * 18, half.length);
+			for (int y = 0; y < 18; y++) {
+				for (int x = 0; x < 25; x++) {
+					int sum = (full[2 * y * 50 + 2 * x] & 0xFF) + (full[2 * y * 50 + 2 * x + 1] & 0xFF)
+							+ (full[(2 * y + 1) * 50 + 2 * x] & 0xFF)
+							+ (full[(2 * y + 1) * 50 + 2 * x + 1] & 0xFF);
+					assertEquals("rotation " + rotation, sum / 4, half[y * 25 + x] & 0xFF);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void bufferIsReusedWhileTheCropSizeStays() {
+		FrameRotator rotator = new FrameRotator();
+		FrameGeometry g = new FrameGeometry(SENSOR_WIDTH, SENSOR_HEIGHT, 90, false, 0, 0, 64, 64);
+		byte[] first = rotator.rotateCrop(frame, g);
+		FrameGeometry moved = new FrameGeometry(SENSOR_WIDTH, SENSOR_HEIGHT, 270, false, 30, 40, 64, 64);
+		assertSame(first, rotator.rotateCrop(frame, moved));
+		FrameGeometry larger = new FrameGeometry(SENSOR_WIDTH, SENSOR_HEIGHT, 90, false, 0, 0, 80, 64);
+		assertNotSame(first, rotator.rotateCrop(frame, larger));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void oddRotationIsRejected() {
+		new FrameGeometry(SENSOR_WIDTH, SENSOR_HEIGHT, 45, false, 0, 0, 10, 10);
+	}
+
+	private byte[] expectedCrop(FrameGeometry g) {
+		byte[] upright = TestFrames.upright(frame, SENSOR_WIDTH, SENSOR_HEIGHT, g.rotation);
+		return TestFrames.crop(upright, g.getFrameWidth(), g.cropLeft, g.cropTop, g.cropWidth,
+				g.cropHeight);
+	}
+}
@@ -0,0 +1,165 @@
+package com.ejin.sample.camera;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FrameSchedulerTest {
+
+	/**
+	 * Runs the queued tasks only when told to, so the test decides when a worker finishes.
+	 */
+	private static final class ManualExecutor implements Executor {
+
+		final Queue<Runnable> tasks = new ArrayDeque<>();
+		boolean rejecting;
+
+		@Override
+		public void execute(Runnable command) {
+			if (rejecting) {
+				throw new RejectedExecutionException();
+			}
+			tasks.add(command);
+		}
+
+		void runAll() {
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				task.run();
+			}
+		}
+	}
+
+	private final List<byte[]> decoded = new ArrayList<>();
+	private final List<byte[]> released = new ArrayList<>();
+	private final List<byte[]> dropped = new ArrayList<>();
+	private final ManualExecutor executor = new ManualExecutor();
+	private byte[] failing;
+	private FrameScheduler scheduler;
+
+	@Before
+	public void setUp() {
+		scheduler = new FrameScheduler(executor, new FrameScheduler.FrameConsumer() {
+			@Override
+			public void decodeFrame(byte[] frame) {
+				decoded.add(frame);
+				if (frame == failing) {
+					throw new IllegalStateException("Bad frame");
+				}
+			}
+
+			@Override
+			public void releaseFrame(byte[] frame) {
+				released.add(frame);
+			}
+
+			@Override
+			public void dropFrame(byte[] frame) {
+				dropped.add(frame);
+			}
+		}, 2);
+	}
+
+	@Test
+	public void framesBeyondTheSlotsWaitAndOnlyTheNewestIsKept() {
+		byte[] first = new byte[1];
+		byte[] second = new byte[1];
+		byte[] stale = new byte[1];
+		byte[] newest = new byte[1];
+		scheduler.submit(first);
+		scheduler.submit(second);
+		scheduler.submit(stale);
+		scheduler.submit(newest);
+
+		assertEquals(2, scheduler.getInFlightCount());
+		assertEquals(3, scheduler.getQueueDepth());
+		assertEquals(1, dropped.size());
+		assertSame(stale, dropped.get(0));
+
+		executor.runAll();
+
+		assertEquals(3, decoded.size());
+		assertSame(newest, decoded.get(1));
+		assertEquals(3, released.size());
+		assertEquals(0, scheduler.getQueueDepth());
+		assertEquals(4, scheduler.getReceivedCount());
+		assertEquals(1, scheduler.getDroppedCount());
+	}
+
+	@Test
+	public void failedDecodeGivesItsSlotBack() {
+		failing = new byte[1];
+		scheduler.submit(failing);
+		scheduler.submit(new byte[1]);
+		byte[] pending = new byte[1];
+		scheduler.submit(pending);
+
+		executor.runAll();
+
+		assertTrue(released.contains(failing));
+		assertTrue(decoded.contains(pending));
+		assertEquals(0, scheduler.getInFlightCount());
+		for (int i = 0; i < 10; i++) {
+			scheduler.submit(new byte[1]);
+			executor.runAll();
+		}
+		assertEquals(13, decoded.size());
+	}
+
+	@Test
+	public void rejectedFrameIsReleased() {
+		executor.rejecting = true;
+		byte[] frame = new byte[1];
+
+		scheduler.submit(frame);
+
+		assertSame(frame, released.get(0));
+		assertEquals(0, scheduler.getInFlightCount());
+	}
+
+	@Test
+	public void clearReleasesThePendingFrame() {
+		scheduler.submit(new byte[1]);
+		scheduler.submit(new byte[1]);
+		byte[] pending = new byte[1];
+		scheduler.submit(pending);
+
+		scheduler.clear();
+
+		assertSame(pending, released.get(0));
+		assertEquals(2, scheduler.getQueueDepth());
+		executor.runAll();
+		assertEquals(2, decoded.size());
+	}
+
+	@Test
+	public void loweredLimitTakesEffectAsWorkersFinish() {
+		scheduler.submit(new byte[1]);
+		scheduler.submit(new byte[1]);
+		byte[] pending = new byte[1];
+		scheduler.submit(pending);
+		scheduler.setMaxInFlight(1);
+
+		// The first worker gives its slot up, the second carries on with the pending frame
+		executor.runAll();
+
+		assertEquals(3, decoded.size());
+		assertSame(pending, decoded.get(2));
+		assertEquals(0, scheduler.getQueueDepth());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void noSlotsIsRejected() {
+		scheduler.setMaxInFlight(0);
+	}
+}
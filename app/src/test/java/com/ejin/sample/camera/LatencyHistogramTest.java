@@ -0,0 +1,141 @@
+package com.ejin.sample.camera;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+	private static final long MS = 1000000L;
+
+	@Test
+	public void smallValuesAreExact() {
+		for (long micros = 0; micros < 32; micros++) {
+			assertEquals(micros, LatencyHistogram.bucketValue(LatencyHistogram.bucketIndex(micros)));
+		}
+	}
+
+	@Test
+	public void bucketsAreOffByAtMostASixteenth() {
+		int previous = -1;
+		for (long micros = 32; micros < (1L << 36); micros += micros / 7 + 1) {
+			int index = LatencyHistogram.bucketIndex(micros);
+			long value = LatencyHistogram.bucketValue(index);
+
+			assertTrue(micros + " us in bucket of " + value, Math.abs(value - micros) <= micros / 16);
+			// Larger values never land in an earlier bucket
+			assertTrue(micros + " us", index >= previous);
+			previous = index;
+		}
+	}
+
+	@Test
+	public void hugeValuesLandInTheLastBucket() {
+		int last = LatencyHistogram.bucketIndex(Long.MAX_VALUE / 1000);
+
+		assertEquals(last, LatencyHistogram.bucketIndex(1L << 50));
+		assertTrue(LatencyHistogram.bucketIndex(1L << 36) < last);
+	}
+
+	@Test
+	public void percentilesOfAUniformSpread() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int ms = 1; ms <= 100; ms++) {
+			histogram.record(ms * MS);
+		}
+
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(100, snapshot.getCount());
+		assertEquals(50500 * 1000L, snapshot.getMeanNanos());
+		assertEquals(100 * MS, snapshot.getMaxNanos());
+		assertWithinASixteenth(50 * MS, snapshot.getValueAtPercentile(50));
+		assertWithinASixteenth(90 * MS, snapshot.getValueAtPercentile(90));
+		assertWithinASixteenth(99 * MS, snapshot.getValueAtPercentile(99));
+		// Never past the largest value recorded
+		assertEquals(100 * MS, snapshot.getValueAtPercentile(100));
+		assertWithinASixteenth(1 * MS, snapshot.getValueAtPercentile(0));
+	}
+
+	@Test
+	public void outlierShowsOnlyInTheTail() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 99; i++) {
+			histogram.record(20 * MS);
+		}
+		histogram.record(2000 * MS);
+
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertWithinASixteenth(20 * MS, snapshot.getValueAtPercentile(99));
+		assertWithinASixteenth(2000 * MS, snapshot.getValueAtPercentile(99.5));
+	}
+
+	@Test
+	public void emptyAndNegative() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		LatencyHistogram.Snapshot empty = histogram.snapshot();
+
+		assertEquals(0, empty.getCount());
+		assertEquals(0, empty.getMeanNanos());
+		assertEquals(0, empty.getValueAtPercentile(50));
+
+		histogram.record(-5 * MS);
+		assertEquals(1, histogram.snapshot().getCount());
+		assertEquals(0, histogram.snapshot().getMaxNanos());
+	}
+
+	@Test
+	public void resetStartsOver() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(30 * MS);
+		LatencyHistogram.Snapshot before = histogram.snapshot();
+
+		histogram.reset();
+		histogram.record(5 * MS);
+
+		// A snapshot taken earlier keeps its counts
+		assertEquals(30 * MS, before.getMaxNanos());
+		assertEquals(1, histogram.snapshot().getCount());
+		assertEquals(5 * MS, histogram.snapshot().getMaxNanos());
+	}
+
+	@Test
+	public void concurrentRecordingLosesNothing() throws InterruptedException {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		final int perThread = 20000;
+		Thread[] threads = new Thread[4];
+		final CountDownLatch start = new CountDownLatch(1);
+		for (int t = 0; t < threads.length; t++) {
+			final long offset = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < perThread; i++) {
+						histogram.record((i % 1000 + offset) * 1000L);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(threads.length * perThread, snapshot.getCount());
+		assertEquals((999 + threads.length - 1) * 1000L, snapshot.getMaxNanos());
+	}
+
+	private static void assertWithinASixteenth(long expected, long actual) {
+		assertTrue("expected about " + expected + ", was " + actual,
+				Math.abs(actual - expected) <= expected / 16);
+	}
+}
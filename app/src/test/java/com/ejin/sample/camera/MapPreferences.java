@@ -0,0 +1,147 @@
+package com.ejin.sample.camera;
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Preferences held in a map, written through at once by both commit and apply.
+ */
+final class MapPreferences implements SharedPreferences {
+
+	private final Map<String, Object> values = new HashMap<>();
+
+	@Override
+	public Map<String, ?> getAll() {
+		return new HashMap<>(values);
+	}
+
+	@Override
+	public String getString(String key, String defValue) {
+		return values.containsKey(key) ? (String) values.get(key) : defValue;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Set<String> getStringSet(String key, Set<String> defValues) {
+		return values.containsKey(key) ? (Set<String>) values.get(key) : defValues;
+	}
+
+	@Override
+	public int getInt(String key, int defValue) {
+		return values.containsKey(key) ? (Integer) values.get(key) : defValue;
+	}
+
+	@Override
+	public long getLong(String key, long defValue) {
+		return values.containsKey(key) ? (Long) values.get(key) : defValue;
+	}
+
+	@Override
+	public float getFloat(String key, float defValue) {
+		return values.containsKey(key) ? (Float) values.get(key) : defValue;
+	}
+
+	@Override
+	public boolean getBoolean(String key, boolean defValue) {
+		return values.containsKey(key) ? (Boolean) values.get(key) : defValue;
+	}
+
+	@Override
+	public boolean contains(String key) {
+		return values.containsKey(key);
+	}
+
+	@Override
+	public Editor edit() {
+		return new MapEditor();
+	}
+
+	@Override
+	public void registerOnSharedPreferenceChangeListener(
+			OnSharedPreferenceChangeListener listener) {
+	}
+
+	@Override
+	public void unregisterOnSharedPreferenceChangeListener(
+			OnSharedPreferenceChangeListener listener) {
+	}
+
+	private final class MapEditor implements Editor {
+
+		private final Map<String, Object> changes = new HashMap<>();
+		private boolean cleared;
+
+		@Override
+		public Editor putString(String key, String value) {
+			changes.put(key, value);
+			return this;
+		}
+
+		@Override
+		public Editor putStringSet(String key, Set<String> values) {
+			changes.put(key, values);
+			return this;
+		}
+
+		@Override
+		public Editor putInt(String key, int value) {
+			changes.put(key, value);
+			return this;
+		}
+
+		@Override
+		public Editor putLong(String key, long value) {
+			changes.put(key, value);
+			return this;
+		}
+
+		@Override
+		public Editor putFloat(String key, float value) {
+			changes.put(key, value);
+			return this;
+		}
+
+		@Override
+		public Editor putBoolean(String key, boolean value) {
+			changes.put(key, value);
+			return this;
+		}
+
+		@Override
+		public Editor remove(String key) {
+			// Removed on commit, as a null value is
+			changes.put(key, null);
+			return this;
+		}
+
+		@Override
+		public Editor clear() {
+			cleared = true;
+			return this;
+		}
+
+		@Override
+		public boolean commit() {
+			// Cleared first, whatever order clear() was called in
+			if (cleared) {
+				values.clear();
+			}
+			for (Map.Entry<String, Object> change : changes.entrySet()) {
+				if (change.getValue() == null) {
+					values.remove(change.getKey());
+				} else {
+					values.put(change.getKey(), change.getValue());
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public void apply() {
+			commit();
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package com.ejin.sample.camera;
+
+import android.content.Context;
+
+import org.junit.Test;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+public class MemoryBudgetTest {
+
+	private static final int WIDTH = 1280;
+	private static final int HEIGHT = 720;
+	private static final int FRAME_BYTES = WIDTH * HEIGHT * 3 / 2;
+
+	private final FrameGeometry geometry = new FrameGeometry(WIDTH, HEIGHT, 0, false, 400, 120,
+			480, 480);
+
+	@Test
+	public void everythingWantedFitsALargeBudget() {
+		MemoryBudget plan = MemoryBudget.fit(64L << 20, FRAME_BYTES, geometry, 4, 4, true, false);
+
+		assertEquals(4, plan.frameBuffers);
+		assertEquals(4, plan.workers);
+		assertTrue(plan.roiPyramid);
+		// 4 frames, and per worker a 480x480 crop and the pyramid's two quarter frames
+		assertEquals(4L * FRAME_BYTES + 4 * (273600 + 547200), plan.bytes);
+	}
+
+	@Test
+	public void pyramidGoesFirst() {
+		MemoryBudget plan = MemoryBudget.fit(7000000, FRAME_BYTES, geometry, 4, 4, true, false);
+
+		assertFalse(plan.roiPyramid);
+		assertEquals(4, plan.workers);
+		assertEquals(4, plan.frameBuffers);
+		assertTrue(plan.bytes <= 7000000);
+	}
+
+	@Test
+	public void workersGoNextTakingSpareBuffersWithThem() {
+		MemoryBudget plan = MemoryBudget.fit(6000000, FRAME_BYTES, geometry, 4, 4, true, false);
+
+		assertEquals(1, plan.workers);
+		// No more than two buffers per worker waiting
+		assertEquals(3, plan.frameBuffers);
+		assertEquals(3L * FRAME_BYTES + 273600, plan.bytes);
+	}
+
+	@Test
+	public void minimalSetupEvenOverBudget() {
+		MemoryBudget plan = MemoryBudget.fit(1, FRAME_BYTES, geometry, 8, 4, true, true);
+
+		assertEquals(MemoryBudget.MIN_FRAME_BUFFERS, plan.frameBuffers);
+		assertEquals(1, plan.workers);
+		assertFalse(plan.roiPyramid);
+		assertTrue(plan.bytes > 1);
+	}
+
+	@Test
+	public void multiCodeTilesCostMore() {
+		long single = MemoryBudget.fit(64L << 20, FRAME_BYTES, geometry, 4, 4, false, false).bytes;
+		long multi = MemoryBudget.fit(64L << 20, FRAME_BYTES, geometry, 4, 4, false, true).bytes;
+
+		assertEquals(4 * (102400 + 12800 + 6400), multi - single);
+	}
+
+	@Test
+	public void multiCodeTilesShareThePyramidTileBuffers() {
+		long pyramid = MemoryBudget.fit(64L << 20, FRAME_BYTES, geometry, 4, 4, true, false).bytes;
+
+		// A multi-code tile, 320x320, is smaller than a pyramid tile, 640x360
+		assertEquals(pyramid, MemoryBudget.fit(64L << 20, FRAME_BYTES, geometry, 4, 4, true, true)
+				.bytes);
+	}
+
+	@Test
+	public void pauseKeepsFrameBuffersWithoutABudget() throws InterruptedException {
+		Session session = scan(0);
+
+		assertEquals(FrameBufferPool.DEFAULT_POOL_SIZE, session.buffersAfterRestart);
+		assertEquals(FrameBufferPool.DEFAULT_POOL_SIZE, session.allocationsAfterRestart);
+	}
+
+	@Test
+	public void pauseLetsGoOfFrameBuffersWithinABudget() throws InterruptedException {
+		Session session = scan(1);
+
+		assertEquals(1, session.framesInFlight);
+		// Let go of on pause, then only as many as the budget allows allocated again
+		assertEquals(MemoryBudget.MIN_FRAME_BUFFERS, session.buffersAfterRestart);
+		assertEquals(FrameBufferPool.DEFAULT_POOL_SIZE + MemoryBudget.MIN_FRAME_BUFFERS,
+				session.allocationsAfterRestart);
+	}
+
+	@Test
+	public void bytesHeldPerBudgetMode() throws InterruptedException {
+		Session none = scan(0);
+		Session large = scan(16L << 20);
+		Session small = scan(6000000);
+		Session minimal = scan(1);
+
+		// Everything fits, so 16 MiB decodes like no budget, but never holds more
+		assertTrue(none.bytesWhileScanning >= FrameBufferPool.DEFAULT_POOL_SIZE * FRAME_BYTES);
+		assertTrue(large.bytesWhileScanning <= 16L << 20);
+		assertTrue(small.bytesWhileScanning <= 6000000);
+		assertTrue(small.bytesWhileScanning < none.bytesWhileScanning);
+		assertTrue(minimal.bytesWhileScanning < small.bytesWhileScanning);
+		// Two frames and one worker decoding the framing rect only, exactly what was planned
+		assertEquals(MemoryBudget.fit(1, FRAME_BYTES, geometry, FrameBufferPool.DEFAULT_POOL_SIZE,
+				1, true, false).bytes, minimal.bytesWhileScanning);
+
+		assertTrue(none.bytesWhilePaused >= FrameBufferPool.DEFAULT_POOL_SIZE * FRAME_BYTES);
+		assertEquals(0, large.bytesWhilePaused);
+		assertEquals(0, small.bytesWhilePaused);
+		assertEquals(0, minimal.bytesWhilePaused);
+	}
+
+	private static final class Session {
+		int framesInFlight;
+		int buffersAfterRestart;
+		int allocationsAfterRestart;
+		long bytesWhileScanning;
+		long bytesWhilePaused;
+	}
+
+	/**
+	 * Decodes blank frames with the ROI pyramid on, then a QR code, which pauses the helper. The
+	 * bytes held are taken once the blank frames are decoded, by when a budget has trimmed the
+	 * frame buffers handed out before it applied.
+	 */
+	private Session scan(long budget) throws InterruptedException {
+		byte[] blank = TestFrames.blank(WIDTH, HEIGHT);
+		byte[] qrFrame = TestFrames.qrCode("budget", WIDTH, HEIGHT, 480, 200, 8);
+		CameraManager manager = new CameraManager(mock(Context.class));
+		FakePreview preview = new FakePreview(manager, WIDTH, HEIGHT, geometry.cropLeft,
+				geometry.cropTop, geometry.cropWidth, geometry.cropHeight);
+		DecodeHelper helper = new DecodeHelper(manager);
+		final Semaphore results = new Semaphore(0);
+		helper.setFrameInterval(0);
+		helper.setRoiPyramidBudget(5, 5, 10);
+		helper.setMemoryBudget(budget);
+		helper.setDecodeResultListener(new DecodeResultListener() {
+			@Override
+			public void onResult(DecodeResult result) {
+				results.release();
+			}
+		});
+		Session session = new Session();
+		try {
+			helper.start();
+			FrameBufferPool pool = manager.getFrameBufferPool();
+			preview.attach();
+			for (int i = 0; i < 20; i++) {
+				deliver(preview, blank);
+			}
+			awaitIdle(helper);
+			session.bytesWhileScanning = helper.getBufferBytes();
+			while (!results.tryAcquire(1, TimeUnit.MILLISECONDS)) {
+				preview.deliver(qrFrame);
+			}
+			awaitIdle(helper);
+			session.framesInFlight = helper.getMaxFramesInFlight();
+			preview.stop();
+			session.bytesWhilePaused = helper.getBufferBytes();
+
+			helper.start();
+			preview.attach();
+			session.buffersAfterRestart = preview.getQueuedBufferCount();
+			session.allocationsAfterRestart = pool.getAllocationCount();
+		} finally {
+			helper.close();
+		}
+		return session;
+	}
+
+	private static void deliver(FakePreview preview, byte[] frame) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!preview.deliver(frame)) {
+			if (System.nanoTime() > deadline) {
+				fail("No buffer given back to the camera");
+			}
+			Thread.sleep(1);
+		}
+	}
+
+	private static void awaitIdle(DecodeHelper helper) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (helper.getQueueDepth() > 0) {
+			if (System.nanoTime() > deadline) {
+				fail("Frames still queued: " + helper.getQueueDepth());
+			}
+			Thread.sleep(1);
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package com.ejin.sample.camera;
+
+import com.google.zxing.Result;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Decoding with one {@link DecodeWorker} per thread, as {@link DecodeHelper} does, must read
+ * every frame exactly as a single worker does, however the frames are spread over the threads.
+ */
+public class ParallelDecodeTest {
+
+	private static final int WIDTH = 640;
+	private static final int HEIGHT = 480;
+	private static final int THREADS = 4;
+	private static final int ROUNDS = 20;
+	private static final String NOTHING = "";
+
+	private final FrameGeometry geometry = new FrameGeometry(WIDTH, HEIGHT, 0, false, 80, 0, 480, 480);
+	private final List<byte[]> frames = new ArrayList<>();
+	private final Map<byte[], Integer> frameIndex = new IdentityHashMap<>();
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		for (int i = 0; i < 12; i++) {
+			add(TestFrames.qrCode("parcel-" + i, WIDTH, HEIGHT, 140 + i * 4, 80 + i * 3, 8));
+		}
+		for (int i = 0; i < 4; i++) {
+			add(TestFrames.barCode("CODE128-" + i, WIDTH, HEIGHT, 120, 180, 3, 100));
+		}
+		for (int i = 0; i < 4; i++) {
+			add(TestFrames.blank(WIDTH, HEIGHT));
+		}
+		executor = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	private void add(byte[] frame) {
+		frameIndex.put(frame, frames.size());
+		frames.add(frame);
+	}
+
+	@Test
+	public void workersReadWhatASingleWorkerReads() throws InterruptedException {
+		List<String> expected = decodeSerially(DecodeMode.ALL);
+		for (int i = 0; i < 16; i++) {
+			assertTrue("Frame " + i + " not read at all", !NOTHING.equals(expected.get(i)));
+		}
+		for (int i = 16; i < frames.size(); i++) {
+			assertEquals(NOTHING, expected.get(i));
+		}
+
+		final ThreadLocal<DecodeWorker> workers = new ThreadLocal<DecodeWorker>() {
+			@Override
+			protected DecodeWorker initialValue() {
+				return new DecodeWorker(TestFrames.hints());
+			}
+		};
+		final List<String> mismatches = new CopyOnWriteArrayList<>();
+		final ConcurrentHashMap<Integer, AtomicInteger> decodedCounts = new ConcurrentHashMap<>();
+		final CountDownLatch done = new CountDownLatch(frames.size() * ROUNDS);
+		final List<String> reference = expected;
+		FrameScheduler scheduler = new FrameScheduler(executor, new FrameScheduler.FrameConsumer() {
+			@Override
+			public void decodeFrame(byte[] frame) {
+				int index = frameIndex.get(frame);
+				Result result = workers.get().decodeFrame(frame, geometry, DecodeMode.ALL);
+				String text = result == null ? NOTHING : result.getText();
+				if (!text.equals(reference.get(index))) {
+					mismatches.add("frame " + index + ": " + text);
+				}
+				AtomicInteger count = new AtomicInteger();
+				AtomicInteger previous = decodedCounts.putIfAbsent(index, count);
+				(previous == null ? count : previous).incrementAndGet();
+			}
+
+			@Override
+			public void releaseFrame(byte[] frame) {
+				done.countDown();
+			}
+
+			@Override
+			public void dropFrame(byte[] frame) {
+				done.countDown();
+			}
+		}, THREADS);
+
+		for (int round = 0; round < ROUNDS; round++) {
+			for (byte[] frame : frames) {
+				scheduler.submit(frame);
+			}
+		}
+
+		assertTrue("Frames not all handled", done.await(60, TimeUnit.SECONDS));
+		assertEquals(mismatches.toString(), 0, mismatches.size());
+		assertEquals(frames.size() * ROUNDS, scheduler.getReceivedCount());
+		int decoded = 0;
+		for (AtomicInteger count : decodedCounts.values()) {
+			decoded += count.get();
+		}
+		assertEquals(frames.size() * ROUNDS - scheduler.getDroppedCount(), decoded);
+		// A worker gives its slot up just after releasing its last frame
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (scheduler.getQueueDepth() > 0 && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(0, scheduler.getQueueDepth());
+	}
+
+	@Test
+	public void workersReadBothModesLikeASingleWorker() throws InterruptedException {
+		for (int mode : new int[]{DecodeMode.QR_CODE, DecodeMode.BAR_CODE}) {
+			List<String> expected = decodeSerially(mode);
+			List<String> parallel = decodeInParallel(mode);
+			assertEquals("mode " + mode, expected, parallel);
+		}
+	}
+
+	@Test
+	public void singleWorkerReadsTheSameFrameTheSameWayTwice() {
+		DecodeWorker worker = new DecodeWorker(TestFrames.hints());
+		Result first = worker.decodeFrame(frames.get(0), geometry, DecodeMode.ALL);
+		assertNotNull(first);
+		Result blank = worker.decodeFrame(frames.get(frames.size() - 1), geometry, DecodeMode.ALL);
+		assertNull(blank);
+		Result again = worker.decodeFrame(frames.get(0), geometry, DecodeMode.ALL);
+		assertEquals(first.getText(), again.getText());
+	}
+
+	private List<String> decodeSerially(int mode) {
+		DecodeWorker worker = new DecodeWorker(TestFrames.hints());
+		List<String> texts = new ArrayList<>();
+		for (byte[] frame : frames) {
+			Result result = worker.decodeFrame(frame, geometry, mode);
+			texts.add(result == null ? NOTHING : result.getText());
+		}
+		return texts;
+	}
+
+	/**
+	 * Every thread decodes every frame in its own order with its own worker.
+	 */
+	private List<String> decodeInParallel(final int mode) throws InterruptedException {
+		final String[][] texts = new String[THREADS][frames.size()];
+		final CountDownLatch done = new CountDownLatch(THREADS);
+		for (int t = 0; t < THREADS; t++) {
+			final int thread = t;
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					DecodeWorker worker = new DecodeWorker(TestFrames.hints());
+					for (int n = 0; n < frames.size(); n++) {
+						int i = (n + thread * 5) % frames.size();
+						Result result = worker.decodeFrame(frames.get(i), geometry, mode);
+						texts[thread][i] = result == null ? NOTHING : result.getText();
+					}
+					done.countDown();
+				}
+			});
+		}
+		assertTrue(done.await(60, TimeUnit.SECONDS));
+		for (int t = 1; t < THREADS; t++) {
+			for (int i = 0; i < frames.size(); i++) {
+				assertEquals("thread " + t + ", frame " + i, texts[0][i], texts[t][i]);
+			}
+		}
+		List<String> result = new ArrayList<>();
+		for (int i = 0; i < frames.size(); i++) {
+			result.add(texts[0][i]);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,80 @@
+package com.ejin.sample.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResultDeduplicatorTest {
+
+	private static final long MS = 1000000L;
+
+	@Test
+	public void repeatWithinTheWindowIsDropped() {
+		ResultDeduplicator deduplicator = new ResultDeduplicator(3000, 8);
+
+		assertTrue(deduplicator.offer("QR_CODE:a", 0));
+		assertFalse(deduplicator.offer("QR_CODE:a", 2999 * MS));
+		// Another code, or the same text in another format
+		assertTrue(deduplicator.offer("QR_CODE:b", 2999 * MS));
+		assertTrue(deduplicator.offer("EAN_13:a", 2999 * MS));
+	}
+
+	@Test
+	public void everySightingRestartsTheWindow() {
+		ResultDeduplicator deduplicator = new ResultDeduplicator(3000, 8);
+
+		assertTrue(deduplicator.offer("a", 0));
+		for (long t = 1000; t <= 10000; t += 1000) {
+			assertFalse(deduplicator.offer("a", t * MS));
+		}
+		// Out of view for the whole window, then scanned again
+		assertTrue(deduplicator.offer("a", 13000 * MS));
+	}
+
+	@Test
+	public void expiredCodesAreLetGo() {
+		ResultDeduplicator deduplicator = new ResultDeduplicator(3000, 8);
+		deduplicator.offer("a", 0);
+		deduplicator.offer("b", 1000 * MS);
+		deduplicator.offer("c", 2000 * MS);
+
+		deduplicator.offer("d", 4000 * MS);
+
+		// a and b expired, c is still within its window
+		assertEquals(2, deduplicator.size());
+		assertFalse(deduplicator.offer("c", 4500 * MS));
+	}
+
+	@Test
+	public void leastRecentlySeenLeavesAFullCache() {
+		ResultDeduplicator deduplicator = new ResultDeduplicator(3000, 2);
+		deduplicator.offer("a", 0);
+		deduplicator.offer("b", 1 * MS);
+		// a seen again, so b is now the oldest
+		deduplicator.offer("a", 2 * MS);
+
+		deduplicator.offer("c", 3 * MS);
+
+		assertEquals(2, deduplicator.size());
+		assertFalse(deduplicator.offer("a", 4 * MS));
+		assertTrue(deduplicator.offer("b", 5 * MS));
+	}
+
+	@Test
+	public void clearForgetsEverything() {
+		ResultDeduplicator deduplicator = new ResultDeduplicator(3000, 8);
+		deduplicator.offer("a", 0);
+
+		deduplicator.clear();
+
+		assertEquals(0, deduplicator.size());
+		assertTrue(deduplicator.offer("a", 1 * MS));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void emptyCacheIsRejected() {
+		new ResultDeduplicator(3000, 0);
+	}
+}
@@ -0,0 +1,126 @@
+package com.ejin.sample.camera;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ReusableHybridBinarizerTest {
+
+	/**
+	 * Hands out the same luminance array every time, so only the binarizer can allocate.
+	 */
+	private static final class ArraySource extends LuminanceSource {
+
+		private final byte[] luminances;
+
+		ArraySource(byte[] luminances, int width, int height) {
+			super(width, height);
+			this.luminances = luminances;
+		}
+
+		@Override
+		public byte[] getRow(int y, byte[] row) {
+			if (row == null || row.length < getWidth()) {
+				row = new byte[getWidth()];
+			}
+			System.arraycopy(luminances, y * getWidth(), row, 0, getWidth());
+			return row;
+		}
+
+		@Override
+		public byte[] getMatrix() {
+			return luminances;
+		}
+	}
+
+	@Test
+	public void matrixMatchesHybridBinarizer() throws NotFoundException {
+		int[][] sizes = {{320, 240}, {333, 211}, {40, 40}, {41, 300}};
+		for (int[] size : sizes) {
+			int width = size[0];
+			int height = size[1];
+			byte[] noise = TestFrames.noise(width, height, width * 31 + height);
+			assertMatches(new ArraySource(noise, width, height));
+		}
+		byte[] qrCode = TestFrames.qrCode("binarized", 320, 240, 40, 20, 6);
+		assertMatches(new ArraySource(qrCode, 320, 240));
+	}
+
+	@Test
+	public void tooSmallFallsBackToTheGlobalHistogram() throws NotFoundException {
+		byte[] qrCode = TestFrames.qrCode("tiny", 39, 39, 0, 0, 1);
+		assertMatches(new ArraySource(qrCode, 39, 39));
+	}
+
+	@Test
+	public void sameSizeReusesTheMatrix() throws NotFoundException {
+		ReusableHybridBinarizer.Buffers buffers = new ReusableHybridBinarizer.Buffers();
+		BitMatrix first = new ReusableHybridBinarizer(new ArraySource(
+				TestFrames.noise(160, 120, 1), 160, 120), buffers).getBlackMatrix();
+		ArraySource second = new ArraySource(TestFrames.noise(160, 120, 2), 160, 120);
+
+		BitMatrix reused = new ReusableHybridBinarizer(second, buffers).getBlackMatrix();
+
+		assertSame(first, reused);
+		// Cleared, not left over from the first frame
+		assertEquals(new HybridBinarizer(second).getBlackMatrix(), reused);
+
+		BitMatrix resized = new ReusableHybridBinarizer(new ArraySource(
+				TestFrames.noise(160, 128, 3), 160, 128), buffers).getBlackMatrix();
+		assertNotSame(first, resized);
+	}
+
+	@Test
+	public void matrixIsComputedOncePerFrame() throws NotFoundException {
+		ReusableHybridBinarizer binarizer = new ReusableHybridBinarizer(new ArraySource(
+				TestFrames.noise(160, 120, 4), 160, 120), new ReusableHybridBinarizer.Buffers());
+		assertSame(binarizer.getBlackMatrix(), binarizer.getBlackMatrix());
+	}
+
+	@Test
+	public void steadyStateBinarizingDoesNotAllocateBuffers() throws NotFoundException {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+		allocations.setThreadAllocatedMemoryEnabled(true);
+
+		int width = 480;
+		int height = 480;
+		LuminanceSource source = new ArraySource(TestFrames.noise(width, height, 5), width, height);
+		ReusableHybridBinarizer.Buffers buffers = new ReusableHybridBinarizer.Buffers();
+		for (int i = 0; i < 20; i++) {
+			new ReusableHybridBinarizer(source, buffers).getBlackMatrix();
+		}
+
+		long thread = Thread.currentThread().getId();
+		int frames = 100;
+		long before = allocations.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < frames; i++) {
+			new ReusableHybridBinarizer(source, buffers).getBlackMatrix();
+		}
+		long perFrame = (allocations.getThreadAllocatedBytes(thread) - before) / frames;
+
+		// The binarizer object itself, against width * height / 8 for a new BitMatrix alone
+		assertTrue("Allocated " + perFrame + " bytes per frame", perFrame < 1024);
+	}
+
+	private static void assertMatches(LuminanceSource source) throws NotFoundException {
+		BitMatrix expected = new HybridBinarizer(source).getBlackMatrix();
+		BitMatrix actual = new ReusableHybridBinarizer(source,
+				new ReusableHybridBinarizer.Buffers()).getBlackMatrix();
+		assertEquals(source.getWidth() + "x" + source.getHeight(), expected, actual);
+	}
+}
@@ -0,0 +1,238 @@
+package com.ejin.sample.camera;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RotatedLuminanceSourceTest {
+
+	private static final int SENSOR_WIDTH = 150;
+	private static final int SENSOR_HEIGHT = 110;
+	private static final int[] ROTATIONS = {0, 90, 180, 270};
+
+	private final byte[] frame = TestFrames.noise(SENSOR_WIDTH, SENSOR_HEIGHT, 7);
+
+	@Test
+	public void rowsAndMatrixMatchTheRotatedCrop() {
+		for (boolean mirror : new boolean[]{false, true}) {
+			for (int rotation : ROTATIONS) {
+				FrameGeometry g = new FrameGeometry(SENSOR_WIDTH, SENSOR_HEIGHT, rotation, mirror, 6,
+						8, 57, 41);
+				byte[] expected = expectedCrop(g);
+				LuminanceSource source = new RotatedLuminanceSource(frame, g, null);
+				String what = "rotation " + rotation + (mirror ? ", mirrored" : "");
+
+				assertEquals(g.cropWidth, source.getWidth());
+				assertEquals(g.cropHeight, source.getHeight());
+				assertArrayEquals(what, expected, source.getMatrix());
+				byte[] row = null;
+				for (int y = 0; y < g.cropHeight; y++) {
+					row = source.getRow(y, row);
+					assertArrayEquals(what + ", row " + y, Arrays.copyOfRange(expected,
+							y * g.cropWidth, (y + 1) * g.cropWidth), Arrays.copyOf(row, g.cropWidth));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void unrotatedSourceReadsLikePlanarYuv() {
+		FrameGeometry g = new FrameGeometry(SENSOR_WIDTH, SENSOR_HEIGHT, 0, false, 10, 20, 90, 60);
+		LuminanceSource planar = new PlanarYUVLuminanceSource(frame, SENSOR_WIDTH, SENSOR_HEIGHT,
+				10, 20, 90, 60, false);
+		LuminanceSource rotated = new RotatedLuminanceSource(frame, g, null);
+
+		assertArrayEquals(planar.getMatrix(), rotated.getMatrix());
+		for (int y = 0; y < 60; y++) {
+			assertArrayEquals(planar.getRow(y, null), rotated.getRow(y, null));
+		}
+	}
+
+	@Test
+	public void cropOfTheSourceMatchesCropOfTheMatrix() {
+		for (boolean mirror : new boolean[]{false, true}) {
+			for (int rotation : ROTATIONS) {
+				FrameGeometry g = new FrameGeometry(SENSOR_WIDTH, SENSOR_HEIGHT, rotation, mirror, 4,
+						5, 60, 50);
+				LuminanceSource source = new RotatedLuminanceSource(frame, g, null);
+				assertTrue(source.isCropSupported());
+				byte[] matrix = source.getMatrix();
+
+				LuminanceSource cropped = source.crop(11, 13, 20, 17);
+
+				assertArrayEquals("rotation " + rotation + (mirror ? ", mirrored" : ""),
+						TestFrames.crop(matrix, 60, 11, 13, 20, 17), cropped.getMatrix());
+			}
+		}
+	}
+
+	@Test
+	public void matrixIsBuiltOnceIntoTheRotatorsBuffer() {
+		FrameRotator rotator = new FrameRotator();
+		FrameGeometry g = new FrameGeometry(SENSOR_WIDTH, SENSOR_HEIGHT, 90, false, 0, 0, 64, 64);
+		LuminanceSource source = new RotatedLuminanceSource(frame, g, rotator);
+
+		byte[] matrix = source.getMatrix();
+
+		assertSame(matrix, source.getMatrix());
+		assertSame(matrix, rotator.rotateCrop(frame, g));
+	}
+
+	@Test
+	public void portraitQrCodeDecodesWithoutARotatedCopy() throws Exception {
+		// Sensor landscape, preview shown in portrait: the code is drawn turned on the sensor
+		int width = 640;
+		int height = 480;
+		byte[] upright = TestFrames.qrCode("rotated", height, width, 100, 180, 8);
+		byte[] sensor = new byte[width * height * 3 / 2];
+		byte[] turned = TestFrames.upright(upright, height, width, 270);
+		System.arraycopy(turned, 0, sensor, 0, width * height);
+		FrameGeometry g = new FrameGeometry(width, height, 90, false, 60, 140, 360, 360);
+
+		Result result = new QRCodeReader().decode(new BinaryBitmap(new HybridBinarizer(
+				new RotatedLuminanceSource(sensor, g, null))));
+
+		assertEquals("rotated", result.getText());
+	}
+
+	@Test
+	public void qrCodeCopiesOnlyTheCrop() throws Exception {
+		int width = 640;
+		int height = 480;
+		byte[] upright = TestFrames.qrCode("copied", height, width, 100, 180, 8);
+		FrameGeometry g = new FrameGeometry(width, height, 90, false, 60, 140, 360, 360);
+
+		// The binarizer takes the matrix once, so the crop is all that gets copied
+		assertEquals(360 * 360, bytesCopiedInPlace(upright, g, "copied", BarcodeFormat.QR_CODE));
+		assertEquals(width * height + 360 * 360,
+				bytesCopiedRotatingFirst(upright, g, "copied", BarcodeFormat.QR_CODE));
+	}
+
+	@Test
+	public void barCodeCopiesOnlyTheRowsRead() throws Exception {
+		int width = 640;
+		int height = 480;
+		byte[] upright = TestFrames.barCode("ROWS", height, width, 70, 300, 3, 60);
+		FrameGeometry g = new FrameGeometry(width, height, 90, false, 40, 280, 400, 100);
+
+		long inPlace = bytesCopiedInPlace(upright, g, "ROWS", BarcodeFormat.CODE_128);
+
+		// Whole rows, and not every one of the crop
+		assertEquals(0, inPlace % 400);
+		assertTrue(inPlace > 0 && inPlace < 400 * 100);
+		// Reading the same rows, less the frame turned up front
+		assertEquals(width * height + inPlace, bytesCopiedRotatingFirst(upright, g, "ROWS",
+				BarcodeFormat.CODE_128));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void frameSmallerThanItsGeometryIsRejected() {
+		new RotatedLuminanceSource(new byte[100], new FrameGeometry(SENSOR_WIDTH, SENSOR_HEIGHT, 0,
+				false, 0, 0, 10, 10), null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rowOutsideTheCropIsRejected() {
+		new RotatedLuminanceSource(frame, new FrameGeometry(SENSOR_WIDTH, SENSOR_HEIGHT, 90, false,
+				0, 0, 10, 10), null).getRow(10, null);
+	}
+
+	/**
+	 * Hands out the rows and the matrix of another source, adding up their bytes.
+	 */
+	private static final class CountingSource extends LuminanceSource {
+
+		private final LuminanceSource source;
+		long bytesCopied;
+
+		CountingSource(LuminanceSource source) {
+			super(source.getWidth(), source.getHeight());
+			this.source = source;
+		}
+
+		@Override
+		public byte[] getRow(int y, byte[] row) {
+			row = source.getRow(y, row);
+			bytesCopied += getWidth();
+			return row;
+		}
+
+		@Override
+		public byte[] getMatrix() {
+			byte[] matrix = source.getMatrix();
+			bytesCopied += matrix.length;
+			return matrix;
+		}
+	}
+
+	/**
+	 * Decodes through a source reading the sensor frame in place, as {@link DecodeWorker} does.
+	 *
+	 * @param upright luminance plane as shown in portrait, turned onto the sensor for the frame.
+	 * @return bytes copied out of the frame.
+	 */
+	private static long bytesCopiedInPlace(byte[] upright, FrameGeometry g, String text,
+										   BarcodeFormat format) throws Exception {
+		CountingSource source = new CountingSource(new RotatedLuminanceSource(sensorFrame(upright, g),
+				g, new FrameRotator()));
+		assertEquals(text, decode(source, format));
+		return source.bytesCopied;
+	}
+
+	/**
+	 * Decodes the way {@code DecodeHelper} did before the in-place source: the whole frame turned
+	 * upright into a new array, then cropped by a {@link PlanarYUVLuminanceSource}.
+	 */
+	private static long bytesCopiedRotatingFirst(byte[] upright, FrameGeometry g, String text,
+												 BarcodeFormat format) throws Exception {
+		byte[] rotated = TestFrames.rotateClockwiseLikeBefore(sensorFrame(upright, g),
+				g.sensorWidth, g.sensorHeight);
+		CountingSource source = new CountingSource(new PlanarYUVLuminanceSource(rotated,
+				g.getFrameWidth(), g.getFrameHeight(), g.cropLeft, g.cropTop, g.cropWidth,
+				g.cropHeight, false));
+		assertEquals(text, decode(source, format));
+		return rotated.length + source.bytesCopied;
+	}
+
+	private static byte[] sensorFrame(byte[] upright, FrameGeometry g) {
+		byte[] sensor = new byte[g.sensorWidth * g.sensorHeight * 3 / 2];
+		System.arraycopy(TestFrames.upright(upright, g.sensorHeight, g.sensorWidth, 360 - g.rotation),
+				0, sensor, 0, g.sensorWidth * g.sensorHeight);
+		return sensor;
+	}
+
+	/**
+	 * Decodes with the only reader wanted, as a scanner mode does.
+	 */
+	private static String decode(LuminanceSource source, BarcodeFormat format) throws Exception {
+		Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+		hints.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.of(format));
+		MultiFormatReader reader = new MultiFormatReader();
+		reader.setHints(hints);
+		return reader.decodeWithState(new BinaryBitmap(new HybridBinarizer(source))).getText();
+	}
+
+	private byte[] expectedCrop(FrameGeometry g) {
+		byte[] upright = TestFrames.upright(frame, SENSOR_WIDTH, SENSOR_HEIGHT, g.rotation);
+		return TestFrames.crop(upright, g.getFrameWidth(), g.cropLeft, g.cropTop, g.cropWidth,
+				g.cropHeight);
+	}
+}
@@ -0,0 +1,166 @@
+package com.ejin.sample.camera;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.oned.Code128Writer;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Synthetic NV21 preview frames for the unit tests: a light background, optionally with a QR
+ * code or a Code 128 bar code drawn on the sensor.
+ */
+final class TestFrames {
+
+	static final int BLACK = 20;
+	static final int WHITE = 230;
+
+	private TestFrames() {
+	}
+
+	/**
+	 * @return the hints {@link DecodeHelper} decodes with.
+	 */
+	static Map<DecodeHintType, Object> hints() {
+		Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+		hints.put(DecodeHintType.POSSIBLE_FORMATS, new ArrayList<>(DecodeFormatManager.DEFAULT_FORMATS));
+		return hints;
+	}
+
+	/**
+	 * @return a blank frame, luminance {@link #WHITE} and neutral chroma.
+	 */
+	static byte[] blank(int width, int height) {
+		byte[] frame = new byte[width * height * 3 / 2];
+		Arrays.fill(frame, 0, width * height, (byte) WHITE);
+		Arrays.fill(frame, width * height, frame.length, (byte) 128);
+		return frame;
+	}
+
+	/**
+	 * @return a frame of random luminance, for comparing pixel by pixel.
+	 */
+	static byte[] noise(int width, int height, long seed) {
+		byte[] frame = new byte[width * height * 3 / 2];
+		new Random(seed).nextBytes(frame);
+		return frame;
+	}
+
+	/**
+	 * Draws a QR code of {@code text} with its top left corner, quiet zone included, at
+	 * {@code left}, {@code top} of the sensor.
+	 */
+	static byte[] qrCode(String text, int width, int height, int left, int top, int moduleSize) {
+		try {
+			BitMatrix matrix = new QRCodeWriter().encode(text, BarcodeFormat.QR_CODE, 0, 0);
+			return draw(blank(width, height), width, matrix, left, top, moduleSize, moduleSize);
+		} catch (WriterException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	/**
+	 * Draws a Code 128 bar code of {@code text}, {@code barHeight} high, with its bars vertical on
+	 * the sensor.
+	 */
+	static byte[] barCode(String text, int width, int height, int left, int top, int moduleSize,
+						  int barHeight) {
+		try {
+			BitMatrix matrix = new Code128Writer().encode(text, BarcodeFormat.CODE_128, 0, 0);
+			return draw(blank(width, height), width, matrix, left, top, moduleSize, barHeight);
+		} catch (WriterException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private static byte[] draw(byte[] frame, int width, BitMatrix matrix, int left, int top,
+							   int moduleWidth, int moduleHeight) {
+		int height = frame.length * 2 / 3 / width;
+		for (int y = 0; y < matrix.getHeight(); y++) {
+			for (int x = 0; x < matrix.getWidth(); x++) {
+				if (!matrix.get(x, y)) {
+					continue;
+				}
+				for (int dy = 0; dy < moduleHeight; dy++) {
+					for (int dx = 0; dx < moduleWidth; dx++) {
+						int px = left + x * moduleWidth + dx;
+						int py = top + y * moduleHeight + dy;
+						if (px >= 0 && px < width && py >= 0 && py < height) {
+							frame[py * width + px] = (byte) BLACK;
+						}
+					}
+				}
+			}
+		}
+		return frame;
+	}
+
+	/**
+	 * The rotation {@link DecodeHelper} used to apply to the whole frame of a portrait preview,
+	 * a quarter turn clockwise, kept as the reference for {@link FrameRotator}.
+	 *
+	 * @return the upright luminance plane, {@code sensorHeight} wide.
+	 */
+	static byte[] rotateClockwiseLikeBefore(byte[] data, int sensorWidth, int sensorHeight) {
+		int width = sensorHeight;
+		int height = sensorWidth;
+		byte[] rotatedData = new byte[width * height];
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++)
+				rotatedData[y * width + width - x - 1] = data[y + x * height];
+		}
+		return rotatedData;
+	}
+
+	/**
+	 * A quarter turn counterclockwise, as {@code LuminanceSource.rotateCounterClockwise()} is
+	 * specified.
+	 *
+	 * @return the turned plane, {@code height} wide.
+	 */
+	static byte[] rotateCounterClockwise(byte[] plane, int width, int height) {
+		byte[] rotated = new byte[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				rotated[(width - 1 - x) * height + y] = plane[y * width + x];
+			}
+		}
+		return rotated;
+	}
+
+	/**
+	 * @param rotation clockwise, a multiple of 90.
+	 * @return the luminance plane of {@code data} turned upright, made of counterclockwise turns.
+	 */
+	static byte[] upright(byte[] data, int sensorWidth, int sensorHeight, int rotation) {
+		byte[] plane = Arrays.copyOf(data, sensorWidth * sensorHeight);
+		int width = sensorWidth;
+		int height = sensorHeight;
+		for (int turns = (360 - rotation) / 90 % 4; turns > 0; turns--) {
+			plane = rotateCounterClockwise(plane, width, height);
+			int swap = width;
+			width = height;
+			height = swap;
+		}
+		return plane;
+	}
+
+	/**
+	 * @return the {@code width} x {@code height} rect at {@code left}, {@code top} of a plane
+	 * {@code planeWidth} wide.
+	 */
+	static byte[] crop(byte[] plane, int planeWidth, int left, int top, int width, int height) {
+		byte[] crop = new byte[width * height];
+		for (int y = 0; y < height; y++) {
+			System.arraycopy(plane, (top + y) * planeWidth + left, crop, y * width, width);
+		}
+		return crop;
+	}
+}